@@ -0,0 +1,279 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Set of the IDs of the messages a host has received as the final
+ * recipient. Only 64 bit hashes of the IDs are stored, never the messages,
+ * so the set answers "has this message been delivered" without keeping the
+ * messages (and their paths) alive.
+ * <P>
+ * In the exact mode the hashes are kept in an open addressing array of
+ * longs that is doubled when it gets more than half full, so it is kept
+ * 1/4 to 1/2 full (16-32 bytes per ID). Different IDs with the same 64 bit
+ * hash would be mistaken for each other, which is practically impossible
+ * with the message counts of a simulation.</P>
+ * <P>
+ * In the bounded mode the IDs are kept in two Bloom filters of fixed size:
+ * new IDs go to the current filter and when it has received its capacity
+ * of IDs, it becomes the previous filter and the old previous filter is
+ * cleared and becomes the current one. The memory use stays constant; the
+ * cost is a small false positive rate (about 1% per filter) and that IDs
+ * older than two generations are forgotten.</P>
+ */
+public class DeliveredSet {
+	/** Number of hash functions of the Bloom filters */
+	private static final int BLOOM_HASHES = 7;
+	/** Bloom filter bits per ID of capacity (~1% false positives) */
+	private static final int BLOOM_BITS_PER_ID = 10;
+
+	/** Hashes of the exact mode (0 = empty bucket) */
+	private long[] hashes;
+	private int nrofHashes;
+
+	/** Bloom filters of the bounded mode */
+	private long[] current;
+	private long[] previous;
+	private int nrofBloomBits;
+	private int capacity;
+	private int nrofInCurrent;
+
+	/** Number of IDs added */
+	private int size;
+
+	/**
+	 * Creates an exact set
+	 */
+	public DeliveredSet() {
+		this.hashes = new long[16];
+	}
+
+	/**
+	 * Creates a bounded (Bloom filter) set
+	 * @param capacity Number of IDs per filter generation
+	 */
+	public DeliveredSet(int capacity) {
+		this.capacity = capacity;
+		this.nrofBloomBits = Math.max(64, capacity * BLOOM_BITS_PER_ID);
+		this.current = new long[(this.nrofBloomBits + 63) / 64];
+		this.previous = new long[this.current.length];
+	}
+
+	/**
+	 * Returns true if the set is in the bounded (Bloom filter) mode
+	 * @return true for the bounded mode
+	 */
+	public boolean isBounded() {
+		return this.hashes == null;
+	}
+
+	/**
+	 * Returns the number of IDs added to the set
+	 * @return the number of IDs
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns true if the ID is (probably, in the bounded mode) in the set
+	 * @param id The message ID
+	 * @return true if the ID is in the set
+	 */
+	public boolean contains(String id) {
+		long h = hash(id);
+		if (this.hashes != null) {
+			return this.hashes[bucketOf(h)] == h;
+		}
+		return inBloom(this.current, h) || inBloom(this.previous, h);
+	}
+
+	/**
+	 * Adds an ID to the set
+	 * @param id The message ID
+	 * @return true if the ID was not in the set
+	 */
+	public boolean add(String id) {
+		long h = hash(id);
+		if (this.hashes != null) {
+			return addHash(h);
+		}
+
+		if (inBloom(this.current, h) || inBloom(this.previous, h)) {
+			return false;
+		}
+		if (this.nrofInCurrent == this.capacity) {
+			long[] old = this.previous;
+			this.previous = this.current;
+			Arrays.fill(old, 0);
+			this.current = old;
+			this.nrofInCurrent = 0;
+		}
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		for (int i = 0; i < BLOOM_HASHES; i++) {
+			int bit = ((h1 + i * h2) & 0x7FFFFFFF) % this.nrofBloomBits;
+			this.current[bit >>> 6] |= 1L << bit;
+		}
+		this.nrofInCurrent++;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Adds a hash to an exact set
+	 * @param h The hash
+	 * @return true if the hash was not in the set
+	 */
+	private boolean addHash(long h) {
+		int bucket = bucketOf(h);
+		if (this.hashes[bucket] == h) {
+			return false;
+		}
+		this.hashes[bucket] = h;
+		this.size++;
+		if (++this.nrofHashes * 2 > this.hashes.length) {
+			grow();
+		}
+		return true;
+	}
+
+	private boolean inBloom(long[] filter, long h) {
+		int h1 = (int)h;
+		int h2 = (int)(h >>> 32);
+		for (int i = 0; i < BLOOM_HASHES; i++) {
+			int bit = ((h1 + i * h2) & 0x7FFFFFFF) % this.nrofBloomBits;
+			if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the bucket of a hash: either the bucket where the hash is or
+	 * the empty bucket where it would be put
+	 */
+	private int bucketOf(long h) {
+		int mask = this.hashes.length - 1;
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		while (this.hashes[i] != 0 && this.hashes[i] != h) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void grow() {
+		long[] old = this.hashes;
+		this.hashes = new long[old.length * 2];
+		for (long h : old) {
+			if (h != 0) {
+				this.hashes[bucketOf(h)] = h;
+			}
+		}
+	}
+
+	/**
+	 * Returns the 64 bit FNV-1a hash of an ID (never 0)
+	 */
+	private static long hash(String id) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0, n = id.length(); i < n; i++) {
+			h ^= id.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		/* final mixing so that similar IDs spread in the tables */
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h == 0 ? 1 : h;
+	}
+
+	/**
+	 * Returns the number of IDs per filter generation of a bounded set
+	 * @return The capacity or 0 for an exact set
+	 */
+	int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns the number of IDs in the current filter of a bounded set
+	 * @return The number of IDs or 0 for an exact set
+	 */
+	int getNrofInCurrent() {
+		return this.nrofInCurrent;
+	}
+
+	/**
+	 * Returns the number of longs {@link #writeTo(LongBuffer)} writes
+	 * @return The number of hashes of an exact set or the number of words
+	 * of both filters of a bounded set
+	 */
+	int getNrofWords() {
+		return this.hashes != null ? this.nrofHashes : this.current.length * 2;
+	}
+
+	/**
+	 * Writes the contents of this set: the hashes of an exact set or the
+	 * current and the previous filter of a bounded set
+	 * @param out The buffer to write to
+	 */
+	void writeTo(LongBuffer out) {
+		if (this.hashes != null) {
+			for (long h : this.hashes) {
+				if (h != 0) {
+					out.put(h);
+				}
+			}
+		}
+		else {
+			out.put(this.current);
+			out.put(this.previous);
+		}
+	}
+
+	/**
+	 * Reads a set written by {@link #writeTo(LongBuffer)}
+	 * @param capacity Capacity of the set ({@link #getCapacity()})
+	 * @param size Number of IDs in the set ({@link #size()})
+	 * @param nrofInCurrent Number of IDs in the current filter
+	 * ({@link #getNrofInCurrent()})
+	 * @param in The buffer to read from
+	 * @param nrofWords Number of longs to read ({@link #getNrofWords()})
+	 * @return The set
+	 */
+	static DeliveredSet readFrom(int capacity, int size, int nrofInCurrent,
+			LongBuffer in, int nrofWords) {
+		if (capacity == 0) {
+			DeliveredSet set = new DeliveredSet();
+			for (int i = 0; i < nrofWords; i++) {
+				set.addHash(in.get());
+			}
+			return set;
+		}
+
+		DeliveredSet set = new DeliveredSet(capacity);
+		assert nrofWords == set.getNrofWords() : "Invalid filter size " +
+			nrofWords;
+		in.get(set.current);
+		in.get(set.previous);
+		set.nrofInCurrent = nrofInCurrent;
+		set.size = size;
+		return set;
+	}
+
+	/**
+	 * Returns a String presentation of this set
+	 * @return a String presentation of this set
+	 */
+	public String toString() {
+		return "DeliveredSet of " + this.size + " IDs" +
+			(isBounded() ? " (bounded)" : "");
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import core.Message;
+
+/**
+ * Index of buffered messages by the address of their destination. The
+ * messages to a destination are kept in a doubly linked list whose ends
+ * are found from arrays indexed by the address, so adding and removing a
+ * message costs O(1) and looking up the messages to a destination boxes
+ * nothing. The list of a destination is dropped when its last message is
+ * removed.
+ */
+public class DestinationIndex {
+	/** Heads of the lists by destination address (null if no messages) */
+	private Entry[] heads;
+	/** Tails of the lists by destination address */
+	private Entry[] tails;
+	/** Entries by message ID */
+	private HashMap<String, Entry> entriesById;
+
+	/**
+	 * Creates a new, empty index
+	 */
+	public DestinationIndex() {
+		this.heads = new Entry[16];
+		this.tails = new Entry[16];
+		this.entriesById = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Adds a message to the index. If a message with the same ID is already
+	 * in the index, it is replaced.
+	 * @param m The message to add
+	 */
+	public void add(Message m) {
+		remove(m.getId());
+		int address = m.getTo().getAddress();
+		if (address >= this.heads.length) {
+			int capacity = Math.max(address + 1, this.heads.length * 2);
+			this.heads = Arrays.copyOf(this.heads, capacity);
+			this.tails = Arrays.copyOf(this.tails, capacity);
+		}
+		Entry e = new Entry(m, address);
+		e.prev = this.tails[address];
+		if (e.prev != null) {
+			e.prev.next = e;
+		}
+		else {
+			this.heads[address] = e;
+		}
+		this.tails[address] = e;
+		this.entriesById.put(m.getId(), e);
+	}
+
+	/**
+	 * Removes a message from the index
+	 * @param id ID of the message to remove
+	 * @return The removed message or null if there was no message with
+	 * the given ID
+	 */
+	public Message remove(String id) {
+		Entry e = this.entriesById.remove(id);
+		if (e == null) {
+			return null;
+		}
+		if (e.prev != null) {
+			e.prev.next = e.next;
+		}
+		else {
+			this.heads[e.address] = e.next;
+		}
+		if (e.next != null) {
+			e.next.prev = e.prev;
+		}
+		else {
+			this.tails[e.address] = e.prev;
+		}
+		return e.message;
+	}
+
+	/**
+	 * Adds the messages to a destination to a list in the order they were
+	 * added to the index. Doesn't create any objects (unless the list has to
+	 * grow).
+	 * @param address Address of the destination
+	 * @param list The list to add the messages to
+	 */
+	public void addAllTo(int address, List<? super Message> list) {
+		if (address < 0 || address >= this.heads.length) {
+			return;
+		}
+		for (Entry e = this.heads[address]; e != null; e = e.next) {
+			list.add(e.message);
+		}
+	}
+
+	/**
+	 * Returns the number of messages in the index
+	 * @return the number of messages
+	 */
+	public int size() {
+		return this.entriesById.size();
+	}
+
+	/**
+	 * A message in the list of its destination
+	 */
+	private static class Entry {
+		private final Message message;
+		private final int address;
+		private Entry prev;
+		private Entry next;
+
+		private Entry(Message message, int address) {
+			this.message = message;
+			this.address = address;
+		}
+	}
+}
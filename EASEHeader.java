@@ -0,0 +1,254 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.List;
+
+import core.Message;
+
+/**
+ * Routing header of the messages handled by {@link EASERouter}. The header
+ * is attached to a message once, as a single message property, and keeps
+ * the EASE state in plain fields that the routers read directly instead of
+ * looking up and casting separate properties. Which fields are used
+ * depends on the kind of the message:
+ * <UL>
+ * <LI/> data ({@link #KIND_DATA}): whether the message is jumping to an
+ * anchor point and the lattice position of the anchor, the
+ * {@link HopSet} of the hosts the message has visited (kept in step with
+ * the hop list of the message for constant time loop detection) and the
+ * number of copies its holder is responsible for (always one, except with
+ * {@link SprayAndEASERouter})
+ * <LI/> encounter table ({@link #KIND_TABLE}): the changes of the
+ * sender's encounter table and the table ack, i.e. the version of the
+ * receiver's table that the sender's copy of it is at
+ * <LI/> bundle ({@link #KIND_BUNDLE}): the data messages carried to the
+ * same next hop in one transfer (see {@link EASERouter#BUNDLE_SIZE_S})
+ * </UL>
+ * <P>
+ * Message properties are shared between the replicates of a message, so
+ * the receiving router must take its own {@link #copy()} of the header
+ * before changing it.</P>
+ */
+public class EASEHeader {
+	/** Message property key of the header ({@value}) */
+	public static final String KEY = "EASEHeader";
+
+	/** Kind of data messages */
+	public static final int KIND_DATA = 0;
+	/** Kind of encounter table exchange messages */
+	public static final int KIND_TABLE = 1;
+	/** Kind of bundle messages */
+	public static final int KIND_BUNDLE = 2;
+
+	private int kind;
+	/** Is the message jumping to an anchor point */
+	private boolean jumping;
+	/** Lattice position of the anchor point */
+	private double archorX;
+	private double archorY;
+	/** Encounter table changes carried by a table message */
+	private EncounterTableDelta table;
+	/** Version of the receiver's table that the sender's copy of it is at
+	 * (carried by a table message) */
+	private int tableAck;
+	/** Hosts a data message has visited (null for other messages) */
+	private HopSet hops;
+	/** Messages carried by a bundle message */
+	private List<Message> bundle;
+	/** Number of copies the holder of a data message may still hand out,
+	 * including its own */
+	private int copies = 1;
+
+	/**
+	 * Creates a new header for a data message
+	 */
+	public EASEHeader() {
+		this.kind = KIND_DATA;
+		this.hops = new HopSet();
+	}
+
+	/**
+	 * Creates a new header for an encounter table message
+	 * @param table The encounter table changes the message carries
+	 * @param tableAck Version of the receiver's table that the sender's
+	 * copy of it is at (0 if the sender has no copy)
+	 */
+	public EASEHeader(EncounterTableDelta table, int tableAck) {
+		this.kind = KIND_TABLE;
+		this.table = table;
+		this.tableAck = tableAck;
+	}
+
+	/**
+	 * Creates a new header for a bundle message
+	 * @param bundle The messages the bundle carries
+	 */
+	public EASEHeader(List<Message> bundle) {
+		this.kind = KIND_BUNDLE;
+		this.bundle = bundle;
+	}
+
+	/**
+	 * Returns the EASE header of a message
+	 * @param m The message
+	 * @return The header or null if the message doesn't have one
+	 */
+	public static EASEHeader of(Message m) {
+		return (EASEHeader)m.getProperty(KEY);
+	}
+
+	/**
+	 * Returns a copy of this header
+	 * @return a copy of this header
+	 */
+	public EASEHeader copy() {
+		EASEHeader h = new EASEHeader(this.table, this.tableAck);
+		h.kind = this.kind;
+		h.jumping = this.jumping;
+		h.archorX = this.archorX;
+		h.archorY = this.archorY;
+		h.hops = this.hops == null ? null : this.hops.copy();
+		h.bundle = this.bundle;
+		h.copies = this.copies;
+		return h;
+	}
+
+	/**
+	 * Returns the kind of the message ({@link #KIND_DATA}, 
+	 * {@link #KIND_TABLE} or {@link #KIND_BUNDLE})
+	 * @return the kind of the message
+	 */
+	public int getKind() {
+		return this.kind;
+	}
+
+	/**
+	 * Returns true if this is a header of an encounter table message
+	 * @return true for table messages
+	 */
+	public boolean isTable() {
+		return this.kind == KIND_TABLE;
+	}
+
+	/**
+	 * Returns true if this is a header of a bundle message
+	 * @return true for bundle messages
+	 */
+	public boolean isBundle() {
+		return this.kind == KIND_BUNDLE;
+	}
+
+	/**
+	 * Returns the encounter table changes of a table message
+	 * @return The changes or null if this is not a table message
+	 */
+	public EncounterTableDelta getTable() {
+		return this.table;
+	}
+
+	/**
+	 * Returns the version of the receiver's encounter table that the
+	 * sender of a table message has a copy of. The receiver sends the
+	 * changes after this version on its next refresh.
+	 * @return The version (0 if the sender has no copy of the table)
+	 */
+	public int getTableAck() {
+		return this.tableAck;
+	}
+
+	/**
+	 * Returns the messages carried by a bundle message
+	 * @return The messages or null if this is not a bundle message
+	 */
+	public List<Message> getBundle() {
+		return this.bundle;
+	}
+
+	/**
+	 * Returns the hosts a data message has visited
+	 * @return The hosts or null if this is not a data message
+	 */
+	public HopSet getHops() {
+		return this.hops;
+	}
+
+	/**
+	 * Returns true if the message is jumping to an anchor point
+	 * @return true if the message is jumping to an anchor point
+	 */
+	public boolean isJumping() {
+		return this.jumping;
+	}
+
+	/**
+	 * Starts jumping to an anchor point
+	 * @param x Lattice x coordinate of the anchor point
+	 * @param y Lattice y coordinate of the anchor point
+	 */
+	public void startJumping(double x, double y) {
+		this.jumping = true;
+		this.archorX = x;
+		this.archorY = y;
+	}
+
+	/**
+	 * Stops jumping to the anchor point. The anchor position is kept.
+	 */
+	public void stopJumping() {
+		this.jumping = false;
+	}
+
+	/**
+	 * Returns the lattice x coordinate of the anchor point
+	 * @return the x coordinate
+	 */
+	public double getArchorX() {
+		return this.archorX;
+	}
+
+	/**
+	 * Returns the lattice y coordinate of the anchor point
+	 * @return the y coordinate
+	 */
+	public double getArchorY() {
+		return this.archorY;
+	}
+
+	/**
+	 * Returns the number of copies of a data message the holder is
+	 * responsible for, including its own copy
+	 * @return the number of copies (1 for single-copy forwarding)
+	 */
+	public int getCopies() {
+		return this.copies;
+	}
+
+	/**
+	 * Sets the number of copies of a data message the holder is
+	 * responsible for
+	 * @param copies The number of copies (at least 1)
+	 */
+	public void setCopies(int copies) {
+		assert copies > 0 : "Invalid number of copies " + copies;
+		this.copies = copies;
+	}
+
+	/**
+	 * Returns a String presentation of this header
+	 * @return a String presentation of this header
+	 */
+	public String toString() {
+		if (isTable()) {
+			return "EASEHeader table " + this.table + ", ack " + this.tableAck;
+		}
+		if (isBundle()) {
+			return "EASEHeader bundle of " + this.bundle.size() + " messages";
+		}
+		return "EASEHeader " + (this.jumping ? "jumping to (" + this.archorX +
+				"," + this.archorY + ")" : "by encounter age") + 
+				(this.copies > 1 ? ", " + this.copies + " copies" : "");
+	}
+}
@@ -10,23 +10,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Random;
 
 import core.*;
 
-class MapTuple {
-
-	double mLastEncounterTime;
-	Coord mLastPosition;
-
-	public MapTuple(Coord coord, double time) {
-		mLastPosition = new Coord(coord.getX(), coord.getY());
-		mLastEncounterTime = time;
-	}
-
-}
-
 /**
  * Superclass for message routers.
  */
@@ -38,13 +30,177 @@ public class EASERouter extends ActiveRouter {
 	 * @param s The settings object
 	 */
 	
+	/** Namespace of the EASE router settings ({@value}) */
+	public static final String EASE_NS = "EASERouter";
+	/** Maximum number of entries in an encounter table -setting id 
+	 * ({@value}). Applies to the host's own table and to the copies of the
+	 * neighbors' tables; when a table is full, the least recently changed
+	 * entry is evicted. Default is no limit. */
+	public static final String MAX_TABLE_ENTRIES_S = "maxTableEntries";
+	/** Maximum age of encounter table entries (seconds) -setting id 
+	 * ({@value}). Older entries are evicted. Default is no limit. */
+	public static final String MAX_ENTRY_AGE_S = "maxEntryAge";
+	/** Maximum number of neighbors whose state (table copy and sent table
+	 * version) is kept -setting id ({@value}). The least recently updated
+	 * neighbor is evicted first. Default is no limit. */
+	public static final String MAX_NEIGHBOR_TABLES_S = "maxNeighborTables";
+	/** Maximum time (seconds) the state of a neighbor is kept after it was 
+	 * last updated -setting id ({@value}). Default is no limit. */
+	public static final String MAX_NEIGHBOR_TABLE_AGE_S = "maxNeighborTableAge";
+	/** Encounter table refresh interval (seconds) -setting id ({@value}).
+	 * A connected neighbor is sent our table changes again when this much
+	 * time has passed since the last update; used for neighbors whose 
+	 * mobility hasn't been measured yet. Default is 60. */
+	public static final String TABLE_REFRESH_S = "tableRefresh";
+	/** Minimum encounter table refresh interval (seconds) -setting id 
+	 * ({@value}). The refresh interval of a neighbor adapts to the time it
+	 * takes to move one lattice cell relative to this host, between the
+	 * minimum and the maximum. Default is the {@link #TABLE_REFRESH_S} 
+	 * value. */
+	public static final String MIN_TABLE_REFRESH_S = "minTableRefresh";
+	/** Maximum encounter table refresh interval (seconds) -setting id 
+	 * ({@value}). Default is the {@link #TABLE_REFRESH_S} value. */
+	public static final String MAX_TABLE_REFRESH_S = "maxTableRefresh";
+	/** Maximum bundle size (bytes) -setting id ({@value}). If greater than
+	 * zero, the messages planned to the same neighbor in an update are sent
+	 * together in bundles of at most this many bytes (a message larger 
+	 * than this is sent alone), so one transfer carries several messages.
+	 * All hosts must use EASE routers. Default is 0 (no bundling). */
+	public static final String BUNDLE_SIZE_S = "bundleSize";
+	/** Size of a lattice cell (meters) -setting id ({@value}). Positions
+	 * are compared on a square lattice of cells of this size. Default is
+	 * 15. */
+	public static final String CELL_SIZE_S = "cellSize";
+	
 	private int MSize = 15;
-	private HashMap<DTNHost, MapTuple> mapHosts = new HashMap<DTNHost, MapTuple>();
-	private HashMap<DTNHost, HashMap<DTNHost, MapTuple> > mapOfOtherHosts = 
-			new HashMap<DTNHost, HashMap<DTNHost, MapTuple> >();
+	private int maxTableEntries = Integer.MAX_VALUE;
+	private double maxEntryAge = Double.MAX_VALUE;
+	private int maxNeighborTables = Integer.MAX_VALUE;
+	private double maxNeighborTableAge = Double.MAX_VALUE;
+	private double tableRefresh = 60.;
+	private double minTableRefresh = 60.;
+	private double maxTableRefresh = 60.;
+	private int bundleSize = 0;
+	/** Lattice positions of the hosts (shared by the routers) */
+	private LatticePositions lattice;
+	
+	private EncounterTable mapHosts = new EncounterTable();
+	/** State of the neighbors, least recently updated first */
+	private LinkedHashMap<DTNHost, NeighborState> mapOfOtherHosts = 
+			new LinkedHashMap<DTNHost, NeighborState>();
+	/** Refresh schedules of the connected neighbors */
+	private HashMap<DTNHost, NeighborRefresh> refreshes = 
+			new HashMap<DTNHost, NeighborRefresh>();
+	/** Scheduled refreshes in the order of their deadlines, including the
+	 * stale entries of rescheduled and removed refreshes */
+	private PriorityQueue<RefreshEntry> refreshQueue = 
+			new PriorityQueue<RefreshEntry>();
+	/** Refresh queue entries that can be reused */
+	private ArrayList<RefreshEntry> freeRefreshEntries = 
+			new ArrayList<RefreshEntry>();
+	/** Sequence number of the next scheduled refresh */
+	private long nextRefreshSeq;
+	/** Connected neighbors whose refresh is due in the current update */
+	private ArrayList<DTNHost> dueRefreshes = new ArrayList<DTNHost>();
+	/** IDs of the buffered messages that are being sent in bundles */
+	private HashSet<String> bundledInFlight = new HashSet<String>();
+	/** Messages of the bundle being collected (reused) */
+	private ArrayList<Message> bundleMembers = new ArrayList<Message>();
+	private int nextBundleId;
+	private int nextTableId;
+	/** Metrics of this router (null if the metrics are disabled) */
+	private RouterMetrics metrics;
+	/** Planned forwarding transfers started in the current commit */
+	private int nrofStarted;
+	/** Reusable list of the messages handled in update() */
+	private ArrayList<Message> msgBuffer = new ArrayList<Message>();
+	/** Per-update index of the neighbors and their encounter tables */
+	private NextHopIndex nextHops = new NextHopIndex();
+	/** Per-update spatial index of the neighbors' lattice positions */
+	private NeighborGrid neighborGrid = new NeighborGrid();
+	/** Filter for the neighbors a message can be forwarded to */
+	private ForwardFilter forwardFilter = new ForwardFilter();
+	/** Reusable lattice position of this host */
+	private Coord myLattice = new Coord(0, 0);
+	/** Decisions of the current update */
+	private RoutingPlan routingPlan = new RoutingPlan();
+	/** Reusable lattice position of another host */
+	private Coord otherLattice = new Coord(0, 0);
+	/** Buffered messages by destination address; kept only in the
+	 * freshest encounter queue mode to requeue them when mapHosts changes */
+	private DestinationIndex messagesByDestination = new DestinationIndex();
+	/** Messages being requeued (reused) */
+	private ArrayList<Message> requeued = new ArrayList<Message>();
 	
 	public EASERouter(Settings s) {
 		super(s);
+		Settings easeSettings = new Settings(EASE_NS);
+		if (easeSettings.contains(MAX_TABLE_ENTRIES_S)) {
+			maxTableEntries = easeSettings.getInt(MAX_TABLE_ENTRIES_S);
+			if (maxTableEntries < 1) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(MAX_TABLE_ENTRIES_S));
+			}
+		}
+		if (easeSettings.contains(MAX_ENTRY_AGE_S)) {
+			maxEntryAge = easeSettings.getDouble(MAX_ENTRY_AGE_S);
+			if (maxEntryAge <= 0) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(MAX_ENTRY_AGE_S));
+			}
+		}
+		if (easeSettings.contains(MAX_NEIGHBOR_TABLES_S)) {
+			maxNeighborTables = easeSettings.getInt(MAX_NEIGHBOR_TABLES_S);
+			if (maxNeighborTables < 1) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(MAX_NEIGHBOR_TABLES_S));
+			}
+		}
+		if (easeSettings.contains(MAX_NEIGHBOR_TABLE_AGE_S)) {
+			maxNeighborTableAge = easeSettings.getDouble(MAX_NEIGHBOR_TABLE_AGE_S);
+			if (maxNeighborTableAge <= 0) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(MAX_NEIGHBOR_TABLE_AGE_S));
+			}
+		}
+		if (easeSettings.contains(TABLE_REFRESH_S)) {
+			tableRefresh = easeSettings.getDouble(TABLE_REFRESH_S);
+			if (tableRefresh <= 0) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(TABLE_REFRESH_S));
+			}
+		}
+		minTableRefresh = tableRefresh;
+		maxTableRefresh = tableRefresh;
+		if (easeSettings.contains(MIN_TABLE_REFRESH_S)) {
+			minTableRefresh = easeSettings.getDouble(MIN_TABLE_REFRESH_S);
+		}
+		if (easeSettings.contains(MAX_TABLE_REFRESH_S)) {
+			maxTableRefresh = easeSettings.getDouble(MAX_TABLE_REFRESH_S);
+		}
+		if (minTableRefresh <= 0 || minTableRefresh > maxTableRefresh) {
+			throw new SettingsError("Invalid values for " + 
+					easeSettings.getFullPropertyName(MIN_TABLE_REFRESH_S) +
+					" and " + 
+					easeSettings.getFullPropertyName(MAX_TABLE_REFRESH_S));
+		}
+		if (easeSettings.contains(BUNDLE_SIZE_S)) {
+			bundleSize = easeSettings.getInt(BUNDLE_SIZE_S);
+			if (bundleSize < 0) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(BUNDLE_SIZE_S));
+			}
+		}
+		if (easeSettings.contains(CELL_SIZE_S)) {
+			MSize = easeSettings.getInt(CELL_SIZE_S);
+			if (MSize < 1) {
+				throw new SettingsError("Invalid value for " + 
+						easeSettings.getFullPropertyName(CELL_SIZE_S));
+			}
+		}
+		this.lattice = LatticePositions.getInstance(MSize);
+		this.mapHosts.setMaxSize(maxTableEntries);
+		this.metrics = RoutingMetrics.getInstance().newRouterMetrics();
 	}
 	
 	/**
@@ -53,6 +209,18 @@ public class EASERouter extends ActiveRouter {
 	 */
 	protected EASERouter(EASERouter r) {
 		super(r);
+		this.maxTableEntries = r.maxTableEntries;
+		this.maxEntryAge = r.maxEntryAge;
+		this.maxNeighborTables = r.maxNeighborTables;
+		this.maxNeighborTableAge = r.maxNeighborTableAge;
+		this.tableRefresh = r.tableRefresh;
+		this.minTableRefresh = r.minTableRefresh;
+		this.maxTableRefresh = r.maxTableRefresh;
+		this.bundleSize = r.bundleSize;
+		this.MSize = r.MSize;
+		this.lattice = r.lattice;
+		this.mapHosts.setMaxSize(maxTableEntries);
+		this.metrics = RoutingMetrics.getInstance().newRouterMetrics();
 	}
 	
 	@Override
@@ -61,7 +229,7 @@ public class EASERouter extends ActiveRouter {
 		
 		if (recvCheck == RCV_OK) {
 			/* don't accept a message that has already traversed this node */
-			if (m.getHops().contains(getHost())) {
+			if (hasVisited(m, getHost())) {
 				recvCheck = DENIED_OLD;
 			}
 		}
@@ -71,149 +239,1032 @@ public class EASERouter extends ActiveRouter {
 			
 	@Override
 	public void update() {
-		super.update();
-		if (isTransferring() || !canStartTransfer()) {
-			return; 
+		if (beginUpdate()) {
+			commit(plan());
 		}
-		
-		if (exchangeDeliverableMessages() != null) {
-			return; 
+	}
+	
+	/**
+	 * Starts an update: updates the transfers and, if the router is free to
+	 * start new transfers, exchanges the deliverable messages and takes the
+	 * neighbors whose encounter table refresh is due from the refresh 
+	 * queue. This phase has side effects on other hosts and must be run
+	 * serially.
+	 * @return True if the router should plan and commit new transfers in
+	 * this update, false if it is busy
+	 */
+	public boolean beginUpdate() {
+		if (metrics != null) {
+			metrics.startPhase();
+		}
+		super.update();
+		evictStaleEntries();
+		boolean free = !isTransferring() && canStartTransfer() &&
+			exchangeDeliverableMessages() == null;
+		if (free) {
+			takeDueRefreshes();
 		}
 		
-		for (Connection con : getConnections()) {
-			DTNHost host = con.getOtherNode(getHost());
-			MapTuple tuple = mapHosts.get(host);
-			if ((tuple == null || (SimClock.getTime() - tuple.mLastEncounterTime) > 60.) && con.isUp()) {
-				updateTableAndSend(host);
+		if (metrics != null) {
+			if (free) {
+				metrics.endPhase();
+			}
+			else {
+				updateDone(0);
 			}
 		}
+		return free;
+	}
+	
+	/**
+	 * Decides which encounter table updates and message transfers this
+	 * router wants to make. The decisions are based only on the router's own
+	 * state (its buffer, encounter tables, connections and the due 
+	 * refreshes taken by {@link #beginUpdate()}) and the locations of the 
+	 * hosts, none of which change during the planning phase. Only the plan
+	 * and the router's scratch objects are written, so the plans of 
+	 * different routers can be made concurrently (see 
+	 * {@link ParallelUpdater}) and planning again gives the same plan.
+	 * @return The plan; the same object is reused on every update
+	 */
+	public RoutingPlan plan() {
+		if (metrics != null) {
+			metrics.startPhase();
+		}
+		RoutingPlan plan = this.routingPlan;
+		plan.clear();
 		
-		List<Message> msgs = new ArrayList<Message>(getMessageCollection());
 		List<Connection> connections = getConnections();
-		if (connections.size() > 0 && getNrofMessages() > 0) {
-			sortByQueueMode(msgs);
-			for (Message m : msgs) {
+		int nrofConnections = connections.size();
+		
+		/* only the neighbors whose refresh is due are looked at; they are
+		 * rescheduled when the plan is committed */
+		for (int i = 0, n = dueRefreshes.size(); i < n; i++) {
+			plan.addTableTarget(dueRefreshes.get(i));
+		}
+		
+		if (nrofConnections > 0 && getNrofMessages() > 0) {
+			List<Message> msgs = getMessagesInQueueOrder(msgBuffer);
+			lattice.get(getHost(), myLattice);
+			
+			nextHops.clear();
+			neighborGrid.clear();
+			for (int i = 0; i < nrofConnections; i++) {
+				Connection con = connections.get(i);
+				DTNHost host = con.getOtherNode(getHost());
+				NeighborState neighbor = mapOfOtherHosts.get(host);
+				nextHops.addNeighbor(con, host, 
+						neighbor == null ? null : neighbor.table);
+				lattice.get(host, otherLattice);
+				neighborGrid.add(i, otherLattice.getX(), otherLattice.getY());
+			}
+			
+			for (int mi = 0, nrofMsgs = msgs.size(); mi < nrofMsgs; mi++) {
+				Message m = msgs.get(mi);
 				Connection conChosen = null;
-				MapTuple lastEncounterWithDest = new MapTuple(new Coord(0,0), 0.);
-				Boolean jumpingToArchor = (Boolean) m.getProperty("JumpingToAnArchorPoint");
-				lastEncounterWithDest.mLastEncounterTime = 0;
-				double distanceToDestination = Double.MAX_VALUE, lastTime = 0.;
+				int reason;
+				EASEHeader header = EASEHeader.of(m);
+				int destSlot = nextHops.slotOf(m.getTo().getAddress());
 				
-				if (mapHosts.containsKey(m.getTo())) {
-					lastEncounterWithDest = (MapTuple) mapHosts.get(m.getTo());
-				}
-				for (Connection con : connections) {
-					DTNHost host = con.getOtherNode(getHost());
-					if (m.getProperty("MyTable") != null) {
-						startTransfer(m, con);
-						break;
-					}
-					if (m.getTo() == host) {
-							startTransfer(m, con);
+				if (header != null && header.isTable()) {
+					// a tabela é enviada somente para o vizinho ao qual se destina
+					if (destSlot != NextHopIndex.NONE) {
+						plan.addTransfer(m, nextHops.getConnection(destSlot), 
+								RoutingPlan.TABLE);
 					}
-					if (m.getHops().contains(host)) { // evita ciclos
-						continue;
-					}
-					if (con.isUp() && jumpingToArchor != null) {
-						HashMap<DTNHost, MapTuple> mapOther = 
-								(HashMap<DTNHost, MapTuple>) mapOfOtherHosts.get(host);
-						if (!jumpingToArchor.booleanValue()) {
-							if (mapOther != null && mapOther.containsKey(m.getTo())) {
-								MapTuple tuple = mapOther.get(m.getTo());
-								if ((SimClock.getTime() - tuple.mLastEncounterTime) < 2.*((SimClock.getTime() - lastEncounterWithDest.mLastEncounterTime))) {
-									if (lastTime < tuple.mLastEncounterTime) {
-										conChosen = con;
-										System.out.println(getHost() + " : Enviar para " + m.getTo() + " por " + host);
-										System.out.println(SimClock.getTime() + " <> " + tuple.mLastEncounterTime + "<>" + lastEncounterWithDest.mLastEncounterTime);
-										lastTime = tuple.mLastEncounterTime;
-									}
-								}
-							}
-						} else {
-							if (mapOther != null) {
-								Coord destArchor = (Coord) m.getProperty("ArchorPosition");
-								assert(destArchor != null);
-								double d = mahDistance(worldToSquareLattice(getHost().getLocation()), destArchor);
-								if (distanceToDestination > d) {
-									distanceToDestination = d;
-									conChosen = con;
-								}
-							}
-						}
-					}
-					
+					continue;
+				}
+				if (destSlot != NextHopIndex.NONE) {
+					// o destino é vizinho: a mensagem não é encaminhada a outro vizinho
+					plan.addTransfer(m, nextHops.getConnection(destSlot), 
+							RoutingPlan.DIRECT);
+					continue;
+				}
+				if (header == null) {
+					continue;
+				}
+				if (planCopies(m, header, plan)) {
+					continue;
 				}
 				
-				if (jumpingToArchor != null) {
-					// se não achar algum vizinho que conheça o destino, busque o vizinho mais próximo
-					if (conChosen == null) {
-						double dist = Double.MAX_VALUE;
-						for (Connection con : connections) {
-							if (conChosen == null) {
-								conChosen = con;
-							} else {
-								MapTuple tuple = (MapTuple) mapHosts.get(getHost());
-								if (tuple != null) {
-									double d = mahDistance(worldToSquareLattice(getHost().getLocation()), tuple.mLastPosition);
-									if (dist > d) {
-										conChosen = con;
-										dist = d;
-									}
-								}
-							}
-						}
+				if (!header.isJumping()) {
+					if (planByEncounterAge(m, plan)) {
+						continue;
 					}
-					if (conChosen != null) {
-						startTransfer(m, conChosen);
+					reason = RoutingPlan.CLOSEST;
+				} else if (isAnchorCellReached(m, header)) {
+					// um vizinho já está na célula da âncora: a mensagem deixa de saltar
+					if (planByEncounterAge(m, plan)) {
+						continue;
 					}
+					conChosen = chooseByArchor(m, header);
+					reason = RoutingPlan.BY_ANCHOR;
+				} else {
+					conChosen = chooseByArchor(m, header);
+					reason = RoutingPlan.BY_ANCHOR;
 				}
 				
+				// se não achar algum vizinho que conheça o destino, busque o vizinho mais próximo
+				if (conChosen == null) {
+					conChosen = chooseClosestToDestination(m);
+					reason = RoutingPlan.CLOSEST;
+				}
+				if (conChosen != null) {
+					plan.addTransfer(m, conChosen, reason);
+				}
+			}
+			msgs.clear();
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase();
+		}
+		return plan;
+	}
+	
+	/**
+	 * Applies a plan made by {@link #plan()}: sends the encounter table 
+	 * updates and starts the planned transfers in order. Planned messages
+	 * that have left the buffer meanwhile are skipped. If the router has
+	 * become busy since the update began (e.g. a neighbor's commit started a
+	 * transfer to it), nothing is done. Must be run serially.
+	 * @param plan The plan to apply
+	 */
+	public void commit(RoutingPlan plan) {
+		if (metrics != null) {
+			metrics.startPhase();
+		}
+		if (isTransferring()) {
+			/* the due refreshes are tried again on the next update */
+			for (int i = 0, n = plan.getNrofTableTargets(); i < n; i++) {
+				scheduleRefresh(plan.getTableTarget(i), 
+						Double.NEGATIVE_INFINITY);
+			}
+			if (metrics != null) {
+				updateDone(0);
+			}
+			return;
+		}
+		
+		nrofStarted = 0;
+		for (int i = 0, n = plan.getNrofTableTargets(); i < n; i++) {
+			DTNHost host = plan.getTableTarget(i);
+			Message table = updateTableAndSend(host);
+			refreshDone(host, table);
+			if (table != null) {
+				Connection con = getConnectionTo(host);
+				if (con != null) {
+					startTransfer(table, con);
+				}
+			}
+		}
+		
+		for (int i = 0, n = plan.getNrofTransfers(); i < n; i++) {
+			Message m = plan.getMessage(i);
+			if (getMessage(m.getId()) != m) {
+				continue; // já foi removida do buffer
+			}
+			if (isSending(m.getId())) {
+				continue; // já está sendo enviada (por outra conexão ou em um pacote)
+			}
+			if (plan.getReason(i) == RoutingPlan.BY_ENCOUNTER_AGE) {
+				Connection con = plan.getConnection(i);
+				getRoutingTrace().recordForward(m, getHost(), 
+						con.getOtherNode(getHost()), plan.getOwnAge(i), 
+						plan.getNextAge(i));
+			}
+			if (bundleSize > 0 && plan.getReason(i) != RoutingPlan.TABLE) {
+				startBundle(plan, i);
+			}
+			else if (startTransfer(m, plan.getConnection(i)) == RCV_OK) {
+				transferStarted(plan, i);
 			}
 		}
 		
 		//tryAllMessagesToAllConnections();
+		
+		if (metrics != null) {
+			updateDone(nrofStarted);
+		}
+	}
+	
+	/**
+	 * Starts sending a planned message together with the messages planned
+	 * after it to the same neighbor, in a bundle of at most 
+	 * {@link #BUNDLE_SIZE_S} bytes. Only the messages the neighbor would
+	 * accept are bundled (see {@link #acceptsBundled(Message)}), so the size
+	 * of the bundle is the size of the messages that are received. The
+	 * bundle is not buffered; its messages stay in the buffer until the
+	 * transfer is done. If only one message fits, it is sent alone.
+	 * @param plan The plan
+	 * @param first Index of the first transfer of the bundle
+	 */
+	private void startBundle(RoutingPlan plan, int first) {
+		Message m = plan.getMessage(first);
+		Connection con = plan.getConnection(first);
+		DTNHost other = con.getOtherNode(getHost());
+		if (!con.isReadyForTransfer() || 
+				!(other.getRouter() instanceof EASERouter) ||
+				!((EASERouter)other.getRouter()).acceptsBundled(m)) {
+			if (startTransfer(m, con) == RCV_OK) {
+				transferStarted(plan, first);
+			}
+			return;
+		}
+		
+		bundleMembers.clear();
+		bundleMembers.add(m);
+		int size = m.getSize();
+		int nrofFallbacks = plan.getReason(first) == RoutingPlan.CLOSEST ? 1 : 0;
+		for (int i = first + 1, n = plan.getNrofTransfers(); i < n; i++) {
+			Message next = plan.getMessage(i);
+			if (plan.getConnection(i) != con || 
+					plan.getReason(i) == RoutingPlan.TABLE ||
+					size + next.getSize() > bundleSize ||
+					getMessage(next.getId()) != next || 
+					isSending(next.getId()) || bundleMembers.contains(next) ||
+					!((EASERouter)other.getRouter()).acceptsBundled(next)) {
+				continue;
+			}
+			if (plan.getReason(i) == RoutingPlan.BY_ENCOUNTER_AGE) {
+				getRoutingTrace().recordForward(next, getHost(), other, 
+						plan.getOwnAge(i), plan.getNextAge(i));
+			}
+			bundleMembers.add(next);
+			size += next.getSize();
+			if (plan.getReason(i) == RoutingPlan.CLOSEST) {
+				nrofFallbacks++;
+			}
+		}
+		if (bundleMembers.size() == 1) {
+			if (startTransfer(m, con) == RCV_OK) {
+				transferStarted(plan, first);
+			}
+			return;
+		}
+		
+		Message bundle = new Message(getHost(), other, 
+				"bundle" + getHost() + "-" + nextBundleId++, size);
+		bundle.addProperty(EASEHeader.KEY, 
+				new EASEHeader(new ArrayList<Message>(bundleMembers)));
+		if (startTransfer(bundle, con) == RCV_OK) {
+			for (int i = 0, n = bundleMembers.size(); i < n; i++) {
+				bundledInFlight.add(bundleMembers.get(i).getId());
+			}
+			nrofStarted += bundleMembers.size();
+			if (metrics != null && nrofFallbacks > 0) {
+				metrics.count(RoutingMetrics.NEAREST_FALLBACKS, nrofFallbacks);
+			}
+		}
+		bundleMembers.clear();
+	}
+	
+	/**
+	 * Counts a started transfer of a plan to the metrics of the update.
+	 * Only the transfers that are started are counted, not the planned
+	 * ones that are skipped or refused.
+	 * @param plan The plan
+	 * @param i Index of the transfer in the plan
+	 */
+	private void transferStarted(RoutingPlan plan, int i) {
+		if (plan.getReason(i) == RoutingPlan.TABLE) {
+			return;
+		}
+		nrofStarted++;
+		if (metrics != null && plan.getReason(i) == RoutingPlan.CLOSEST) {
+			metrics.count(RoutingMetrics.NEAREST_FALLBACKS);
+		}
+	}
+	
+	/**
+	 * Returns true if the message is being sent, alone or in a bundle
+	 * @param msgId ID of the message
+	 * @return true if the message is being sent
+	 */
+	@Override
+	public boolean isSending(String msgId) {
+		return super.isSending(msgId) || bundledInFlight.contains(msgId);
+	}
+	
+	/**
+	 * Plans the transfers of extra copies of a data message. EASE forwards
+	 * a single copy of every message, so nothing is planned here; 
+	 * multi-copy variants (see {@link SprayAndEASERouter}) override this.
+	 * Called in the planning phase, so nothing outside this router may be
+	 * changed. Not called for messages whose destination is a neighbor;
+	 * they are only sent to the destination.
+	 * @param m The message
+	 * @param header EASE header of the message
+	 * @param plan The plan the transfers are added to
+	 * @return True if the message must not be forwarded by the single-copy
+	 * rules in this update
+	 */
+	protected boolean planCopies(Message m, EASEHeader header, 
+			RoutingPlan plan) {
+		return false;
+	}
+	
+	/**
+	 * Called when a data message has been transferred to the next hop. 
+	 * EASE doesn't leave a copy for the sender, so the message is deleted.
+	 * @param m The message as it was sent
+	 * @param to The next hop
+	 */
+	protected void forwarded(Message m, DTNHost to) {
+		this.deleteMessage(m.getId(), false);
+	}
+	
+	/**
+	 * Ends the timing of an update and records the update to the metrics
+	 * @param nrofDecisions Number of forwarding transfers started in the
+	 * update
+	 */
+	private void updateDone(int nrofDecisions) {
+		metrics.endPhase();
+		int bufferSize = getBufferSize();
+		metrics.endUpdate(nrofDecisions, bufferSize > 0 ? 
+				(int)(getBufferOccupancy() * 100L / bufferSize) : 0);
+	}
+	
+	/**
+	 * Returns the plan made by the latest {@link #plan()} call
+	 * @return The routing plan
+	 */
+	public RoutingPlan getRoutingPlan() {
+		return this.routingPlan;
+	}
+	
+	/**
+	 * Returns the connection to a neighbor
+	 * @param host The neighbor
+	 * @return The connection or null if the host is not connected
+	 */
+	private Connection getConnectionTo(DTNHost host) {
+		List<Connection> connections = getConnections();
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			Connection con = connections.get(i);
+			if (con.getOtherNode(getHost()) == host) {
+				return con;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Plans the forwarding of a message by the age of the neighbors' 
+	 * encounters with the destination: the neighbor that met the destination
+	 * most recently is chosen if its encounter is less than twice as old
+	 * as ours.
+	 * @param m The message
+	 * @param plan The plan the transfer is added to
+	 * @return True if a neighbor was chosen, false if no neighbor qualifies
+	 */
+	private boolean planByEncounterAge(Message m, RoutingPlan plan) {
+		int destAddress = m.getTo().getAddress();
+		double lastEncounterWithDest = 0.;
+		if (mapHosts.contains(destAddress)) {
+			lastEncounterWithDest = mapHosts.getTime(destAddress);
+		}
+		
+		int slot = nextHops.getFreshestNeighbor(destAddress);
+		if (slot != NextHopIndex.NONE && hasVisited(m, nextHops.getHost(slot))) { // evita ciclos
+			slot = nextHops.findFreshestNeighbor(destAddress, hopsOf(m));
+		}
+		if (slot == NextHopIndex.NONE) {
+			return false;
+		}
+		
+		double otherTime = nextHops.getEncounterTime(slot, destAddress);
+		if ((SimClock.getTime() - otherTime) < 2.*((SimClock.getTime() - lastEncounterWithDest))) {
+			plan.addTransfer(m, nextHops.getConnection(slot), 
+					RoutingPlan.BY_ENCOUNTER_AGE, 
+					SimClock.getTime() - lastEncounterWithDest, 
+					SimClock.getTime() - otherTime);
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns true if a neighbor that the message can be forwarded to is 
+	 * inside the lattice cell of the message's anchor point. The message
+	 * then stops jumping: it is forwarded by the encounter ages if a 
+	 * neighbor qualifies, otherwise to the neighbor closest to the anchor,
+	 * which stops the jumping when it receives the message (see
+	 * {@link #updateAnchorMode}). The header isn't changed here, since the
+	 * planning has no side effects.
+	 * @param m The message
+	 * @param header EASE header of the message
+	 * @return true if a neighbor is in the anchor cell
+	 */
+	private boolean isAnchorCellReached(Message m, EASEHeader header) {
+		forwardFilter.set(m, false);
+		return neighborGrid.hasNeighborInCell(header.getArchorX(), 
+				header.getArchorY(), forwardFilter);
+	}
+	
+	/**
+	 * Chooses the next hop for a message that is jumping to an anchor point:
+	 * the neighbor (with a known encounter table) whose lattice position is
+	 * closest to the anchor.
+	 * @param m The message
+	 * @param header EASE header of the message
+	 * @return The connection to the chosen neighbor or null if no neighbor
+	 * qualifies
+	 */
+	private Connection chooseByArchor(Message m, EASEHeader header) {
+		forwardFilter.set(m, true);
+		int slot = neighborGrid.nearest(header.getArchorX(), header.getArchorY(), 
+				forwardFilter);
+		
+		return slot == NeighborGrid.NONE ? null : nextHops.getConnection(slot);
+	}
+	
+	/**
+	 * Chooses the neighbor that is closest to the last known position of
+	 * the message's destination. If the position isn't known, or no 
+	 * neighbor qualifies, the first connection is chosen.
+	 * @param m The message
+	 * @return The connection to the chosen neighbor
+	 */
+	private Connection chooseClosestToDestination(Message m) {
+		int destAddress = m.getTo().getAddress();
+		int slot = NeighborGrid.NONE;
+		
+		if (mapHosts.contains(destAddress)) {
+			forwardFilter.set(m, false);
+			slot = neighborGrid.nearest(mapHosts.getX(destAddress), 
+					mapHosts.getY(destAddress), forwardFilter);
+		}
+		if (slot == NeighborGrid.NONE) {
+			slot = 0;
+		}
+		
+		return nextHops.getConnection(slot);
+	}
+	
+	/**
+	 * Accepts the neighbors whose connection is up and who have not yet
+	 * been on the path of the message (and optionally whose encounter table
+	 * is known).
+	 */
+	private class ForwardFilter implements NeighborGrid.SlotFilter {
+		private Message message;
+		private boolean tableRequired;
+		
+		private void set(Message message, boolean tableRequired) {
+			this.message = message;
+			this.tableRequired = tableRequired;
+		}
+		
+		public boolean accept(int slot) {
+			if (tableRequired && nextHops.getTable(slot) == null) {
+				return false;
+			}
+			return nextHops.getConnection(slot).isUp() && 
+				!hasVisited(message, nextHops.getHost(slot)); // evita ciclos
+		}
+	}
+	
+	/**
+	 * Drops the expired messages using the expiry wheel of the router 
+	 * instead of scanning the whole buffer.
+	 */
+	@Override
+	protected void dropExpiredMessages() {
+		deleteExpiredMessages();
 	}
 	
 	@Override
 	protected void transferDone(Connection con) {
-		/* don't leave a copy for the sender */
-		this.deleteMessage(con.getMessage().getId(), false);
+		Message m = con.getMessage();
+		EASEHeader header = EASEHeader.of(m);
+		if (header != null && header.isTable()) {
+			EncounterTableDelta delta = header.getTable();
+			/* the neighbor has now all the changes up to this version */
+			NeighborState neighbor = touchNeighbor(m.getTo());
+			if (neighbor.versionSent < delta.getVersion()) {
+				neighbor.versionSent = delta.getVersion();
+			}
+			if (metrics != null) {
+				metrics.count(RoutingMetrics.TABLES_SENT);
+				metrics.count(RoutingMetrics.TABLE_ENTRIES_SENT, delta.size());
+			}
+		}
+		else if (header != null && header.isBundle()) {
+			List<Message> members = header.getBundle();
+			for (int i = 0, n = members.size(); i < n; i++) {
+				Message member = members.get(i);
+				bundledInFlight.remove(member.getId());
+				/* a message may have been dropped during the transfer */
+				if (getMessage(member.getId()) == member) {
+					forwarded(member, m.getTo());
+				}
+			}
+			if (metrics != null) {
+				metrics.count(RoutingMetrics.BUNDLES_SENT);
+				metrics.count(RoutingMetrics.BUNDLED_MESSAGES, members.size());
+			}
+			return;
+		}
+		
+		forwarded(m, con.getOtherNode(getHost()));
+	}
+	
+	@Override
+	protected void transferAborted(Connection con) {
+		if (metrics != null) {
+			metrics.count(RoutingMetrics.TRANSFER_ABORTS);
+		}
+		Message m = con.getMessage();
+		EASEHeader header = EASEHeader.of(m);
+		if (header != null && header.isBundle()) {
+			List<Message> members = header.getBundle();
+			for (int i = 0, n = members.size(); i < n; i++) {
+				bundledInFlight.remove(members.get(i).getId());
+			}
+		}
+		super.transferAborted(con);
+		// a tabela é enviada somente pela conexão que caiu: o próximo encontro cria uma nova
+		if (header != null && header.isTable() && getMessage(m.getId()) == m) {
+			deleteMessage(m.getId(), false);
+		}
 	}
 
+	/**
+	 * Returns the next message to drop according to the buffer drop policy
+	 * (see {@link MessageRouter#DROP_POLICY_S}). The drop order is maintained
+	 * as the buffer changes, so no scan over the buffer is needed.
+	 * @param excludeMsgBeingSent If true, excludes message(s) that are
+	 * being sent from the check
+	 * @return The next message to drop or null if there are no suitable
+	 * messages
+	 */
+	@Override
+	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
+		for (Message m : getMessagesInDropOrder()) {
+			if (excludeMsgBeingSent && isSending(m.getId())) {
+				continue; // skip the message(s) that router is sending
+			}
+			return m;
+		}
+		
+		return null;
+	}
+	
 	@Override
 	public MessageRouter replicate() {
 		// TODO Auto-generated method stub
 		return new EASERouter(this);
 	}
 	
-	private Coord worldToSquareLattice(Coord coord) {
-
-		assert(MSize > 0);
-
-		Coord c = new Coord(coord.getX() / MSize, coord.getY() / MSize);
-		return c;
+	@Override
+	public RoutingInfo getRoutingInfo() {
+		RoutingInfo ri = super.getRoutingInfo();
+		ri.addMoreInfo(encounterTableInfo("encounter table: " + 
+				mapHosts.size() + " host(s)", mapHosts, getRoutingInfoItems()));
+		ri.addMoreInfo(new PagedRoutingInfo(mapOfOtherHosts.size() + 
+				" neighbor table(s)", 
+				getRoutingInfoItems()) {
+			private List<DTNHost> hosts;
+			private List<NeighborState> states;
+			protected int snapshot() {
+				this.hosts = new ArrayList<DTNHost>(mapOfOtherHosts.keySet());
+				this.states = new ArrayList<NeighborState>(
+						mapOfOtherHosts.values());
+				return this.hosts.size();
+			}
+			protected RoutingInfo infoAt(int index) {
+				NeighborState state = this.states.get(index);
+				String text = this.hosts.get(index) + ": updated " + 
+						state.updated + ", sent version " + state.versionSent;
+				if (state.table == null) {
+					return new RoutingInfo(text + ", no table");
+				}
+				return encounterTableInfo(text + ", received version " + 
+						state.table.getSourceVersion() + ", " + 
+						state.table.size() + " host(s)", state.table, 
+						getRoutingInfoItems());
+			}
+		});
+		if (metrics != null) {
+			ri.addMoreInfo(metrics.getRoutingInfo());
+		}
+		return ri;
 	}
-
-	private void updateTableAndSend(DTNHost otherHost) {
-		double dist = mahDistance(worldToSquareLattice(otherHost.getLocation()), worldToSquareLattice(getHost().getLocation()));
+	
+	/**
+	 * Returns lazy routing information about the entries of an encounter
+	 * table
+	 * @param text Text of the routing information
+	 * @param table The table
+	 * @param maxItems Maximum number of entries listed (0 for all)
+	 * @return The routing information
+	 */
+	private static RoutingInfo encounterTableInfo(String text, 
+			final EncounterTable table, int maxItems) {
+		return new PagedRoutingInfo(text, maxItems) {
+			private EncounterTableDelta entries;
+			protected int snapshot() {
+				this.entries = table.changesSince(0);
+				return this.entries.size();
+			}
+			protected RoutingInfo infoAt(int index) {
+				return new RoutingInfo("host " + entries.addressAt(index) + 
+						" at " + entries.timeAt(index) + " (" + 
+						entries.xAt(index) + ", " + entries.yAt(index) + ")");
+			}
+		};
+	}
+	
+	/**
+	 * Records an encounter with a neighbor and creates a message that
+	 * carries the changes of our encounter table to it. Only neighbors that
+	 * are close on the lattice are updated. The size of the message is the
+	 * size of the changes in the wire format of {@link EncounterTableCodec}.
+	 * @param otherHost The neighbor
+	 * @return The created table message or null if the neighbor is too far
+	 */
+	private Message updateTableAndSend(DTNHost otherHost) {
+		double dist = mahDistance(lattice.get(otherHost, otherLattice), 
+				lattice.get(getHost(), myLattice));
 		if (dist <= 1.) { // envia somente para os vizinhos próximos
-			MapTuple value = new MapTuple(worldToSquareLattice(otherHost.getLocation()), SimClock.getTime());
-			mapHosts.put(otherHost, value);
+			int evicted = mapHosts.put(otherHost.getAddress(), SimClock.getTime(), 
+					otherLattice.getX(), otherLattice.getY());
+			requeueMessagesTo(otherHost.getAddress());
+			if (evicted >= 0) {
+				requeueMessagesTo(evicted);
+			}
 
-			Message m = new Message(getHost(), otherHost, 
-					"broadcast" + getHost() + otherHost + SimClock.getIntTime(), 1);
+			// envia somente as entradas alteradas desde a última versão recebida pelo vizinho
+			NeighborState neighbor = mapOfOtherHosts.get(otherHost);
+			EncounterTableDelta delta = mapHosts.changesSince(
+					neighbor == null ? 0 : neighbor.versionSent);
+			// confirma a versão da tabela do vizinho que a nossa cópia tem
+			int ack = neighbor == null || neighbor.table == null ? 0 : 
+				neighbor.table.getSourceVersion();
 
-			m.addProperty("MyTable", mapHosts);
+			// o tamanho da mensagem é o tamanho da tabela codificada e da confirmação
+			Message m = new Message(getHost(), otherHost, 
+					"broadcast" + getHost() + "-" + otherHost + "-" + nextTableId++, 
+					EncounterTableCodec.encodedSize(delta) + 
+					EncounterTableCodec.varintSize(ack));
+			m.addProperty(EASEHeader.KEY, new EASEHeader(delta, ack));
 
 			super.createNewMessage(m);
+			return m;
+		}
+		return null;
+	}
+	
+	/**
+	 * Schedules the next encounter table refresh of a connected neighbor
+	 * @param host The neighbor
+	 * @param deadline Simulation time after which the refresh is due
+	 * (Double.NEGATIVE_INFINITY for a refresh that is due at once)
+	 */
+	private void scheduleRefresh(DTNHost host, double deadline) {
+		NeighborRefresh refresh = refreshes.get(host);
+		if (refresh == null) {
+			refresh = new NeighborRefresh(host, tableRefresh);
+			refreshes.put(host, refresh);
+		}
+		/* a previous entry of the refresh is left in the queue as stale */
+		int nrofFree = freeRefreshEntries.size();
+		RefreshEntry entry = nrofFree > 0 ? 
+				freeRefreshEntries.remove(nrofFree - 1) : new RefreshEntry();
+		entry.refresh = refresh;
+		entry.deadline = deadline;
+		entry.seq = nextRefreshSeq++;
+		refresh.seq = entry.seq;
+		refreshQueue.add(entry);
+	}
+	
+	/**
+	 * Takes the refreshes that are due from the refresh queue to
+	 * {@link #dueRefreshes}. The refreshes of neighbors that are no longer
+	 * connected are forgotten.
+	 */
+	private void takeDueRefreshes() {
+		dueRefreshes.clear();
+		double now = SimClock.getTime();
+		NeighborRefresh refresh;
+		while ((refresh = pollDueRefresh(now)) != null) {
+			Connection con = getConnectionTo(refresh.host);
+			if (con != null && con.isUp()) {
+				dueRefreshes.add(refresh.host);
+			}
+			else {
+				refreshes.remove(refresh.host);
+			}
+		}
+	}
+	
+	/**
+	 * Removes the first due refresh from the refresh queue. Stale entries
+	 * before it are removed too. The returned refresh is no longer in the
+	 * queue until it is scheduled again.
+	 * @param now The current simulation time
+	 * @return The refresh or null if no refresh is due
+	 */
+	private NeighborRefresh pollDueRefresh(double now) {
+		while (!refreshQueue.isEmpty() && refreshQueue.peek().deadline < now) {
+			RefreshEntry entry = refreshQueue.poll();
+			NeighborRefresh refresh = entry.refresh;
+			boolean stale = entry.seq != refresh.seq;
+			entry.refresh = null;
+			freeRefreshEntries.add(entry);
+			if (!stale) {
+				refresh.seq = NeighborRefresh.NOT_QUEUED;
+				return refresh;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Makes the encounter table refresh of a neighbor due at once, if the
+	 * neighbor is connected. Used when the tables of this host and the
+	 * neighbor are out of step (see {@link EASEHeader#getTableAck()}).
+	 * @param host The neighbor
+	 */
+	private void requestRefresh(DTNHost host) {
+		if (refreshes.containsKey(host)) {
+			scheduleRefresh(host, Double.NEGATIVE_INFINITY);
+		}
+	}
+	
+	/**
+	 * Schedules the encounter table refresh of a neighbor after an update
+	 * attempt. The relative speed of the neighbor is measured from the 
+	 * change of its position relative to this host since the previous
+	 * update and the next refresh is due when the neighbor may have moved
+	 * one lattice cell (within the minimum and maximum intervals). A 
+	 * neighbor that was too far to be updated is tried again once its
+	 * entry in our encounter table is stale.
+	 * <P>
+	 * A new table message carries all the changes of the previous one, so
+	 * the previous one is deleted if it is still waiting to be sent.</P>
+	 * @param host The neighbor
+	 * @param table The table message created for the neighbor or null if
+	 * the neighbor was not updated
+	 */
+	private void refreshDone(DTNHost host, Message table) {
+		double now = SimClock.getTime();
+		NeighborRefresh refresh = refreshes.get(host);
+		if (refresh == null) {
+			refresh = new NeighborRefresh(host, tableRefresh);
+			refreshes.put(host, refresh);
+		}
+		if (table == null) {
+			double lastEncounter = mapHosts.getTime(host.getAddress());
+			scheduleRefresh(host, lastEncounter == EncounterTable.UNKNOWN ? 
+					Double.NEGATIVE_INFINITY : lastEncounter + refresh.interval);
+			return;
 		}
+		
+		Coord other = host.getLocation();
+		Coord mine = getHost().getLocation();
+		double dx = other.getX() - mine.getX();
+		double dy = other.getY() - mine.getY();
+		if (refresh.lastUpdate >= 0 && now > refresh.lastUpdate) {
+			double moved = Math.sqrt(mahDistance(refresh.lastDx, 
+					refresh.lastDy, dx, dy));
+			double speed = moved / (now - refresh.lastUpdate);
+			/* média móvel para suavizar as medições */
+			refresh.speed = refresh.speed < 0 ? speed : 
+				(refresh.speed + speed) / 2;
+			double interval = refresh.speed > 0 ? MSize / refresh.speed : 
+				maxTableRefresh;
+			refresh.interval = Math.min(maxTableRefresh, 
+					Math.max(minTableRefresh, interval));
+		}
+		
+		refresh.lastUpdate = now;
+		refresh.lastDx = dx;
+		refresh.lastDy = dy;
+		scheduleRefresh(host, now + refresh.interval);
+		
+		deletePendingTable(refresh);
+		refresh.table = table;
+	}
+	
+	/**
+	 * Deletes the latest table message of a neighbor from the buffer, if
+	 * it is still waiting to be sent. A message that is being sent is 
+	 * deleted when its transfer is done or aborted.
+	 * @param refresh Refresh schedule of the neighbor
+	 */
+	private void deletePendingTable(NeighborRefresh refresh) {
+		Message table = refresh.table;
+		refresh.table = null;
+		if (table != null && getMessage(table.getId()) == table &&
+				!isSending(table.getId())) {
+			deleteMessage(table.getId(), false);
+		}
+	}
+	
+	/**
+	 * Returns the state of a neighbor and marks it as the most recently
+	 * updated one. The state is created if it doesn't exist; if there are 
+	 * then too many neighbors, the least recently updated one is evicted.
+	 * @param host The neighbor
+	 * @return The state of the neighbor
+	 */
+	private NeighborState touchNeighbor(DTNHost host) {
+		NeighborState neighbor = mapOfOtherHosts.remove(host);
+		if (neighbor == null) {
+			neighbor = new NeighborState();
+		}
+		neighbor.updated = SimClock.getTime();
+		mapOfOtherHosts.put(host, neighbor);
+		
+		if (mapOfOtherHosts.size() > maxNeighborTables) {
+			Iterator<DTNHost> i = mapOfOtherHosts.keySet().iterator();
+			i.next();
+			i.remove();
+		}
+		return neighbor;
+	}
+	
+	/**
+	 * Evicts the encounter table entries and neighbor states that are older
+	 * than the configured maximum ages. Both are evicted from the least 
+	 * recently updated end, so the cost is constant per evicted item.
+	 */
+	private void evictStaleEntries() {
+		double now = SimClock.getTime();
+		if (maxEntryAge != Double.MAX_VALUE) {
+			/* our own entries are changed in the order of their times */
+			while (mapHosts.size() > 0 && 
+					mapHosts.getLeastRecentTime() < now - maxEntryAge) {
+				requeueMessagesTo(mapHosts.evictLeastRecent());
+			}
+		}
+		if (maxNeighborTableAge != Double.MAX_VALUE) {
+			Iterator<NeighborState> i = mapOfOtherHosts.values().iterator();
+			while (i.hasNext() && i.next().updated < now - maxNeighborTableAge) {
+				i.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Creates an empty copy of a neighbor's encounter table
+	 * @return The table, limited to the maximum number of entries
+	 */
+	EncounterTable newNeighborTable() {
+		EncounterTable table = new EncounterTable();
+		table.setMaxSize(maxTableEntries);
+		return table;
+	}
+	
+	/**
+	 * Returns the encounter table of this host (for {@link RouterSnapshot})
+	 * @return The encounter table
+	 */
+	EncounterTable getEncounterTable() {
+		return mapHosts;
+	}
+	
+	/**
+	 * Returns the states of the neighbors in the order of their updates,
+	 * least recently updated first (for {@link RouterSnapshot})
+	 * @return The neighbor states
+	 */
+	LinkedHashMap<DTNHost, NeighborState> getNeighborStates() {
+		return mapOfOtherHosts;
+	}
+	
+	/**
+	 * State of a neighbor: a copy of its encounter table and the version of
+	 * our table that it has received. If either host loses its state of the
+	 * other, the table messages of the other host are rejected or 
+	 * acknowledge an earlier version, and the tables are sent again from
+	 * the acknowledged version (see {@link EASEHeader#getTableAck()}).
+	 */
+	static class NeighborState {
+		/** The neighbor's encounter table (null until received) */
+		EncounterTable table;
+		/** Version of our table the neighbor has received */
+		int versionSent;
+		/** When the state was last updated */
+		double updated;
+	}
+	
+	/**
+	 * Encounter table refresh schedule of a connected neighbor
+	 */
+	private static class NeighborRefresh {
+		/** Sequence number of a refresh that isn't in the queue */
+		private static final long NOT_QUEUED = -1;
+		
+		private final DTNHost host;
+		/** Sequence number of the refresh's current queue entry (or
+		 * NOT_QUEUED) */
+		private long seq = NOT_QUEUED;
+		/** Time of the last update (negative if not updated yet) */
+		private double lastUpdate = -1;
+		/** Position of the neighbor relative to this host at the last
+		 * update */
+		private double lastDx;
+		private double lastDy;
+		/** Measured relative speed (m/s; negative if not measured yet) */
+		private double speed = -1;
+		/** Current refresh interval */
+		private double interval;
+		/** The latest table message created for the neighbor (may have
+		 * been sent or deleted since) */
+		private Message table;
+		
+		private NeighborRefresh(DTNHost host, double interval) {
+			this.host = host;
+			this.interval = interval;
+		}
+	}
+	
+	/**
+	 * Entry of the refresh queue. The entries are ordered by their 
+	 * deadlines and the entries with equal deadlines in the order they were
+	 * scheduled. An entry is stale if its refresh has been rescheduled or 
+	 * removed since (the sequence numbers differ), so rescheduling doesn't
+	 * have to search the queue.
+	 */
+	private static class RefreshEntry implements Comparable<RefreshEntry> {
+		private NeighborRefresh refresh;
+		/** Time after which the refresh is due */
+		private double deadline;
+		/** Sequence number of the scheduling */
+		private long seq;
+		
+		public int compareTo(RefreshEntry o) {
+			if (this.deadline != o.deadline) {
+				return this.deadline < o.deadline ? -1 : 1;
+			}
+			return this.seq < o.seq ? -1 : (this.seq == o.seq ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * Returns the sending queue key of a message. In the freshest encounter
+	 * queue mode the messages whose destination this host has met most
+	 * recently come first and messages to never met destinations last.
+	 */
+	@Override
+	protected double getQueueKey(Message m) {
+		if (getSendQueueMode() != Q_MODE_FRESHEST_ENCOUNTER) {
+			return super.getQueueKey(m);
+		}
+		double lastEncounter = mapHosts.getTime(m.getTo().getAddress());
+		if (lastEncounter == EncounterTable.UNKNOWN) {
+			return Double.MAX_VALUE;
+		}
+		return -lastEncounter;
+	}
+	
+	/**
+	 * Updates the sending queue positions of the buffered messages to a
+	 * destination after our encounter with it has changed
+	 * @param destination Address of the destination
+	 */
+	private void requeueMessagesTo(int destination) {
+		messagesByDestination.addAllTo(destination, requeued);
+		for (int i = 0, n = requeued.size(); i < n; i++) {
+			updateQueueKey(requeued.get(i));
+		}
+		requeued.clear();
+	}
+	
+	@Override
+	protected void addToMessages(Message m, boolean newMessage) {
+		if (getSendQueueMode() == Q_MODE_FRESHEST_ENCOUNTER) {
+			messagesByDestination.add(m);
+		}
+		super.addToMessages(m, newMessage);
+	}
+	
+	@Override
+	protected Message removeFromMessages(String id) {
+		if (getSendQueueMode() == Q_MODE_FRESHEST_ENCOUNTER) {
+			messagesByDestination.remove(id);
+		}
+		return super.removeFromMessages(id);
 	}
 	
 	@Override
 	public void changedConnection(Connection con) {
 		DTNHost otherHost = con.getOtherNode(getHost());
 		if (con.isUp()) {
-			updateTableAndSend(otherHost);
+			refreshDone(otherHost, updateTableAndSend(otherHost));
+		}
+		else {
+			NeighborRefresh refresh = refreshes.remove(otherHost);
+			if (refresh != null) {
+				refresh.seq = NeighborRefresh.NOT_QUEUED; // a entrada na fila fica obsoleta
+				// a tabela que ainda não foi enviada não será mais enviada ao vizinho
+				deletePendingTable(refresh);
+			}
 		}
 	}
 	
@@ -221,66 +1272,279 @@ public class EASERouter extends ActiveRouter {
 	@Override 
 	public boolean createNewMessage(Message m) {
 		
-		m.addProperty("JumpingToAnArchorPoint", new Boolean(false));
+		EASEHeader header = new EASEHeader();
+		header.getHops().add(m.getFrom());
+		m.addProperty(EASEHeader.KEY, header);
 		
 		return super.createNewMessage(m);
 	}
 	
+	/**
+	 * Returns true if the message has already traversed the host. The hop
+	 * set of the EASE header is used when the message has one, the hop
+	 * list otherwise.
+	 * @param m The message
+	 * @param host The host
+	 * @return true if the host is on the path of the message
+	 */
+	static boolean hasVisited(Message m, DTNHost host) {
+		EASEHeader header = EASEHeader.of(m);
+		if (header != null && header.getHops() != null) {
+			return header.getHops().contains(host);
+		}
+		return m.getHops().contains(host);
+	}
+	
+	/**
+	 * Returns the set of the hosts the message has traversed
+	 * @param m The message
+	 * @return The hop set of the EASE header or a new set built from the
+	 * hop list if the message doesn't have one
+	 */
+	private static HopSet hopsOf(Message m) {
+		EASEHeader header = EASEHeader.of(m);
+		if (header != null && header.getHops() != null) {
+			return header.getHops();
+		}
+		return new HopSet(m.getHops());
+	}
+	
 	public double mahDistance(Coord p1, Coord p2) {
-		double dx = p2.getX() - p1.getX();
-		double dy = p2.getY() - p1.getY();
+		return mahDistance(p1.getX(), p1.getY(), p2.getX(), p2.getY());
+	}
+	
+	private static double mahDistance(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
 		return (dx*dx + dy*dy);
 	}
 	
+	/**
+	 * Receives a message and gives it its own copy of the EASE header, 
+	 * since the header object is shared with the sender's replicate.
+	 * This host is added to the hop set of the copy, as the host adds
+	 * itself to the hop list of an accepted message.
+	 */
+	@Override
+	public int receiveMessage(Message m, DTNHost from) {
+		EASEHeader header = EASEHeader.of(m);
+		if (header != null && header.isBundle()) {
+			return receiveBundle(m, from, header);
+		}
+		
+		int recvCheck = super.receiveMessage(m, from);
+		
+		if (recvCheck == RCV_OK && header != null) {
+			m.updateProperty(EASEHeader.KEY, copyHeader(header));
+		}
+		
+		return recvCheck;
+	}
+	
+	/**
+	 * Returns this host's own copy of the EASE header of a message it 
+	 * receives, with this host added to the hop set
+	 * @param header The header of the sender's message
+	 * @return The copy
+	 */
+	protected EASEHeader copyHeader(EASEHeader header) {
+		EASEHeader copy = header.copy();
+		if (copy.getHops() != null) {
+			copy.getHops().add(getHost());
+		}
+		return copy;
+	}
+	
+	/**
+	 * Returns true if this host would accept a message in a bundle: it
+	 * hasn't got the message nor been on its path, the message isn't
+	 * delivered and it has TTL left (or this host is its destination)
+	 * @param m The message
+	 * @return true if the message can be bundled to this host
+	 */
+	private boolean acceptsBundled(Message m) {
+		return !hasMessage(m.getId()) && !isDeliveredMessage(m) &&
+				(m.getTtl() > 0 || m.getTo() == getHost()) &&
+				!hasVisited(m, getHost());
+	}
+	
+	/**
+	 * Starts receiving a bundle. The sender bundles only the messages this
+	 * host accepts (see {@link #acceptsBundled(Message)}), so the bundle is
+	 * received whole or denied if any of its messages is not accepted; the
+	 * transfer time is that of the whole bundle. Every message is 
+	 * replicated with this host on its path, as if it was received alone,
+	 * and the listeners are informed of its transfer.
+	 * @param bundle The bundle message
+	 * @param from The sender
+	 * @param header EASE header of the bundle
+	 * @return {@link #RCV_OK} if the bundle was accepted, otherwise the
+	 * reason why not
+	 */
+	private int receiveBundle(Message bundle, DTNHost from, EASEHeader header) {
+		if (isTransferring()) {
+			return TRY_LATER_BUSY;
+		}
+		
+		List<Message> members = header.getBundle();
+		for (int i = 0, n = members.size(); i < n; i++) {
+			if (!acceptsBundled(members.get(i))) {
+				return DENIED_OLD;
+			}
+		}
+		if (!makeRoomForMessage(bundle.getSize())) {
+			return DENIED_NO_SPACE;
+		}
+		
+		/* the header is shared with the sender's in-flight bundle: our 
+		 * copies are kept in our own replicate */
+		ArrayList<Message> copies = new ArrayList<Message>(members.size());
+		for (int i = 0, n = members.size(); i < n; i++) {
+			Message copy = members.get(i).replicate();
+			copy.addNodeOnPath(getHost());
+			EASEHeader copyHeader = EASEHeader.of(copy);
+			if (copyHeader != null) {
+				copy.updateProperty(EASEHeader.KEY, copyHeader(copyHeader));
+			}
+			copies.add(copy);
+		}
+		Message received = bundle.replicate();
+		received.updateProperty(EASEHeader.KEY, new EASEHeader(copies));
+		putToIncomingBuffer(received, from);
+		for (int i = 0, n = copies.size(); i < n; i++) {
+			for (MessageListener ml : this.mListeners) {
+				ml.messageTransferStarted(copies.get(i), from, getHost());
+			}
+		}
+		
+		return RCV_OK;
+	}
+	
+	@Override
+	public void messageAborted(String id, DTNHost from, int bytesRemaining) {
+		Message incoming = removeFromIncomingBuffer(id, from);
+		if (incoming == null) {
+			throw new SimError("No incoming message for id " + id + 
+					" to abort in " + getHost());
+		}
+		
+		EASEHeader header = EASEHeader.of(incoming);
+		if (header != null && header.isBundle()) {
+			List<Message> members = header.getBundle();
+			for (int i = 0, n = members.size(); i < n; i++) {
+				for (MessageListener ml : this.mListeners) {
+					ml.messageTransferAborted(members.get(i), from, getHost());
+				}
+			}
+			return;
+		}
+		for (MessageListener ml : this.mListeners) {
+			ml.messageTransferAborted(incoming, from, getHost());
+		}
+	}
+	
 	@Override
 	public Message messageTransferred(String id, DTNHost from) {
 		
 		// o código foi retirado de messageTransferred do MessageRouter. Contém algumas alterações
 		
 		Message incoming = removeFromIncomingBuffer(id, from);
-		boolean isFinalRecipient;
-		boolean isFirstDelivery; // is this first delivered instance of the msg
 		
 		if (incoming == null) {
 			throw new SimError("No message with ID " + id + " in the incoming "+
 					"buffer of " + this.getHost());
 		}
 		
-		HashMap<DTNHost, MapTuple> mapOtherHost = (HashMap<DTNHost, MapTuple>) incoming.getProperty("MyTable"); 
-		if (mapOtherHost != null) {
+		EASEHeader header = EASEHeader.of(incoming);
+		if (header != null && header.isTable()) {
 			if (incoming.getTo() == getHost() && incoming.getFrom() == from) { // verifica se foi o vizinho que mandou
-				mapOfOtherHosts.put(from, mapOtherHost);
+				NeighborState neighbor = touchNeighbor(from);
+				// o vizinho não tem a nossa tabela desde a versão confirmada: reenvia as alterações
+				if (header.getTableAck() < neighbor.versionSent) {
+					neighbor.versionSent = header.getTableAck();
+					requestRefresh(from);
+				}
+				if (neighbor.table == null) {
+					neighbor.table = newNeighborTable();
+				}
+				if (!neighbor.table.apply(header.getTable())) {
+					// faltam alterações anteriores à tabela recebida: a nossa confirmação pede a tabela inteira
+					requestRefresh(from);
+				}
+				if (maxEntryAge != Double.MAX_VALUE) {
+					neighbor.table.evictOlderThan(SimClock.getTime() - maxEntryAge);
+				}
 				//System.out.println("Recebi tabela");
 			} else {
 				return null;
 			}
+		} else if (header != null && header.isBundle()) {
+			// cada mensagem do pacote é recebida como se tivesse sido transferida sozinha
+			List<Message> members = header.getBundle();
+			for (int i = 0, n = members.size(); i < n; i++) {
+				Message m = members.get(i);
+				updateAnchorMode(m, EASEHeader.of(m));
+				received(m, from);
+			}
+			return incoming;
 		} else {
-
-			Boolean jumpingToArchor = (Boolean) incoming.getProperty("JumpingToAnArchorPoint");
-			Coord   archorPos       = (Coord) incoming.getProperty("ArchorPosition");
-			Coord   myPos           = getHost().getLocation();
-			if (jumpingToArchor != null) {
-				if (!jumpingToArchor.booleanValue()) {
-					MapTuple tuple = mapHosts.get(incoming.getTo());
-					if (tuple != null && mahDistance(worldToSquareLattice(myPos), tuple.mLastPosition) > 1.) {
-						incoming.updateProperty("JumpingToAnArchorPoint", new Boolean(true));
-						if (archorPos == null) {
-							incoming.addProperty("ArchorPosition", tuple.mLastPosition);
-						} else {
-							incoming.updateProperty("ArchorPosition", tuple.mLastPosition);
-						}
-					}					
-				} else {
-					if (mahDistance(worldToSquareLattice(myPos), archorPos) <= 1.) {
-						incoming.updateProperty("JumpingToAnArchorPoint", new Boolean(false));
-					}					
+			updateAnchorMode(incoming, header);
+		}
+		
+		received(incoming, from);
+		return incoming;
+	}
+	
+	/**
+	 * Switches a received data message to or from jumping to an anchor 
+	 * point
+	 * @param incoming The message
+	 * @param header EASE header of the message (our own copy) or null
+	 */
+	private void updateAnchorMode(Message incoming, EASEHeader header) {
+		// o cabeçalho já é uma cópia própria deste nó (ver receiveMessage)
+		if (header == null) {
+			return;
+		}
+		lattice.get(getHost(), myLattice);
+		if (!header.isJumping()) {
+			int destAddress = incoming.getTo().getAddress();
+			if (mapHosts.contains(destAddress)) {
+				double destX = mapHosts.getX(destAddress);
+				double destY = mapHosts.getY(destAddress);
+				if (mahDistance(myLattice.getX(), myLattice.getY(), destX, destY) > 1.) {
+					header.startJumping(destX, destY);
+					getRoutingTrace().recordModeSwitch(incoming, getHost(), true, destX, destY);
+					if (metrics != null) {
+						metrics.count(RoutingMetrics.MODE_SWITCHES);
+					}
 				}
-			}
-			// vizinho
-			
-			//incoming.updateProperty(", value)
-			
+			}					
+		} else {
+			// chegou à âncora: está a menos de uma célula dela ou na própria célula
+			if (mahDistance(myLattice.getX(), myLattice.getY(), 
+					header.getArchorX(), header.getArchorY()) <= 1. ||
+					NeighborGrid.isSameCell(myLattice.getX(), myLattice.getY(),
+							header.getArchorX(), header.getArchorY())) {
+				header.stopJumping();
+				getRoutingTrace().recordModeSwitch(incoming, getHost(), false, 
+						header.getArchorX(), header.getArchorY());
+				if (metrics != null) {
+					metrics.count(RoutingMetrics.MODE_SWITCHES);
+				}
+			}					
 		}
+	}
+	
+	/**
+	 * Puts a received message to the buffer, or records it as delivered if
+	 * this host is the final recipient, and informs the listeners
+	 * @param incoming The message
+	 * @param from The previous hop
+	 */
+	private void received(Message incoming, DTNHost from) {
+		boolean isFinalRecipient;
+		boolean isFirstDelivery; // is this first delivered instance of the msg
 		
 		incoming.setReceiveTime(SimClock.getTime());
 		
@@ -291,14 +1555,12 @@ public class EASERouter extends ActiveRouter {
 			addToMessages(incoming, false);
 		}
 		else if (isFirstDelivery) {
-			deliveredMessages.put(id, incoming);
+			addDeliveredMessage(incoming);
 		}
 		
 		for (MessageListener ml : this.mListeners) {
 			ml.messageTransferred(incoming, from, getHost(), isFirstDelivery);
 		}
-		
-		return incoming;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,577 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * Encounter table of the EASE router. For every known host the table keeps
+ * the time of the last encounter and the square lattice position where the
+ * encounter happened. Entries are indexed by host address and stored in
+ * parallel primitive arrays, so lookups don't create or touch any boxed
+ * objects.
+ * <P>
+ * Every change of an entry gives the entry a new sequence number (the
+ * version of the table after the change). Entries are kept in a list ordered
+ * by their sequence numbers, so the changes made since any earlier version
+ * can be collected in time proportional to the number of changes
+ * (see {@link #changesSince(int)}).</P>
+ * <P>
+ * The size of the table can be limited; when the table is full, the least
+ * recently changed entry is evicted to make room for a new host. Old
+ * entries can also be evicted by time (see {@link #evictOlderThan(double)}).
+ * Both evict from the head of the change order list, so the cost is
+ * constant per evicted entry.</P>
+ * <P>
+ * A copy of another host's table is kept up to date with
+ * {@link #apply(EncounterTableDelta)}. The copy remembers the version of
+ * the source table it has all the changes of, and a delta that is
+ * relative to a later version is rejected, since the changes between the
+ * versions would be missing.</P>
+ */
+public class EncounterTable {
+	/** Time value returned for hosts that are not in the table */
+	public static final double UNKNOWN = -1;
+
+	/** Marker of an unused index bucket */
+	private static final int EMPTY = -1;
+	/** Initial number of entries the table has room for */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Open addressing index from host address to entry slot */
+	private int[] index;
+	/** Host addresses of the entries */
+	private int[] addresses;
+	/** Last encounter times of the entries */
+	private double[] times;
+	/** Lattice x coordinates of the last encounter positions */
+	private double[] xs;
+	/** Lattice y coordinates of the last encounter positions */
+	private double[] ys;
+	/** Sequence numbers (table versions) of the latest entry changes */
+	private int[] versions;
+	/** Previous entry in the change order (or EMPTY) */
+	private int[] prev;
+	/** Next entry in the change order (or EMPTY) */
+	private int[] next;
+	/** Least recently changed entry */
+	private int head;
+	/** Most recently changed entry */
+	private int tail;
+	/** Number of entries in the table */
+	private int size;
+	/** Current version of the table */
+	private int version;
+	/** Maximum number of entries */
+	private int maxSize;
+	/** Version of the source table this copy has all the changes of */
+	private int sourceVersion;
+
+	/**
+	 * Creates a new, empty encounter table.
+	 */
+	public EncounterTable() {
+		this.index = new int[INITIAL_CAPACITY * 2];
+		Arrays.fill(this.index, EMPTY);
+		this.addresses = new int[INITIAL_CAPACITY];
+		this.times = new double[INITIAL_CAPACITY];
+		this.xs = new double[INITIAL_CAPACITY];
+		this.ys = new double[INITIAL_CAPACITY];
+		this.versions = new int[INITIAL_CAPACITY];
+		this.prev = new int[INITIAL_CAPACITY];
+		this.next = new int[INITIAL_CAPACITY];
+		this.head = EMPTY;
+		this.tail = EMPTY;
+		this.maxSize = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Limits the number of entries in the table. If the table has more
+	 * entries than the new limit, the least recently changed ones are
+	 * evicted.
+	 * @param maxSize Maximum number of entries (at least 1)
+	 */
+	public void setMaxSize(int maxSize) {
+		assert maxSize > 0 : "Invalid max size " + maxSize;
+		this.maxSize = maxSize;
+		while (this.size > maxSize) {
+			evictLeastRecent();
+		}
+	}
+
+	/**
+	 * Returns the number of hosts in the table
+	 * @return the number of hosts in the table
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the current version of the table. The version grows by one
+	 * every time an entry is added or changed.
+	 * @return the current version of the table
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns true if the table has an entry for the given host
+	 * @param address Address of the host
+	 * @return true if the host is in the table
+	 */
+	public boolean contains(int address) {
+		return slotOf(address) != EMPTY;
+	}
+
+	/**
+	 * Returns the time of the last encounter with the given host
+	 * @param address Address of the host
+	 * @return The encounter time or {@link #UNKNOWN} if the host is not in
+	 * the table
+	 */
+	public double getTime(int address) {
+		int slot = slotOf(address);
+		return slot == EMPTY ? UNKNOWN : this.times[slot];
+	}
+
+	/**
+	 * Returns the lattice x coordinate of the last encounter with the host
+	 * @param address Address of the host
+	 * @return The x coordinate or 0 if the host is not in the table
+	 */
+	public double getX(int address) {
+		int slot = slotOf(address);
+		return slot == EMPTY ? 0 : this.xs[slot];
+	}
+
+	/**
+	 * Returns the lattice y coordinate of the last encounter with the host
+	 * @param address Address of the host
+	 * @return The y coordinate or 0 if the host is not in the table
+	 */
+	public double getY(int address) {
+		int slot = slotOf(address);
+		return slot == EMPTY ? 0 : this.ys[slot];
+	}
+
+	/**
+	 * Sets (adds or replaces) the entry of a host. If the table is full,
+	 * the least recently changed entry is evicted to make room for a new
+	 * host.
+	 * @param address Address of the host
+	 * @param time Time of the encounter
+	 * @param x Lattice x coordinate of the encounter
+	 * @param y Lattice y coordinate of the encounter
+	 * @return Address of the evicted host or -1 if no entry was evicted
+	 */
+	public int put(int address, double time, double x, double y) {
+		int slot = slotOf(address);
+		int evicted = -1;
+		if (slot == EMPTY) {
+			if (this.size >= this.maxSize) {
+				evicted = evictLeastRecent();
+			}
+			if (this.size == this.addresses.length) {
+				grow();
+			}
+			slot = this.size++;
+			this.addresses[slot] = address;
+			insertToIndex(slot);
+		}
+		else {
+			unlink(slot);
+		}
+		this.times[slot] = time;
+		this.xs[slot] = x;
+		this.ys[slot] = y;
+		this.versions[slot] = ++this.version;
+		linkLast(slot);
+		return evicted;
+	}
+
+	/**
+	 * Removes the entry of a host
+	 * @param address Address of the host
+	 * @return True if the host was in the table
+	 */
+	public boolean remove(int address) {
+		int slot = slotOf(address);
+		if (slot == EMPTY) {
+			return false;
+		}
+		removeSlot(slot);
+		return true;
+	}
+
+	/**
+	 * Returns the encounter time of the least recently changed entry
+	 * @return The time or {@link #UNKNOWN} if the table is empty
+	 */
+	public double getLeastRecentTime() {
+		return this.head == EMPTY ? UNKNOWN : this.times[this.head];
+	}
+
+	/**
+	 * Removes the least recently changed entry
+	 * @return Address of the removed host or -1 if the table is empty
+	 */
+	public int evictLeastRecent() {
+		if (this.head == EMPTY) {
+			return -1;
+		}
+		int address = this.addresses[this.head];
+		removeSlot(this.head);
+		return address;
+	}
+
+	/**
+	 * Evicts entries from the head of the change order list as long as
+	 * their encounter time is older than the given time. If entries are
+	 * changed in the order of their encounter times (as in a host's own
+	 * table) all the older entries are evicted; otherwise an older entry
+	 * behind a newer one is evicted on a later call.
+	 * @param time The oldest encounter time to keep
+	 * @return The number of evicted entries
+	 */
+	public int evictOlderThan(double time) {
+		int count = 0;
+		while (this.head != EMPTY && this.times[this.head] < time) {
+			removeSlot(this.head);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the entries that have changed after the given version of
+	 * this table. The returned delta is a copy and is not affected by
+	 * later changes of this table.
+	 * @param baseVersion The version the changes are collected from
+	 * @return The changed entries
+	 */
+	public EncounterTableDelta changesSince(int baseVersion) {
+		int count = 0;
+		for (int s = this.tail; s != EMPTY && this.versions[s] > baseVersion;
+				s = this.prev[s]) {
+			count++;
+		}
+
+		EncounterTableDelta delta = new EncounterTableDelta(baseVersion,
+				this.version, count);
+		int i = count;
+		for (int s = this.tail; i > 0; s = this.prev[s]) {
+			i--;
+			delta.set(i, this.addresses[s], this.times[s], this.xs[s], 
+					this.ys[s]);
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Applies the entries of a delta to this copy of the source table. An
+	 * entry replaces the existing entry of the same host only if it is more
+	 * recent. The delta is rejected if its base version is later than the
+	 * version of the source table this copy is at.
+	 * @param delta The delta to apply
+	 * @return True if the delta was applied, false if it was rejected
+	 */
+	public boolean apply(EncounterTableDelta delta) {
+		if (delta.getBaseVersion() > this.sourceVersion) {
+			return false;
+		}
+		for (int i = 0, n = delta.size(); i < n; i++) {
+			int address = delta.addressAt(i);
+			if (delta.timeAt(i) > getTime(address)) {
+				put(address, delta.timeAt(i), delta.xAt(i), delta.yAt(i));
+			}
+		}
+		if (delta.getVersion() > this.sourceVersion) {
+			this.sourceVersion = delta.getVersion();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the version of the source table this copy has all the
+	 * changes of
+	 * @return The version (0 if no delta has been applied)
+	 */
+	public int getSourceVersion() {
+		return this.sourceVersion;
+	}
+
+	/**
+	 * Returns the host address of the entry in the given slot. Together with
+	 * {@link #size()} this can be used for iterating over the entries.
+	 * @param slot Slot of the entry (0...size()-1)
+	 * @return The host address
+	 */
+	public int addressAt(int slot) {
+		return this.addresses[slot];
+	}
+
+	/**
+	 * Returns the encounter time of the entry in the given slot
+	 * @param slot Slot of the entry (0...size()-1)
+	 * @return The encounter time
+	 */
+	public double timeAt(int slot) {
+		return this.times[slot];
+	}
+
+	/**
+	 * Returns the lattice x coordinate of the entry in the given slot
+	 * @param slot Slot of the entry (0...size()-1)
+	 * @return The x coordinate
+	 */
+	public double xAt(int slot) {
+		return this.xs[slot];
+	}
+
+	/**
+	 * Returns the lattice y coordinate of the entry in the given slot
+	 * @param slot Slot of the entry (0...size()-1)
+	 * @return The y coordinate
+	 */
+	public double yAt(int slot) {
+		return this.ys[slot];
+	}
+
+	/**
+	 * Returns the sequence number (table version) of the latest change of a
+	 * host's entry
+	 * @param address Address of the host
+	 * @return The sequence number or 0 if the host is not in the table
+	 */
+	int getEntryVersion(int address) {
+		int slot = slotOf(address);
+		return slot == EMPTY ? 0 : this.versions[slot];
+	}
+
+	/**
+	 * Sets an entry with the sequence number it had in a snapshot of the
+	 * table (see {@link RouterSnapshot}). The entries must be restored in
+	 * their change order, followed by {@link #restoreVersion(int)}.
+	 * @param address Address of the host
+	 * @param time Time of the encounter
+	 * @param x Lattice x coordinate of the encounter
+	 * @param y Lattice y coordinate of the encounter
+	 * @param version Sequence number of the entry
+	 */
+	void restoreEntry(int address, double time, double x, double y,
+			int version) {
+		put(address, time, x, y);
+		this.versions[this.tail] = version;
+		this.version = version;
+	}
+
+	/**
+	 * Sets the version of a restored table
+	 * @param version The version the table had in the snapshot
+	 */
+	void restoreVersion(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * Sets the source version of a restored copy of a table
+	 * @param version The source version the copy had in the snapshot
+	 */
+	void restoreSourceVersion(int version) {
+		this.sourceVersion = version;
+	}
+
+	/**
+	 * Removes the entry of a slot from the table. The last entry is moved
+	 * to the freed slot, so the slots stay contiguous.
+	 * @param slot Slot of the entry
+	 */
+	private void removeSlot(int slot) {
+		unlink(slot);
+		removeFromIndex(slot);
+
+		int last = --this.size;
+		if (slot == last) {
+			return;
+		}
+
+		this.index[bucketOf(last)] = slot;
+		this.addresses[slot] = this.addresses[last];
+		this.times[slot] = this.times[last];
+		this.xs[slot] = this.xs[last];
+		this.ys[slot] = this.ys[last];
+		this.versions[slot] = this.versions[last];
+
+		int p = this.prev[last];
+		int n = this.next[last];
+		this.prev[slot] = p;
+		this.next[slot] = n;
+		if (p == EMPTY) {
+			this.head = slot;
+		} else {
+			this.next[p] = slot;
+		}
+		if (n == EMPTY) {
+			this.tail = slot;
+		} else {
+			this.prev[n] = slot;
+		}
+	}
+
+	/**
+	 * Removes an entry from the change order list
+	 * @param slot Slot of the entry
+	 */
+	private void unlink(int slot) {
+		int p = this.prev[slot];
+		int n = this.next[slot];
+
+		if (p == EMPTY) {
+			this.head = n;
+		} else {
+			this.next[p] = n;
+		}
+		if (n == EMPTY) {
+			this.tail = p;
+		} else {
+			this.prev[n] = p;
+		}
+	}
+
+	/**
+	 * Adds an entry to the end of the change order list
+	 * @param slot Slot of the entry
+	 */
+	private void linkLast(int slot) {
+		this.prev[slot] = this.tail;
+		this.next[slot] = EMPTY;
+		if (this.tail == EMPTY) {
+			this.head = slot;
+		} else {
+			this.next[this.tail] = slot;
+		}
+		this.tail = slot;
+	}
+
+	/**
+	 * Returns the slot of a host's entry
+	 * @param address Address of the host
+	 * @return The slot or EMPTY if the host is not in the table
+	 */
+	private int slotOf(int address) {
+		int mask = this.index.length - 1;
+		int i = hash(address) & mask;
+		int slot;
+
+		while ((slot = this.index[i]) != EMPTY) {
+			if (this.addresses[slot] == address) {
+				return slot;
+			}
+			i = (i + 1) & mask;
+		}
+
+		return EMPTY;
+	}
+
+	/**
+	 * Returns the index bucket of an entry that is in the index
+	 * @param slot Slot of the entry
+	 * @return The bucket
+	 */
+	private int bucketOf(int slot) {
+		int mask = this.index.length - 1;
+		int i = hash(this.addresses[slot]) & mask;
+
+		while (this.index[i] != slot) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Removes an entry from the index. The following entries of the probe
+	 * sequence are shifted back so that no deletion markers are needed.
+	 * @param slot Slot of the entry
+	 */
+	private void removeFromIndex(int slot) {
+		int mask = this.index.length - 1;
+		int free = bucketOf(slot);
+		int i = free;
+
+		while (true) {
+			i = (i + 1) & mask;
+			int s = this.index[i];
+			if (s == EMPTY) {
+				break;
+			}
+			int home = hash(this.addresses[s]) & mask;
+			/* the entry can't move if its home is cyclically in (free, i] */
+			boolean stays = free <= i ? (free < home && home <= i) :
+				(free < home || home <= i);
+			if (!stays) {
+				this.index[free] = s;
+				free = i;
+			}
+		}
+		this.index[free] = EMPTY;
+	}
+
+	/**
+	 * Inserts a slot to the index. The host of the slot must not be
+	 * in the index already.
+	 * @param slot The slot to insert
+	 */
+	private void insertToIndex(int slot) {
+		int mask = this.index.length - 1;
+		int i = hash(this.addresses[slot]) & mask;
+
+		while (this.index[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		this.index[i] = slot;
+	}
+
+	/**
+	 * Doubles the capacity of the entry arrays and the index
+	 */
+	private void grow() {
+		int capacity = this.addresses.length * 2;
+
+		this.addresses = Arrays.copyOf(this.addresses, capacity);
+		this.times = Arrays.copyOf(this.times, capacity);
+		this.xs = Arrays.copyOf(this.xs, capacity);
+		this.ys = Arrays.copyOf(this.ys, capacity);
+		this.versions = Arrays.copyOf(this.versions, capacity);
+		this.prev = Arrays.copyOf(this.prev, capacity);
+		this.next = Arrays.copyOf(this.next, capacity);
+
+		this.index = new int[capacity * 2];
+		Arrays.fill(this.index, EMPTY);
+		for (int slot = 0; slot < this.size; slot++) {
+			insertToIndex(slot);
+		}
+	}
+
+	/**
+	 * Spreads the bits of a host address for the index
+	 * @param address The address
+	 * @return Hash value of the address
+	 */
+	private static int hash(int address) {
+		int h = address * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns a String presentation of this table
+	 * @return A String presentation of this table
+	 */
+	public String toString() {
+		return "EncounterTable with " + this.size + " entries";
+	}
+}
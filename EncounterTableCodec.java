@@ -0,0 +1,153 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary wire format of {@link EncounterTableDelta}s. The size of
+ * the encoding is used as the size of the encounter table messages, so the
+ * transfer times of the table exchanges reflect the amount of data a real
+ * implementation would send.
+ * <P>
+ * Format: the base version, the version and the number of entries, then
+ * for every entry the host address, the encounter time as the difference
+ * from the previous entry's time and the lattice coordinates. All the
+ * values are variable length integers (7 bits per byte, the high bit set
+ * in all but the last byte); signed values are zigzag encoded. Times are
+ * quantized to {@link #TIME_UNIT} seconds and lattice coordinates to
+ * 1/{@link #COORD_STEPS} of a lattice cell, which is the precision of the
+ * decoded values.</P>
+ */
+public class EncounterTableCodec {
+	/** Resolution of the encoded encounter times in seconds ({@value}) */
+	public static final double TIME_UNIT = 0.01;
+	/** Number of encoded steps per lattice cell ({@value}) */
+	public static final int COORD_STEPS = 16;
+
+	private EncounterTableCodec() { }
+
+	/**
+	 * Returns the number of bytes the encoding of a delta takes
+	 * @param delta The delta
+	 * @return The encoded size in bytes
+	 */
+	public static int encodedSize(EncounterTableDelta delta) {
+		int n = delta.size();
+		int size = varintSize(delta.getBaseVersion()) +
+			varintSize(delta.getVersion()) + varintSize(n);
+		long prevTime = 0;
+		for (int i = 0; i < n; i++) {
+			long time = quantizeTime(delta.timeAt(i));
+			size += varintSize(delta.addressAt(i));
+			size += varintSize(zigzag(time - prevTime));
+			size += varintSize(zigzag(quantizeCoord(delta.xAt(i))));
+			size += varintSize(zigzag(quantizeCoord(delta.yAt(i))));
+			prevTime = time;
+		}
+		return size;
+	}
+
+	/**
+	 * Encodes a delta to a new byte array
+	 * @param delta The delta
+	 * @return The encoding
+	 */
+	public static byte[] encode(EncounterTableDelta delta) {
+		byte[] bytes = new byte[encodedSize(delta)];
+		encode(delta, ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/**
+	 * Encodes a delta to a buffer
+	 * @param delta The delta
+	 * @param out The buffer; must have room for {@link
+	 * #encodedSize(EncounterTableDelta)} bytes
+	 */
+	public static void encode(EncounterTableDelta delta, ByteBuffer out) {
+		int n = delta.size();
+		putVarint(out, delta.getBaseVersion());
+		putVarint(out, delta.getVersion());
+		putVarint(out, n);
+		long prevTime = 0;
+		for (int i = 0; i < n; i++) {
+			long time = quantizeTime(delta.timeAt(i));
+			putVarint(out, delta.addressAt(i));
+			putVarint(out, zigzag(time - prevTime));
+			putVarint(out, zigzag(quantizeCoord(delta.xAt(i))));
+			putVarint(out, zigzag(quantizeCoord(delta.yAt(i))));
+			prevTime = time;
+		}
+	}
+
+	/**
+	 * Decodes a delta from a buffer
+	 * @param in The buffer, positioned at the start of the encoding
+	 * @return The decoded delta
+	 */
+	public static EncounterTableDelta decode(ByteBuffer in) {
+		int baseVersion = (int)getVarint(in);
+		int version = (int)getVarint(in);
+		int n = (int)getVarint(in);
+		EncounterTableDelta delta = new EncounterTableDelta(baseVersion,
+				version, n);
+		long time = 0;
+		for (int i = 0; i < n; i++) {
+			int address = (int)getVarint(in);
+			time += unzigzag(getVarint(in));
+			long x = unzigzag(getVarint(in));
+			long y = unzigzag(getVarint(in));
+			delta.set(i, address, time * TIME_UNIT, (double)x / COORD_STEPS,
+					(double)y / COORD_STEPS);
+		}
+		return delta;
+	}
+
+	private static long quantizeTime(double time) {
+		return Math.round(time / TIME_UNIT);
+	}
+
+	private static long quantizeCoord(double coord) {
+		return Math.round(coord * COORD_STEPS);
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static int varintSize(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte)value);
+	}
+
+	private static long getVarint(ByteBuffer in) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.get();
+			value |= (long)(b & 0x7F) << shift;
+			shift += 7;
+		} while (b < 0);
+		return value;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+/**
+ * Changed entries of an {@link EncounterTable} between two versions of the
+ * table. Deltas are what EASE routers send to their neighbors instead of
+ * the whole table. A delta is a copy of the entries; it doesn't refer to the
+ * table it was created from.
+ */
+public class EncounterTableDelta {
+	/** Version of the table the changes are relative to */
+	private final int baseVersion;
+	/** Version of the table after the changes */
+	private final int version;
+	private final int[] addresses;
+	private final double[] times;
+	private final double[] xs;
+	private final double[] ys;
+
+	/**
+	 * Creates a new delta with room for the given number of entries
+	 * @param baseVersion Version of the table the changes are relative to
+	 * @param version Version of the table after the changes
+	 * @param size Number of entries in the delta
+	 */
+	EncounterTableDelta(int baseVersion, int version, int size) {
+		this.baseVersion = baseVersion;
+		this.version = version;
+		this.addresses = new int[size];
+		this.times = new double[size];
+		this.xs = new double[size];
+		this.ys = new double[size];
+	}
+
+	/**
+	 * Sets the values of an entry
+	 * @param i Index of the entry
+	 * @param address Host address
+	 * @param time Encounter time
+	 * @param x Lattice x coordinate
+	 * @param y Lattice y coordinate
+	 */
+	void set(int i, int address, double time, double x, double y) {
+		this.addresses[i] = address;
+		this.times[i] = time;
+		this.xs[i] = x;
+		this.ys[i] = y;
+	}
+
+	/**
+	 * Returns the version of the table the changes are relative to
+	 * @return the base version
+	 */
+	public int getBaseVersion() {
+		return this.baseVersion;
+	}
+
+	/**
+	 * Returns the version of the table after the changes
+	 * @return the version
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Returns the number of entries in this delta
+	 * @return the number of entries
+	 */
+	public int size() {
+		return this.addresses.length;
+	}
+
+	/**
+	 * Returns the host address of an entry
+	 * @param i Index of the entry
+	 * @return The host address
+	 */
+	public int addressAt(int i) {
+		return this.addresses[i];
+	}
+
+	/**
+	 * Returns the encounter time of an entry
+	 * @param i Index of the entry
+	 * @return The encounter time
+	 */
+	public double timeAt(int i) {
+		return this.times[i];
+	}
+
+	/**
+	 * Returns the lattice x coordinate of an entry
+	 * @param i Index of the entry
+	 * @return The x coordinate
+	 */
+	public double xAt(int i) {
+		return this.xs[i];
+	}
+
+	/**
+	 * Returns the lattice y coordinate of an entry
+	 * @param i Index of the entry
+	 * @return The y coordinate
+	 */
+	public double yAt(int i) {
+		return this.ys[i];
+	}
+
+	/**
+	 * Returns a String presentation of this delta
+	 * @return A String presentation of this delta
+	 */
+	public String toString() {
+		return "EncounterTableDelta " + this.baseVersion + "->" +
+			this.version + " with " + size() + " entries";
+	}
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.HashMap;
+import java.util.List;
+
+import core.Message;
+import core.SimClock;
+
+/**
+ * Hierarchical timing wheel of buffered messages keyed on their expiry
+ * times. Time is divided into ticks of {@link #TICK} seconds. The wheel has
+ * {@link #LEVELS} levels of 64 slots: a slot of level 0 holds the messages
+ * expiring during one tick, a slot of level 1 the messages of 64 ticks and
+ * so on; messages further in the future than the last level reaches wait in
+ * an overflow list. When the time advances, the slots of the passed ticks
+ * are emptied and the slots of the upper levels are cascaded down as the
+ * lower levels wrap around.
+ * <P>
+ * Adding and removing a message costs O(1) and advancing the wheel costs
+ * O(passed ticks + expired messages), independent of the number of
+ * buffered messages that are not due yet.</P>
+ */
+public class ExpiryWheel {
+	/** Length of one tick in seconds ({@value}) */
+	public static final double TICK = 1.0;
+	/** Number of levels ({@value}) */
+	public static final int LEVELS = 4;
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	/** Index of the overflow list in the slot heads */
+	private static final int OVERFLOW = LEVELS * SLOTS;
+
+	/** Heads of the slot lists (level * SLOTS + slot) and the overflow */
+	private Entry[] heads;
+	/** Entries by message ID */
+	private HashMap<String, Entry> entriesById;
+	/** Last tick whose slot has been emptied */
+	private long currentTick;
+
+	/**
+	 * Creates a new, empty wheel
+	 */
+	public ExpiryWheel() {
+		this.heads = new Entry[OVERFLOW + 1];
+		this.entriesById = new HashMap<String, Entry>();
+		this.currentTick = -1;
+	}
+
+	/**
+	 * Adds a message to the wheel. If a message with the same ID is already
+	 * in the wheel, it is replaced. Messages that never expire are not
+	 * added.
+	 * @param m The message to add
+	 * @param expiryTime The simulation time when the message expires or
+	 * Double.MAX_VALUE if it never expires
+	 */
+	public void add(Message m, double expiryTime) {
+		remove(m.getId());
+		if (expiryTime == Double.MAX_VALUE) {
+			return;
+		}
+		if (this.entriesById.isEmpty()) {
+			/* nothing is due before now, so the ticks up to now need not be
+			 * passed one by one (e.g. when the first message is added late
+			 * in the simulation); a passed tick is not passed again */
+			this.currentTick = Math.max(this.currentTick, 
+					(long)Math.floor(SimClock.getTime() / TICK) - 1);
+		}
+		Entry e = new Entry(m, (long)Math.ceil(expiryTime / TICK));
+		this.entriesById.put(m.getId(), e);
+		/* the slot of the current tick has already been emptied */
+		schedule(e, Math.max(e.tick, this.currentTick + 1));
+	}
+
+	/**
+	 * Removes a message from the wheel
+	 * @param id ID of the message to remove
+	 * @return The removed message or null if it wasn't in the wheel
+	 */
+	public Message remove(String id) {
+		Entry e = this.entriesById.remove(id);
+		if (e == null) {
+			return null;
+		}
+		unlink(e);
+		return e.message;
+	}
+
+	/**
+	 * Returns the number of messages in the wheel
+	 * @return the number of messages
+	 */
+	public int size() {
+		return this.entriesById.size();
+	}
+
+	/**
+	 * Advances the wheel to the given time and removes the messages that
+	 * have expired by then
+	 * @param time The current simulation time
+	 * @param expired List where the expired messages are added
+	 */
+	public void advance(double time, List<Message> expired) {
+		long target = (long)Math.floor(time / TICK);
+		if (this.entriesById.isEmpty()) {
+			/* nothing to cascade or to expire */
+			if (target > this.currentTick) {
+				this.currentTick = target;
+			}
+			return;
+		}
+
+		while (this.currentTick < target) {
+			long tick = ++this.currentTick;
+			cascade(tick);
+			Entry e = this.heads[(int)(tick & SLOT_MASK)];
+			this.heads[(int)(tick & SLOT_MASK)] = null;
+			while (e != null) {
+				Entry next = e.next;
+				e.prev = e.next = null;
+				this.entriesById.remove(e.message.getId());
+				expired.add(e.message);
+				e = next;
+			}
+		}
+	}
+
+	/**
+	 * Moves the entries of the upper level slots that start at the given
+	 * tick down to the lower levels
+	 */
+	private void cascade(long tick) {
+		for (int level = 1; level <= LEVELS; level++) {
+			if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+				return;
+			}
+			int bucket = level == LEVELS ? OVERFLOW : level * SLOTS +
+				(int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+			Entry e = this.heads[bucket];
+			this.heads[bucket] = null;
+			while (e != null) {
+				Entry next = e.next;
+				e.prev = e.next = null;
+				schedule(e, e.tick);
+				e = next;
+			}
+		}
+	}
+
+	/**
+	 * Puts an entry to the slot matching the distance of the given tick
+	 * (not before the current tick) from the current tick
+	 */
+	private void schedule(Entry e, long tick) {
+		long delta = tick - this.currentTick;
+		int bucket = OVERFLOW;
+		for (int level = 0; level < LEVELS; level++) {
+			if (delta < (1L << (SLOT_BITS * (level + 1)))) {
+				bucket = level * SLOTS +
+					(int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+				break;
+			}
+		}
+
+		e.bucket = bucket;
+		e.prev = null;
+		e.next = this.heads[bucket];
+		if (e.next != null) {
+			e.next.prev = e;
+		}
+		this.heads[bucket] = e;
+	}
+
+	private void unlink(Entry e) {
+		if (e.prev != null) {
+			e.prev.next = e.next;
+		}
+		else if (this.heads[e.bucket] == e) {
+			this.heads[e.bucket] = e.next;
+		}
+		if (e.next != null) {
+			e.next.prev = e.prev;
+		}
+		e.prev = e.next = null;
+	}
+
+	/**
+	 * Wheel entry of a message
+	 */
+	private static class Entry {
+		private final Message message;
+		/** Tick when the message expires */
+		private final long tick;
+		private int bucket;
+		private Entry prev;
+		private Entry next;
+
+		private Entry(Message message, long tick) {
+			this.message = message;
+			this.tick = tick;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.List;
+
+import core.DTNHost;
+
+/**
+ * Set of the addresses of the hosts a message has visited. The set is
+ * kept next to the hop list of the message and answers "has the message
+ * traversed this host" in constant time and without allocating, where
+ * the hop list needs a linear scan. The addresses are kept in a small open
+ * addressing array of ints (address + 1, 0 = empty bucket) that is never
+ * more than half full.
+ */
+public class HopSet {
+	private int[] keys;
+	private int size;
+
+	/**
+	 * Creates a new, empty set
+	 */
+	public HopSet() {
+		this.keys = new int[8];
+	}
+
+	/**
+	 * Creates a set of the hosts on a hop list
+	 * @param hops The hosts
+	 */
+	public HopSet(List<DTNHost> hops) {
+		this();
+		for (int i = 0, n = hops.size(); i < n; i++) {
+			add(hops.get(i));
+		}
+	}
+
+	/**
+	 * Returns a copy of this set
+	 * @return a copy of this set
+	 */
+	public HopSet copy() {
+		HopSet s = new HopSet();
+		s.keys = this.keys.clone();
+		s.size = this.size;
+		return s;
+	}
+
+	/**
+	 * Returns true if the host is in the set
+	 * @param host The host
+	 * @return true if the host is in the set
+	 */
+	public boolean contains(DTNHost host) {
+		return this.keys[bucketOf(host.getAddress() + 1)] != 0;
+	}
+
+	/**
+	 * Adds a host to the set
+	 * @param host The host
+	 */
+	public void add(DTNHost host) {
+		int key = host.getAddress() + 1;
+		int bucket = bucketOf(key);
+		if (this.keys[bucket] != 0) {
+			return;
+		}
+		this.keys[bucket] = key;
+		if (++this.size * 2 > this.keys.length) {
+			int[] old = this.keys;
+			this.keys = new int[old.length * 2];
+			for (int k : old) {
+				if (k != 0) {
+					this.keys[bucketOf(k)] = k;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of hosts in the set
+	 * @return the number of hosts
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the bucket of a key: either the bucket where the key is or
+	 * the empty bucket where it would be put
+	 */
+	private int bucketOf(int key) {
+		int mask = this.keys.length - 1;
+		int i = (key * 0x9E3779B9) >>> 16 & mask;
+		while (this.keys[i] != 0 && this.keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Returns a String presentation of this set
+	 * @return a String presentation of this set
+	 */
+	public String toString() {
+		return "HopSet of " + this.size + " hosts";
+	}
+}
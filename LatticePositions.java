@@ -0,0 +1,239 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import core.Coord;
+import core.DTNHost;
+import core.SimClock;
+
+/**
+ * Lattice positions of the hosts, shared by all the routers that use the
+ * same lattice cell size. A host's position is computed at most once per
+ * simulation time step, either when a router first asks for it or for all
+ * the hosts at once with {@link #updateAll(List, ForkJoinPool, int)}.
+ * <P>
+ * The positions are stamped with the simulation time they were computed
+ * at; the hosts don't move while the routers are updated, so a position
+ * with the current time stamp is up to date. If the simulation time goes
+ * back (e.g. a new run or a restored snapshot), all the positions are
+ * recomputed.</P>
+ * <P>
+ * Asking for a position that is not up to date modifies the cache, so
+ * routers that are updated concurrently (see {@link ParallelUpdater}) may
+ * read the positions only after all of them have been updated.</P>
+ */
+public class LatticePositions {
+	/** The caches by cell size */
+	private static HashMap<Integer, LatticePositions> instances =
+		new HashMap<Integer, LatticePositions>();
+
+	/** Size of a lattice cell (meters) */
+	private final int cellSize;
+	/** Lattice x coordinates by host address */
+	private double[] xs;
+	/** Lattice y coordinates by host address */
+	private double[] ys;
+	/** Simulation times the positions were computed at (NaN if never) */
+	private double[] times;
+	/** Latest simulation time a position was asked at */
+	private double lastTime;
+
+	/**
+	 * Returns the shared positions for the given cell size. The cache is
+	 * created when it is asked for the first time.
+	 * @param cellSize Size of a lattice cell (meters)
+	 * @return The positions
+	 */
+	public static synchronized LatticePositions getInstance(int cellSize) {
+		LatticePositions positions = instances.get(cellSize);
+		if (positions == null) {
+			positions = new LatticePositions(cellSize);
+			instances.put(cellSize, positions);
+		}
+		return positions;
+	}
+
+	/**
+	 * Updates the positions of the given hosts in all the caches
+	 * @param hosts The hosts
+	 * @param pool Pool for computing the positions concurrently or null to
+	 * compute them in the calling thread
+	 * @param batchSize Number of hosts computed by one fork-join task
+	 */
+	public static void updateAll(List<DTNHost> hosts, ForkJoinPool pool,
+			int batchSize) {
+		LatticePositions[] all;
+		synchronized (LatticePositions.class) {
+			all = instances.values().toArray(
+					new LatticePositions[instances.size()]);
+		}
+		for (LatticePositions positions : all) {
+			positions.update(hosts, pool, batchSize);
+		}
+	}
+
+	/**
+	 * Creates a new, empty cache
+	 * @param cellSize Size of a lattice cell (meters)
+	 */
+	private LatticePositions(int cellSize) {
+		assert cellSize > 0 : "Invalid cell size " + cellSize;
+		this.cellSize = cellSize;
+		this.xs = new double[0];
+		this.ys = new double[0];
+		this.times = new double[0];
+		this.lastTime = Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * Returns the size of a lattice cell
+	 * @return the size of a lattice cell (meters)
+	 */
+	public int getCellSize() {
+		return this.cellSize;
+	}
+
+	/**
+	 * Returns the lattice position of a host at the current time
+	 * @param host The host
+	 * @param result Where the lattice coordinates are stored
+	 * @return The result coordinates
+	 */
+	public Coord get(DTNHost host, Coord result) {
+		int address = host.getAddress();
+		double now = SimClock.getTime();
+		if (now != this.lastTime) {
+			checkTime(now);
+		}
+		if (address >= this.times.length) {
+			grow(address + 1);
+		}
+		if (this.times[address] != now) {
+			compute(host, address, now);
+		}
+		result.setLocation(this.xs[address], this.ys[address]);
+		return result;
+	}
+
+	/**
+	 * Computes the positions of the given hosts at the current time
+	 * @param hosts The hosts
+	 * @param pool Pool for computing the positions concurrently or null to
+	 * compute them in the calling thread
+	 * @param batchSize Number of hosts computed by one fork-join task
+	 */
+	public void update(List<DTNHost> hosts, ForkJoinPool pool,
+			int batchSize) {
+		double now = SimClock.getTime();
+		checkTime(now);
+		int maxAddress = -1;
+		for (int i = 0, n = hosts.size(); i < n; i++) {
+			maxAddress = Math.max(maxAddress, hosts.get(i).getAddress());
+		}
+		if (maxAddress >= this.times.length) {
+			grow(maxAddress + 1);
+		}
+
+		if (pool == null || hosts.size() <= batchSize) {
+			compute(hosts, 0, hosts.size(), now);
+		}
+		else {
+			pool.invoke(new UpdateTask(hosts, 0, hosts.size(), now,
+					batchSize));
+		}
+	}
+
+	/**
+	 * Forgets all the positions if the simulation time has gone back
+	 * @param now The current simulation time
+	 */
+	private void checkTime(double now) {
+		if (now < this.lastTime) {
+			Arrays.fill(this.times, Double.NaN);
+		}
+		this.lastTime = now;
+	}
+
+	/**
+	 * Computes the positions of a range of hosts
+	 * @param hosts The hosts
+	 * @param from Index of the first host
+	 * @param to Index after the last host
+	 * @param now The current simulation time
+	 */
+	private void compute(List<DTNHost> hosts, int from, int to, double now) {
+		for (int i = from; i < to; i++) {
+			DTNHost host = hosts.get(i);
+			compute(host, host.getAddress(), now);
+		}
+	}
+
+	/**
+	 * Computes the position of a host
+	 * @param host The host
+	 * @param address Address of the host
+	 * @param now The current simulation time
+	 */
+	private void compute(DTNHost host, int address, double now) {
+		Coord location = host.getLocation();
+		this.xs[address] = location.getX() / this.cellSize;
+		this.ys[address] = location.getY() / this.cellSize;
+		this.times[address] = now;
+	}
+
+	/**
+	 * Makes room for the positions of the hosts with addresses below the
+	 * given value
+	 * @param size The new minimum size
+	 */
+	private void grow(int size) {
+		int newSize = Math.max(size, this.times.length * 2);
+		int oldSize = this.times.length;
+		this.xs = Arrays.copyOf(this.xs, newSize);
+		this.ys = Arrays.copyOf(this.ys, newSize);
+		this.times = Arrays.copyOf(this.times, newSize);
+		Arrays.fill(this.times, oldSize, newSize, Double.NaN);
+	}
+
+	/**
+	 * Fork-join task that computes the positions of a range of hosts
+	 */
+	private class UpdateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private List<DTNHost> hosts;
+		private int from;
+		private int to;
+		private double now;
+		private int batchSize;
+
+		private UpdateTask(List<DTNHost> hosts, int from, int to, double now,
+				int batchSize) {
+			this.hosts = hosts;
+			this.from = from;
+			this.to = to;
+			this.now = now;
+			this.batchSize = batchSize;
+		}
+
+		protected void compute() {
+			if (this.to - this.from <= this.batchSize) {
+				LatticePositions.this.compute(this.hosts, this.from, this.to,
+						this.now);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new UpdateTask(this.hosts, this.from, middle, this.now,
+					this.batchSize),
+					new UpdateTask(this.hosts, middle, this.to, this.now,
+					this.batchSize));
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.List;
+
+import core.RoutingInfo;
+
+/**
+ * Routing information whose text and children are computed only when they
+ * are first requested. Building the routing information of a large router
+ * eagerly (e.g. the hop paths of tens of thousands of delivered messages)
+ * is slow; a lazy node costs nothing until it is shown or expanded. The
+ * ONE GUI walks the whole tree when it shows the routing information of a
+ * host, so the laziness doesn't bound the work of the GUI by itself (see
+ * {@link PagedRoutingInfo} for that). The text and the children reflect
+ * the state of the router at the time they are first requested.
+ */
+public abstract class LazyRoutingInfo extends RoutingInfo {
+	/** The text (null until computed) */
+	private String text;
+	/** True if the children have been added */
+	private boolean expanded;
+
+	/**
+	 * Creates a node whose text is computed by {@link #describe()}
+	 */
+	public LazyRoutingInfo() {
+		super((String)null);
+	}
+
+	/**
+	 * Creates a node with the given text
+	 * @param text The text of the node
+	 */
+	public LazyRoutingInfo(String text) {
+		super(text);
+		this.text = text;
+	}
+
+	/**
+	 * Computes the text of this node. Called at most once, when the text is
+	 * first needed. The default implementation returns an empty string.
+	 * @return The text of this node
+	 */
+	protected String describe() {
+		return "";
+	}
+
+	/**
+	 * Adds the children of this node (with {@link #addMoreInfo(RoutingInfo)}).
+	 * Called at most once, when the children are first requested. The
+	 * default implementation adds none.
+	 */
+	protected void expand() { }
+
+	@Override
+	public List<RoutingInfo> getMoreInfo() {
+		if (!this.expanded) {
+			this.expanded = true;
+			expand();
+		}
+		return super.getMoreInfo();
+	}
+
+	@Override
+	public String toString() {
+		if (this.text == null) {
+			this.text = describe();
+		}
+		return this.text;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import core.Message;
+
+/**
+ * Incrementally maintained ordering of buffered messages. Every message is
+ * given a numeric key when it is added; iteration returns the messages in
+ * ascending key order (messages with equal keys in the order they were
+ * added). Adding and removing a message costs O(log n), so routers can keep
+ * e.g. their drop order up to date without sorting the whole buffer. The
+ * entries are also linked in key order, so walking all of them costs O(n).
+ */
+public class MessageOrder implements Iterable<Message> {
+	/** Ordered entries */
+	private TreeSet<Entry> entries;
+	/** Entries by message ID */
+	private HashMap<String, Entry> entriesById;
+	/** Entry with the smallest key (or null if empty) */
+	private Entry head;
+	/** Sequence number for the next added entry */
+	private long nextSeq;
+
+	/**
+	 * Creates a new, empty ordering
+	 */
+	public MessageOrder() {
+		this.entries = new TreeSet<Entry>();
+		this.entriesById = new HashMap<String, Entry>();
+	}
+
+	/**
+	 * Adds a message to the ordering. If a message with the same ID is
+	 * already in the ordering, it is replaced.
+	 * @param m The message to add
+	 * @param key The key of the message
+	 */
+	public void add(Message m, double key) {
+		remove(m.getId());
+		Entry e = new Entry(m, key, this.nextSeq++);
+		this.entries.add(e);
+		this.entriesById.put(m.getId(), e);
+		e.prev = this.entries.lower(e);
+		e.next = this.entries.higher(e);
+		if (e.prev != null) {
+			e.prev.next = e;
+		}
+		else {
+			this.head = e;
+		}
+		if (e.next != null) {
+			e.next.prev = e;
+		}
+	}
+
+	/**
+	 * Removes a message from the ordering
+	 * @param id ID of the message to remove
+	 * @return The removed message or null if there was no message with
+	 * the given ID
+	 */
+	public Message remove(String id) {
+		Entry e = this.entriesById.remove(id);
+		if (e == null) {
+			return null;
+		}
+		this.entries.remove(e);
+		if (e.prev != null) {
+			e.prev.next = e.next;
+		}
+		else {
+			this.head = e.next;
+		}
+		if (e.next != null) {
+			e.next.prev = e.prev;
+		}
+		return e.message;
+	}
+
+	/**
+	 * Returns the key a message was added with
+	 * @param id ID of the message
+	 * @return The key or Double.NaN if there's no such message
+	 */
+	public double getKey(String id) {
+		Entry e = this.entriesById.get(id);
+		return e == null ? Double.NaN : e.key;
+	}
+
+	/**
+	 * Returns the message with the smallest key
+	 * @return The first message or null if the ordering is empty
+	 */
+	public Message first() {
+		return this.head == null ? null : this.head.message;
+	}
+
+	/**
+	 * Returns the number of messages in the ordering
+	 * @return the number of messages
+	 */
+	public int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Adds the messages to a list in ascending key order. Unlike iterating,
+	 * this doesn't create any objects (unless the list has to grow), so it
+	 * can be used on every update. Costs O(n).
+	 * @param list The list to add the messages to
+	 */
+	public void addAllTo(List<? super Message> list) {
+		for (Entry e = this.head; e != null; e = e.next) {
+			list.add(e.message);
+		}
+	}
+
+	/**
+	 * Returns an iterator over the messages in ascending key order.
+	 * Removing messages through the iterator is not supported.
+	 * @return An iterator over the messages
+	 */
+	public Iterator<Message> iterator() {
+		final Iterator<Entry> i = this.entries.iterator();
+		return new Iterator<Message>() {
+			public boolean hasNext() {
+				return i.hasNext();
+			}
+			public Message next() {
+				return i.next().message;
+			}
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Key and insertion order of one message
+	 */
+	private static class Entry implements Comparable<Entry> {
+		private final Message message;
+		private final double key;
+		private final long seq;
+		/** Neighbors in key order */
+		private Entry prev;
+		private Entry next;
+
+		private Entry(Message message, double key, long seq) {
+			this.message = message;
+			this.key = key;
+			this.seq = seq;
+		}
+
+		public int compareTo(Entry o) {
+			if (this.key != o.key) {
+				return this.key < o.key ? -1 : 1;
+			}
+			return this.seq < o.seq ? -1 : (this.seq == o.seq ? 0 : 1);
+		}
+	}
+}
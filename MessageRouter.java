@@ -2,27 +2,28 @@
  * Copyright 2008 TKK/ComNet
  * Released under GPLv3. See LICENSE.txt for details. 
  */
-package routing;
-
-import java.util.Collection;
+package routing;
+
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
-
-import core.*;
-
-/**
- * Superclass for message routers.
- */
-public abstract class MessageRouter {
-	/** Message buffer size -setting id ({@value}). Integer value in bytes.*/
+
+import core.*;
+
+/**
+ * Superclass for message routers.
+ */
+public abstract class MessageRouter {
+	/** Message buffer size -setting id ({@value}). Integer value in bytes.*/
 	public static final String B_SIZE_S = "bufferSize";
 	/**
 	 * Message TTL -setting id ({@value}). Value is in minutes and must be
 	 * an integer. 
-	 */ 
+	 */ 
 	public static final String MSG_TTL_S = "msgTtl";
 	/**
 	 * Message/fragment sending queue type -setting id ({@value}). 
@@ -33,63 +34,154 @@ public abstract class MessageRouter {
 	 * <UL>
 	 * <LI/> 1 : random (message order is randomized every time; default option)
 	 * <LI/> 2 : FIFO (most recently received messages are sent last)
+	 * <LI/> 3 : shortest remaining TTL (messages that expire first are sent
+	 * first)
+	 * <LI/> 4 : smallest first (smallest messages are sent first)
+	 * <LI/> 5 : freshest destination encounter (messages whose destination
+	 * this host has met most recently are sent first; only for routers that
+	 * keep an encounter history, others use FIFO order)
 	 * </UL>
+	 * Except for the random mode, the order is maintained as messages are
+	 * added to and removed from the buffer instead of being sorted on every
+	 * update.
 	 */ 
 	public static final String SEND_QUEUE_MODE_S = "sendQueue";
+	/**
+	 * Buffer drop policy -setting id ({@value}). This setting defines which
+	 * messages are dropped first when room is needed for new messages.
+	 * The policy is applied only by {@link EASERouter} (and its subclasses),
+	 * which drops messages in {@link #getMessagesInDropOrder()} order;
+	 * the other routers use the simulator's ActiveRouter, which always
+	 * drops the least recently received message.
+	 * Valid values are<BR>
+	 * <UL>
+	 * <LI/> 1 : drop oldest (least recently received messages are dropped
+	 * first; default option)
+	 * <LI/> 2 : drop largest (largest messages are dropped first)
+	 * <LI/> 3 : drop closest to TTL (messages that expire first are dropped
+	 * first)
+	 * </UL>
+	 */
+	public static final String DROP_POLICY_S = "dropPolicy";
+	/**
+	 * Delivered messages set -setting id ({@value}). This setting defines
+	 * how the IDs of the messages delivered to the host are remembered.
+	 * Valid values are<BR>
+	 * <UL>
+	 * <LI/> 1 : exact (hashes of all the IDs are kept; default option)
+	 * <LI/> 2 : bounded (constant size Bloom filters; see 
+	 * {@link #DELIVERED_CAPACITY_S})
+	 * </UL>
+	 */
+	public static final String DELIVERED_SET_S = "deliveredSet";
+	/** Number of IDs in one generation of the bounded delivered messages
+	 * set -setting id ({@value}). Default is 10000. */
+	public static final String DELIVERED_CAPACITY_S = "deliveredCapacity";
+	/** Keep delivered messages -setting id ({@value}). If true, the 
+	 * delivered messages are kept for the routing info. Default is false. */
+	public static final String KEEP_DELIVERED_S = "keepDeliveredMessages";
+	/** Maximum number of items listed of each list of the routing info 
+	 * -setting id ({@value}). The rest of a longer list is left out; 0 lists
+	 * all the items. Default is 10000. */
+	public static final String ROUTING_INFO_ITEMS_S = "routingInfoItems";
 	
 	/** Setting value for random queue mode */
 	public static final int Q_MODE_RANDOM = 1;
 	/** Setting value for FIFO queue mode */
 	public static final int Q_MODE_FIFO = 2;
+	/** Setting value for shortest remaining TTL queue mode */
+	public static final int Q_MODE_SHORTEST_TTL = 3;
+	/** Setting value for smallest first queue mode */
+	public static final int Q_MODE_SMALLEST_FIRST = 4;
+	/** Setting value for freshest destination encounter queue mode */
+	public static final int Q_MODE_FRESHEST_ENCOUNTER = 5;
 	
-	/** Receive return value for OK */
-	public static final int RCV_OK = 0;
-	/** Receive return value for busy receiver */
-	public static final int TRY_LATER_BUSY = 1;
-	/** Receive return value for an old (already received) message */
-	public static final int DENIED_OLD = -1;
-	/** Receive return value for not enough space in the buffer for the msg */
+	/** Setting value for drop oldest policy */
+	public static final int DROP_OLDEST = 1;
+	/** Setting value for drop largest policy */
+	public static final int DROP_LARGEST = 2;
+	/** Setting value for drop closest to TTL policy */
+	public static final int DROP_CLOSEST_TO_TTL = 3;
+	
+	/** Receive return value for OK */
+	public static final int RCV_OK = 0;
+	/** Receive return value for busy receiver */
+	public static final int TRY_LATER_BUSY = 1;
+	/** Receive return value for an old (already received) message */
+	public static final int DENIED_OLD = -1;
+	/** Receive return value for not enough space in the buffer for the msg */
 	public static final int DENIED_NO_SPACE = -2;
 	/** Receive return value for messages whose TTL has expired */
 	public static final int DENIED_TTL = -3;
 	/** Receive return value for unspecified reason */
 	public static final int DENIED_UNSPECIFIED = -999;
-	
-	protected List<MessageListener> mListeners;
-	/** The messages being transferred with msgID_hostName keys */
-	private HashMap<String, Message> incomingMessages;
-	/** The messages this router is carrying */
-	private HashMap<String, Message> messages; 
-	/** The messages this router has received as the final recipient */
-	protected HashMap<String, Message> deliveredMessages;
-	/** Host where this router belongs to */
-	private DTNHost host;
-	/** size of the buffer */
-	private int bufferSize;
-	/** TTL for all messages */
+	
+	protected List<MessageListener> mListeners;
+	/** The messages being transferred, by sender host and message ID */
+	private HashMap<DTNHost, HashMap<String, Message>> incomingMessages;
+	/** Number of messages in the incoming messages buffer */
+	private int nrofIncomingMessages;
+	/** The messages this router is carrying */
+	private HashMap<String, Message> messages; 
+	/** IDs of the messages this router has received as the final 
+	 * recipient */
+	private DeliveredSet deliveredIds;
+	/** The messages this router has received as the final recipient (null
+	 * unless {@link #KEEP_DELIVERED_S} is set) */
+	protected HashMap<String, Message> deliveredMessages;
+	/** Host where this router belongs to */
+	private DTNHost host;
+	/** size of the buffer */
+	private int bufferSize;
+	/** Sum of the sizes of the messages in the buffer */
+	private int bufferOccupancy;
+	/** The buffered messages in the order they should be dropped */
+	private MessageOrder dropOrder;
+	/** Buffer drop policy */
+	private int dropPolicy;
+	/** TTL for all messages */
 	protected int msgTtl;
+	/** The buffered messages keyed on their expiry times */
+	private ExpiryWheel expiryWheel;
+	/** Reused list of the messages taken from the expiry wheel */
+	private ArrayList<Message> expiredMessages;
+	/** Delivered messages set mode (1 = exact, 2 = bounded) */
+	private int deliveredSetMode;
+	private int deliveredCapacity;
+	private boolean keepDelivered;
+	/** Maximum number of items listed of a routing info list (0 = all) */
+	private int routingInfoItems;
 	/** Queue mode for sending messages */
 	private int sendQueueMode;
-
-	/**
-	 * Constructor. Creates a new message router based on the settings in
-	 * the given Settings object. Size of the message buffer is read from
-	 * {@link #B_SIZE_S} setting. Default value is Integer.MAX_VALUE.
-	 * @param s The settings object
-	 */
-	public MessageRouter(Settings s) {
-		this.bufferSize = Integer.MAX_VALUE; // defaults to rather large buffer	
-		this.msgTtl = Message.INFINITE_TTL;
-					
-		if (s.contains(B_SIZE_S)) {
-			this.bufferSize = s.getInt(B_SIZE_S);
-		}
-		if (s.contains(MSG_TTL_S)) {
-			this.msgTtl = s.getInt(MSG_TTL_S);
+	/** The buffered messages in the sending queue order (null in the
+	 * random queue mode) */
+	private MessageOrder sendOrder;
+	/** Recorder of the routing decisions */
+	private RoutingTrace trace;
+	/** Random number generator for the random queue mode; reseeded for
+	 * every sort so the order is the same as with a new generator */
+	private Random queueRng;
+
+	/**
+	 * Constructor. Creates a new message router based on the settings in
+	 * the given Settings object. Size of the message buffer is read from
+	 * {@link #B_SIZE_S} setting. Default value is Integer.MAX_VALUE.
+	 * @param s The settings object
+	 */
+	public MessageRouter(Settings s) {
+		this.bufferSize = Integer.MAX_VALUE; // defaults to rather large buffer	
+		this.msgTtl = Message.INFINITE_TTL;
+					
+		if (s.contains(B_SIZE_S)) {
+			this.bufferSize = s.getInt(B_SIZE_S);
+		}
+		if (s.contains(MSG_TTL_S)) {
+			this.msgTtl = s.getInt(MSG_TTL_S);
 		}
 		if (s.contains(SEND_QUEUE_MODE_S)) {
 			this.sendQueueMode = s.getInt(SEND_QUEUE_MODE_S);
-			if (sendQueueMode < 1 || sendQueueMode > 2) {
+			if (sendQueueMode < Q_MODE_RANDOM || 
+					sendQueueMode > Q_MODE_FRESHEST_ENCOUNTER) {
 				throw new SettingsError("Invalid value for " + 
 						s.getFullPropertyName(SEND_QUEUE_MODE_S));
 			}
@@ -97,312 +189,585 @@ public abstract class MessageRouter {
 		else {
 			sendQueueMode = Q_MODE_RANDOM;
 		}
-	}
-	
-	/**
-	 * Initializes the router; i.e. sets the host this router is in and
-	 * message listeners that need to be informed about message related
-	 * events etc.
-	 * @param host The host this router is in
-	 * @param mListeners The message listeners
-	 */
-	public void init(DTNHost host, List<MessageListener> mListeners) {
-		this.incomingMessages = new HashMap<String, Message>();
-		this.messages = new HashMap<String, Message>();
-		this.deliveredMessages = new HashMap<String, Message>();
-		this.mListeners = mListeners;
-		this.host = host;
-	}
-	
-	/**
-	 * Copy-constructor.
-	 * @param r Router to copy the settings from.
-	 */
-	protected MessageRouter(MessageRouter r) {
-		this.bufferSize = r.bufferSize;
+		if (s.contains(DROP_POLICY_S)) {
+			this.dropPolicy = s.getInt(DROP_POLICY_S);
+			if (dropPolicy < 1 || dropPolicy > 3) {
+				throw new SettingsError("Invalid value for " + 
+						s.getFullPropertyName(DROP_POLICY_S));
+			}
+		}
+		else {
+			dropPolicy = DROP_OLDEST;
+		}
+		this.deliveredSetMode = 1;
+		if (s.contains(DELIVERED_SET_S)) {
+			this.deliveredSetMode = s.getInt(DELIVERED_SET_S);
+			if (deliveredSetMode < 1 || deliveredSetMode > 2) {
+				throw new SettingsError("Invalid value for " + 
+						s.getFullPropertyName(DELIVERED_SET_S));
+			}
+		}
+		this.deliveredCapacity = 10000;
+		if (s.contains(DELIVERED_CAPACITY_S)) {
+			this.deliveredCapacity = s.getInt(DELIVERED_CAPACITY_S);
+			if (deliveredCapacity < 1) {
+				throw new SettingsError("Invalid value for " + 
+						s.getFullPropertyName(DELIVERED_CAPACITY_S));
+			}
+		}
+		if (s.contains(KEEP_DELIVERED_S)) {
+			this.keepDelivered = s.getBoolean(KEEP_DELIVERED_S);
+		}
+		this.routingInfoItems = 10000;
+		if (s.contains(ROUTING_INFO_ITEMS_S)) {
+			this.routingInfoItems = s.getInt(ROUTING_INFO_ITEMS_S);
+			if (routingInfoItems < 0) {
+				throw new SettingsError("Invalid value for " + 
+						s.getFullPropertyName(ROUTING_INFO_ITEMS_S));
+			}
+		}
+	}
+	
+	/**
+	 * Initializes the router; i.e. sets the host this router is in and
+	 * message listeners that need to be informed about message related
+	 * events etc.
+	 * @param host The host this router is in
+	 * @param mListeners The message listeners
+	 */
+	public void init(DTNHost host, List<MessageListener> mListeners) {
+		this.incomingMessages = new HashMap<DTNHost, HashMap<String, Message>>();
+		this.nrofIncomingMessages = 0;
+		this.messages = new HashMap<String, Message>();
+		if (this.deliveredSetMode == 2) {
+			this.deliveredIds = new DeliveredSet(this.deliveredCapacity);
+		}
+		else {
+			this.deliveredIds = new DeliveredSet();
+		}
+		if (this.keepDelivered) {
+			this.deliveredMessages = new HashMap<String, Message>();
+		}
+		this.bufferOccupancy = 0;
+		this.dropOrder = new MessageOrder();
+		this.expiryWheel = new ExpiryWheel();
+		this.expiredMessages = new ArrayList<Message>();
+		if (this.sendQueueMode != Q_MODE_RANDOM) {
+			this.sendOrder = new MessageOrder();
+		}
+		this.queueRng = new Random();
+		this.trace = RoutingTrace.getInstance();
+		this.mListeners = mListeners;
+		this.host = host;
+	}
+	
+	/**
+	 * Copy-constructor.
+	 * @param r Router to copy the settings from.
+	 */
+	protected MessageRouter(MessageRouter r) {
+		this.bufferSize = r.bufferSize;
 		this.msgTtl = r.msgTtl;
 		this.sendQueueMode = r.sendQueueMode;
-	}
-	
-	/**
-	 * Updates router.
-	 * This method should be called (at least once) on every simulation
-	 * interval to update the status of transfer(s). 
-	 */
-	public abstract void update();
-	
-	/**
-	 * Informs the router about change in connections state.
-	 * @param con The connection that changed
-	 */
-	public abstract void changedConnection(Connection con);	
-	
-	/**
-	 * Returns a message by ID.
-	 * @param id ID of the message
-	 * @return The message
-	 */
-	protected Message getMessage(String id) {
-		return this.messages.get(id);
-	}
-	
-	/**
-	 * Checks if this router has a message with certain id buffered.
-	 * @param id Identifier of the message
-	 * @return True if the router has message with this id, false if not
-	 */
-	protected boolean hasMessage(String id) {
-		return this.messages.containsKey(id);
-	}
-	
-	/**
+		this.dropPolicy = r.dropPolicy;
+		this.deliveredSetMode = r.deliveredSetMode;
+		this.deliveredCapacity = r.deliveredCapacity;
+		this.keepDelivered = r.keepDelivered;
+		this.routingInfoItems = r.routingInfoItems;
+	}
+	
+	/**
+	 * Updates router.
+	 * This method should be called (at least once) on every simulation
+	 * interval to update the status of transfer(s). 
+	 */
+	public abstract void update();
+	
+	/**
+	 * Informs the router about change in connections state.
+	 * @param con The connection that changed
+	 */
+	public abstract void changedConnection(Connection con);	
+	
+	/**
+	 * Returns a message by ID.
+	 * @param id ID of the message
+	 * @return The message
+	 */
+	protected Message getMessage(String id) {
+		return this.messages.get(id);
+	}
+	
+	/**
+	 * Checks if this router has a message with certain id buffered.
+	 * @param id Identifier of the message
+	 * @return True if the router has message with this id, false if not
+	 */
+	protected boolean hasMessage(String id) {
+		return this.messages.containsKey(id);
+	}
+	
+	/**
 	 * Returns true if a full message with same ID as the given message has been
 	 * received by this host as the <strong>final</strong> recipient 
-	 * (at least once).
-	 * @param m message we're interested of
+	 * (at least once).
+	 * @param m message we're interested of
 	 * @return true if a message with the same ID has been received by 
-	 * this host as the final recipient.
-	 */
-	protected boolean isDeliveredMessage(Message m) {
-		return (this.deliveredMessages.containsKey(m.getId()));
-	}
-	
-	/**
-	 * Returns a reference to the messages of this router in collection
-	 * @return a reference to the messages of this router in collection
-	 */
-	public Collection<Message> getMessageCollection() {
-		return this.messages.values();
-	}
-	
-	/**
-	 * Returns the number of messages this router has
-	 * @return How many messages this router has
-	 */
-	public int getNrofMessages() {
-		return this.messages.size();
-	}
-	
-	/**
-	 * Returns the size of the message buffer.
-	 * @return The size or Integer.MAX_VALUE if the size isn't defined.
-	 */
-	public int getBufferSize() {
-		return this.bufferSize;
-	}
-	
-	/**
-	 * Returns the amount of free space in the buffer. May return a negative
-	 * value if there are more messages in the buffer than should fit there
-	 * (because of creating new messages).
-	 * @return The amount of free space (Integer.MAX_VALUE if the buffer
-	 * size isn't defined)
-	 */
-	public int getFreeBufferSize() {
-		int occupancy = 0;
-		
-		if (this.getBufferSize() == Integer.MAX_VALUE) {
-			return Integer.MAX_VALUE;
-		}
-		
-		for (Message m : getMessageCollection()) {
-			occupancy += m.getSize();
-		}
-		
-		return this.getBufferSize() - occupancy;
-	}
-	
-	/**
-	 * Returns the host this router is in
-	 * @return The host object
-	 */
-	protected DTNHost getHost() {
-		return this.host;
-	}
-	
-	/**
-	 * Start sending a message to another host.
-	 * @param id Id of the message to send
-	 * @param to The host to send the message to
-	 */
-	public void sendMessage(String id, DTNHost to) {
-		Message m = getMessage(id);
-		Message m2;
-		if (m == null) throw new SimError("no message for id " +
-				id + " to send at " + this.host);
- 
-		m2 = m.replicate();	// send a replicate of the message
+	 * this host as the final recipient.
+	 */
+	protected boolean isDeliveredMessage(Message m) {
+		return this.deliveredIds.contains(m.getId());
+	}
+	
+	/**
+	 * Records a message as delivered to this host. The message itself is
+	 * kept only if {@link #KEEP_DELIVERED_S} is set.
+	 * @param m The delivered message
+	 */
+	protected void addDeliveredMessage(Message m) {
+		this.deliveredIds.add(m.getId());
+		if (this.deliveredMessages != null) {
+			this.deliveredMessages.put(m.getId(), m);
+		}
+	}
+	
+	/**
+	 * Returns the set of the IDs of the messages delivered to this host
+	 * @return The delivered set
+	 */
+	DeliveredSet getDeliveredSet() {
+		return this.deliveredIds;
+	}
+	
+	/**
+	 * Replaces the set of the IDs of the messages delivered to this host
+	 * (when the router is restored from a {@link RouterSnapshot})
+	 * @param deliveredIds The new delivered set
+	 */
+	void setDeliveredSet(DeliveredSet deliveredIds) {
+		this.deliveredIds = deliveredIds;
+	}
+	
+	/**
+	 * Returns a reference to the messages of this router in collection
+	 * @return a reference to the messages of this router in collection
+	 */
+	public Collection<Message> getMessageCollection() {
+		return this.messages.values();
+	}
+	
+	/**
+	 * Returns the number of messages this router has
+	 * @return How many messages this router has
+	 */
+	public int getNrofMessages() {
+		return this.messages.size();
+	}
+	
+	/**
+	 * Returns the size of the message buffer.
+	 * @return The size or Integer.MAX_VALUE if the size isn't defined.
+	 */
+	public int getBufferSize() {
+		return this.bufferSize;
+	}
+	
+	/**
+	 * Returns the amount of free space in the buffer. May return a negative
+	 * value if there are more messages in the buffer than should fit there
+	 * (because of creating new messages).
+	 * @return The amount of free space (Integer.MAX_VALUE if the buffer
+	 * size isn't defined)
+	 */
+	public int getFreeBufferSize() {
+		if (this.getBufferSize() == Integer.MAX_VALUE) {
+			return Integer.MAX_VALUE;
+		}
+		
+		return this.getBufferSize() - this.bufferOccupancy;
+	}
+	
+	/**
+	 * Returns the sum of the sizes of the messages in the buffer
+	 * @return The buffer occupancy in bytes
+	 */
+	public int getBufferOccupancy() {
+		return this.bufferOccupancy;
+	}
+	
+	/**
+	 * Returns the buffered messages in the order they should be dropped
+	 * according to the buffer drop policy (see {@link #DROP_POLICY_S}).
+	 * Routers that honour the policy drop messages in this order.
+	 * The returned ordering is maintained as messages are added and removed
+	 * and must not be modified by the caller.
+	 * @return The messages in drop order
+	 */
+	protected Iterable<Message> getMessagesInDropOrder() {
+		return this.dropOrder;
+	}
+	
+	/**
+	 * Returns the sending queue mode of this router
+	 * @return The queue mode (see {@link #SEND_QUEUE_MODE_S})
+	 */
+	protected int getSendQueueMode() {
+		return this.sendQueueMode;
+	}
+	
+	/**
+	 * Adds the buffered messages to the given list in the order defined by
+	 * the sending queue mode. In the random mode the messages are shuffled;
+	 * in the other modes they are read from the maintained queue order
+	 * without sorting. No objects are created if the list has room for
+	 * the messages.
+	 * @param list The list to add the messages to
+	 * @return The given list
+	 */
+	@SuppressWarnings(value = "unchecked")
+	protected List<Message> getMessagesInQueueOrder(List<Message> list) {
+		if (this.sendOrder == null) {
+			/* the drop order has all the messages and, unlike the buffer 
+			 * map, can be read without an iterator */
+			this.dropOrder.addAllTo(list);
+			return sortByQueueMode(list);
+		}
+		this.sendOrder.addAllTo(list);
+		return list;
+	}
+	
+	/**
+	 * Returns the key of a message in the sending queue. Messages with
+	 * smaller keys are sent first. Routers that keep a history of their
+	 * encounters should override this for the
+	 * {@link #Q_MODE_FRESHEST_ENCOUNTER} mode and call
+	 * {@link #updateQueueKey(Message)} when the history changes.
+	 * @param m The message
+	 * @return The queue key of the message
+	 */
+	protected double getQueueKey(Message m) {
+		switch (sendQueueMode) {
+		case Q_MODE_SHORTEST_TTL:
+			return getExpiryTime(m);
+		case Q_MODE_SMALLEST_FIRST:
+			return m.getSize();
+		case Q_MODE_FIFO:
+		case Q_MODE_FRESHEST_ENCOUNTER:
+			return m.getReceiveTime();
+		default:
+			throw new SimError("No queue keys for queue mode " + 
+					sendQueueMode);
+		}
+	}
+	
+	/**
+	 * Moves a buffered message to its place in the sending queue after its
+	 * queue key has changed. Does nothing if the message is not in the
+	 * buffer or if the queue order isn't maintained (random mode).
+	 * @param m The message whose key has changed
+	 */
+	protected void updateQueueKey(Message m) {
+		if (this.sendOrder != null && this.messages.get(m.getId()) == m) {
+			this.sendOrder.add(m, getQueueKey(m));
+		}
+	}
+	
+	/**
+	 * Returns the key of a message in the drop order. Messages with
+	 * smaller keys are dropped first.
+	 * @param m The message
+	 * @return The drop key of the message
+	 */
+	private double getDropKey(Message m) {
+		switch (dropPolicy) {
+		case DROP_OLDEST:
+			return m.getReceiveTime();
+		case DROP_LARGEST:
+			return -m.getSize();
+		case DROP_CLOSEST_TO_TTL:
+			return getExpiryTime(m);
+		default:
+			throw new SimError("Unknown drop policy " + dropPolicy);
+		}
+	}
+	
+	/**
+	 * Returns the simulation time when the message's TTL expires, i.e.,
+	 * after which {@link Message#getTtl()} returns zero
+	 * @param m The message
+	 * @return The expiry time or Double.MAX_VALUE if the message never
+	 * expires
+	 */
+	protected double getExpiryTime(Message m) {
+		int ttl = m.getTtl();
+		if (ttl == Message.INFINITE_TTL || ttl == Integer.MAX_VALUE) {
+			return Double.MAX_VALUE;
+		}
+		/* the remaining TTL is rounded down to whole minutes, so the 
+		 * initial TTL is the remaining TTL plus the started minutes of age */
+		double age = SimClock.getTime() - m.getCreationTime();
+		return m.getCreationTime() + (ttl + Math.ceil(age / 60) - 1) * 60;
+	}
+	
+	/**
+	 * Drops the buffered messages whose TTL has expired. Only the messages
+	 * that have come due in the expiry wheel are looked at, so the cost
+	 * depends on the number of expired messages and not on the number of
+	 * buffered messages. Listeners are informed with 
+	 * {@link MessageListener#messageDeleted(Message, DTNHost, boolean)}.
+	 * @return The number of dropped messages
+	 */
+	protected int deleteExpiredMessages() {
+		this.expiryWheel.advance(SimClock.getTime(), this.expiredMessages);
+		int nrofDropped = 0;
+		for (int i = 0, n = this.expiredMessages.size(); i < n; i++) {
+			Message m = this.expiredMessages.get(i);
+			if (m.getTtl() <= 0) {
+				deleteMessage(m.getId(), true);
+				nrofDropped++;
+			}
+			else { /* not yet expired (e.g. the TTL was changed) */
+				this.expiryWheel.add(m, getExpiryTime(m));
+			}
+		}
+		this.expiredMessages.clear();
+		return nrofDropped;
+	}
+	
+	/**
+	 * Returns the recorder routing decisions should be written to
+	 * @return The routing trace recorder
+	 */
+	protected RoutingTrace getRoutingTrace() {
+		return this.trace;
+	}
+	
+	/**
+	 * Returns the host this router is in
+	 * @return The host object
+	 */
+	protected DTNHost getHost() {
+		return this.host;
+	}
+	
+	/**
+	 * Start sending a message to another host.
+	 * @param id Id of the message to send
+	 * @param to The host to send the message to
+	 */
+	public void sendMessage(String id, DTNHost to) {
+		Message m = getMessage(id);
+		Message m2;
+		if (m == null) throw new SimError("no message for id " +
+				id + " to send at " + this.host);
+ 
+		m2 = m.replicate();	// send a replicate of the message
 		to.receiveMessage(m2, this.host);
 		
-		if (m.getFrom() == getHost())
-			System.out.println("Sou eu");
-		else
-			System.out.println("Não sou eu");
-	}
-	
-	/**
-	 * Requests for deliverable message from this router to be sent trough a
-	 * connection.
-	 * @param con The connection to send the messages trough
-	 * @return True if this router started a transfer, false if not
-	 */
-	public boolean requestDeliverableMessages(Connection con) {
-		return false; // default behavior is to not start -- subclasses override
-	}
-	
-	/**
-	 * Try to start receiving a message from another host.
-	 * @param m Message to put in the receiving buffer
-	 * @param from Who the message is from
-	 * @return Value zero if the node accepted the message (RCV_OK), value less
-	 * than zero if node rejected the message (e.g. DENIED_OLD), value bigger
-	 * than zero if the other node should try later (e.g. TRY_LATER_BUSY).
-	 */
-	public int receiveMessage(Message m, DTNHost from) {
-		this.putToIncomingBuffer(m, from);
-		
-		for (MessageListener ml : this.mListeners) {
-			ml.messageTransferStarted(m, from, getHost());
-		}
-		
-		return RCV_OK; // superclass always accepts messages
-	}
-	
-	/**
-	 * This method should be called (on the receiving host) after a message
-	 * was successfully transferred. The transferred message is put to the
-	 * message buffer unless this host is the final recipient of the message.
-	 * @param id Id of the transferred message
-	 * @param from Host the message was from (previous hop)
-	 * @return The message that this host received
-	 */
-	public Message messageTransferred(String id, DTNHost from) {
-		Message incoming = removeFromIncomingBuffer(id, from);
-		boolean isFinalRecipient;
+		this.trace.recordSend(m, this.host, to);
+	}
+	
+	/**
+	 * Requests for deliverable message from this router to be sent trough a
+	 * connection.
+	 * @param con The connection to send the messages trough
+	 * @return True if this router started a transfer, false if not
+	 */
+	public boolean requestDeliverableMessages(Connection con) {
+		return false; // default behavior is to not start -- subclasses override
+	}
+	
+	/**
+	 * Try to start receiving a message from another host.
+	 * @param m Message to put in the receiving buffer
+	 * @param from Who the message is from
+	 * @return Value zero if the node accepted the message (RCV_OK), value less
+	 * than zero if node rejected the message (e.g. DENIED_OLD), value bigger
+	 * than zero if the other node should try later (e.g. TRY_LATER_BUSY).
+	 */
+	public int receiveMessage(Message m, DTNHost from) {
+		this.putToIncomingBuffer(m, from);
+		
+		for (MessageListener ml : this.mListeners) {
+			ml.messageTransferStarted(m, from, getHost());
+		}
+		
+		return RCV_OK; // superclass always accepts messages
+	}
+	
+	/**
+	 * This method should be called (on the receiving host) after a message
+	 * was successfully transferred. The transferred message is put to the
+	 * message buffer unless this host is the final recipient of the message.
+	 * @param id Id of the transferred message
+	 * @param from Host the message was from (previous hop)
+	 * @return The message that this host received
+	 */
+	public Message messageTransferred(String id, DTNHost from) {
+		Message incoming = removeFromIncomingBuffer(id, from);
+		boolean isFinalRecipient;
 		boolean isFirstDelivery; // is this first delivered instance of the msg
-		
-		if (incoming == null) {
-			throw new SimError("No message with ID " + id + " in the incoming "+
-					"buffer of " + this.host);
-		}
-		
-		incoming.setReceiveTime(SimClock.getTime());
-		
-		isFinalRecipient = incoming.getTo() == this.host;
+		
+		if (incoming == null) {
+			throw new SimError("No message with ID " + id + " in the incoming "+
+					"buffer of " + this.host);
+		}
+		
+		incoming.setReceiveTime(SimClock.getTime());
+		
+		isFinalRecipient = incoming.getTo() == this.host;
 		isFirstDelivery = isFinalRecipient&& !isDeliveredMessage(incoming);
-		
-		if (!isFinalRecipient) { // not the final recipient -> put to buffer
+		
+		if (!isFinalRecipient) { // not the final recipient -> put to buffer
 			addToMessages(incoming, false);
-		}
+		}
 		else if (isFirstDelivery) {
-			this.deliveredMessages.put(id, incoming);
-		}
-		
-		for (MessageListener ml : this.mListeners) {
-			ml.messageTransferred(incoming, from, this.host, isFirstDelivery);
-		}
-		
-		return incoming;
-	}
-	
-	/**
-	 * Puts a message to incoming messages buffer. Two messages with the
-	 * same ID are distinguished by the from host.
-	 * @param m The message to put
-	 * @param from Who the message was from (previous hop).
-	 */
-	protected void putToIncomingBuffer(Message m, DTNHost from) {
-		this.incomingMessages.put(m.getId() + "_" + from.toString(), m);
-	}
-	
-	/**
-	 * Removes and returns a message with a certain ID from the incoming 
-	 * messages buffer or null if such message wasn't found. 
-	 * @param id ID of the message
-	 * @param from The host that sent this message (previous hop)
-	 * @return The found message or null if such message wasn't found
-	 */
-	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
-		return this.incomingMessages.remove(id + "_" + from.toString());
-	}
-	
-	/**
-	 * Adds a message to the message buffer and informs message listeners
-	 * about new message (if requested).
-	 * @param m The message to add
-	 * @param newMessage If true, message listeners are informed about a new
-	 * message, if false, nothing is informed.
-	 */
-	protected void addToMessages(Message m, boolean newMessage) {
-		this.messages.put(m.getId(), m);
-		
-		if (newMessage) {
-			for (MessageListener ml : this.mListeners) {
-				ml.newMessage(m);
-			}
-		}
-	}
-	
-	/**
-	 * Removes and returns a message from the message buffer.
-	 * @param id Identifier of the message to remove
-	 * @return The removed message or null if message for the ID wasn't found
-	 */
-	protected Message removeFromMessages(String id) {
-		Message m = this.messages.remove(id);
-		return m;
-	}
-	
-	/**
-	 * This method should be called (on the receiving host) when a message 
-	 * transfer was aborted.
-	 * @param id Id of the message that was being transferred
+			addDeliveredMessage(incoming);
+		}
+		
+		for (MessageListener ml : this.mListeners) {
+			ml.messageTransferred(incoming, from, this.host, isFirstDelivery);
+		}
+		
+		return incoming;
+	}
+	
+	/**
+	 * Puts a message to incoming messages buffer. Two messages with the
+	 * same ID are distinguished by the from host.
+	 * @param m The message to put
+	 * @param from Who the message was from (previous hop).
+	 */
+	protected void putToIncomingBuffer(Message m, DTNHost from) {
+		HashMap<String, Message> fromHost = this.incomingMessages.get(from);
+		if (fromHost == null) {
+			fromHost = new HashMap<String, Message>(4);
+			this.incomingMessages.put(from, fromHost);
+		}
+		if (fromHost.put(m.getId(), m) == null) {
+			this.nrofIncomingMessages++;
+		}
+	}
+	
+	/**
+	 * Removes and returns a message with a certain ID from the incoming 
+	 * messages buffer or null if such message wasn't found. The messages
+	 * of a sender are forgotten when its last message is removed, so the
+	 * buffer doesn't grow with the number of hosts ever received from.
+	 * @param id ID of the message
+	 * @param from The host that sent this message (previous hop)
+	 * @return The found message or null if such message wasn't found
+	 */
+	protected Message removeFromIncomingBuffer(String id, DTNHost from) {
+		HashMap<String, Message> fromHost = this.incomingMessages.get(from);
+		if (fromHost == null) {
+			return null;
+		}
+		
+		Message m = fromHost.remove(id);
+		if (m != null) {
+			this.nrofIncomingMessages--;
+			if (fromHost.isEmpty()) {
+				this.incomingMessages.remove(from);
+			}
+		}
+		return m;
+	}
+	
+	/**
+	 * Adds a message to the message buffer and informs message listeners
+	 * about new message (if requested).
+	 * @param m The message to add
+	 * @param newMessage If true, message listeners are informed about a new
+	 * message, if false, nothing is informed.
+	 */
+	protected void addToMessages(Message m, boolean newMessage) {
+		Message old = this.messages.put(m.getId(), m);
+		if (old != null) {
+			this.bufferOccupancy -= old.getSize();
+		}
+		this.bufferOccupancy += m.getSize();
+		this.dropOrder.add(m, getDropKey(m));
+		this.expiryWheel.add(m, getExpiryTime(m));
+		if (this.sendOrder != null) {
+			this.sendOrder.add(m, getQueueKey(m));
+		}
+		
+		if (newMessage) {
+			for (MessageListener ml : this.mListeners) {
+				ml.newMessage(m);
+			}
+		}
+	}
+	
+	/**
+	 * Removes and returns a message from the message buffer.
+	 * @param id Identifier of the message to remove
+	 * @return The removed message or null if message for the ID wasn't found
+	 */
+	protected Message removeFromMessages(String id) {
+		Message m = this.messages.remove(id);
+		if (m != null) {
+			this.bufferOccupancy -= m.getSize();
+			this.dropOrder.remove(id);
+			this.expiryWheel.remove(id);
+			if (this.sendOrder != null) {
+				this.sendOrder.remove(id);
+			}
+		}
+		return m;
+	}
+	
+	/**
+	 * This method should be called (on the receiving host) when a message 
+	 * transfer was aborted.
+	 * @param id Id of the message that was being transferred
 	 * @param from Host the message was from (previous hop)
 	 * @param bytesRemaining Nrof bytes that were left before the transfer
-	 * would have been ready; or -1 if the number of bytes is not known
-	 */
-	public void messageAborted(String id, DTNHost from, int bytesRemaining) {
-		Message incoming = removeFromIncomingBuffer(id, from);
-		if (incoming == null) {
-			throw new SimError("No incoming message for id " + id + 
-					" to abort in " + this.host);
-		}		
-		
-		for (MessageListener ml : this.mListeners) {
-			ml.messageTransferAborted(incoming, from, this.host);
-		}
-	}
-	
-	/**
-	 * Creates a new message to the router.
+	 * would have been ready; or -1 if the number of bytes is not known
+	 */
+	public void messageAborted(String id, DTNHost from, int bytesRemaining) {
+		Message incoming = removeFromIncomingBuffer(id, from);
+		if (incoming == null) {
+			throw new SimError("No incoming message for id " + id + 
+					" to abort in " + this.host);
+		}		
+		
+		for (MessageListener ml : this.mListeners) {
+			ml.messageTransferAborted(incoming, from, this.host);
+		}
+	}
+	
+	/**
+	 * Creates a new message to the router.
 	 * @param m The message to create
-	 * @return True if the creation succeeded, false if not (e.g.
-	 * the message was too big for the buffer)
-	 */
+	 * @return True if the creation succeeded, false if not (e.g.
+	 * the message was too big for the buffer)
+	 */
 	public boolean createNewMessage(Message m) {
-		m.setTtl(this.msgTtl);
+		m.setTtl(this.msgTtl);
 		addToMessages(m, true);
-		
-		return true;
-	}
-	
-	/**
+		
+		return true;
+	}
+	
+	/**
 	 * Deletes a message from the buffer and informs message listeners
-	 * about the event
-	 * @param id Identifier of the message to delete
-	 * @param drop If the message is dropped (e.g. because of full buffer) this 
-	 * should be set to true. False value indicates e.g. remove of message
-	 * because it was delivered to final destination.  
-	 */
-	public void deleteMessage(String id, boolean drop) {
-		Message removed = removeFromMessages(id); 
-		if (removed == null) throw new SimError("no message for id " +
-				id + " to remove at " + this.host);
-		
-		for (MessageListener ml : this.mListeners) {
-			ml.messageDeleted(removed, this.host, drop);
-		}
-	}
+	 * about the event
+	 * @param id Identifier of the message to delete
+	 * @param drop If the message is dropped (e.g. because of full buffer) this 
+	 * should be set to true. False value indicates e.g. remove of message
+	 * because it was delivered to final destination.  
+	 */
+	public void deleteMessage(String id, boolean drop) {
+		Message removed = removeFromMessages(id); 
+		if (removed == null) throw new SimError("no message for id " +
+				id + " to remove at " + this.host);
+		
+		for (MessageListener ml : this.mListeners) {
+			ml.messageDeleted(removed, this.host, drop);
+		}
+	}
 	
 	/**
 	 * Sorts/shuffles the given list according to the current sending queue 
@@ -415,36 +780,24 @@ public abstract class MessageRouter {
 	protected List sortByQueueMode(List list) {
 		switch (sendQueueMode) {
 		case Q_MODE_RANDOM:
-			Collections.shuffle(list, new Random(SimClock.getIntTime()));
+			queueRng.setSeed(SimClock.getIntTime());
+			Collections.shuffle(list, queueRng);
 			break;
 		case Q_MODE_FIFO:
-			Collections.sort(list, 
-					new Comparator() {
-				/** Compares two tuples by their messages' receiving time */
-				public int compare(Object o1, Object o2) {
-					double diff;
-					Message m1, m2;
-					
-					if (o1 instanceof Tuple) {
-						m1 = ((Tuple<Message, Connection>)o1).getKey();
-						m2 = ((Tuple<Message, Connection>)o2).getKey();
-					}
-					else if (o1 instanceof Message) {
-						m1 = (Message)o1;
-						m2 = (Message)o2;
-					}
-					else {
-						throw new SimError("Invalid type of objects in " + 
-								"the list");
-					}
-					
-					diff = m1.getReceiveTime() - m2.getReceiveTime();
-					if (diff == 0) {
-						return 0;
-					}
-					return (diff < 0 ? -1 : 1);
-				}
-			});
+			Collections.sort(list, FIFO_COMPARATOR);
+			break;
+		case Q_MODE_SHORTEST_TTL:
+		case Q_MODE_SMALLEST_FIRST:
+		case Q_MODE_FRESHEST_ENCOUNTER:
+			if (!list.isEmpty() && list.get(0) instanceof Tuple) {
+				Collections.sort(list, this.tupleQueueKeyComparator);
+			}
+			else if (list.isEmpty() || list.get(0) instanceof Message) {
+				Collections.sort(list, this.queueKeyComparator);
+			}
+			else {
+				throw new SimError("Invalid type of objects in the list");
+			}
 			break;
 		/* add more queue modes here */
 		default:
@@ -454,6 +807,61 @@ public abstract class MessageRouter {
 		return list;
 	}
 
+	/**
+	 * Comparator for the FIFO queue mode. Compares two messages, or two 
+	 * tuples by their messages, by the receiving time.
+	 */
+	@SuppressWarnings(value = "unchecked")
+	private static final Comparator FIFO_COMPARATOR = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			double diff;
+			Message m1, m2;
+			
+			if (o1 instanceof Tuple) {
+				m1 = ((Tuple<Message, Connection>)o1).getKey();
+				m2 = ((Tuple<Message, Connection>)o2).getKey();
+			}
+			else if (o1 instanceof Message) {
+				m1 = (Message)o1;
+				m2 = (Message)o2;
+			}
+			else {
+				throw new SimError("Invalid type of objects in " + 
+						"the list");
+			}
+			
+			diff = m1.getReceiveTime() - m2.getReceiveTime();
+			if (diff == 0) {
+				return 0;
+			}
+			return (diff < 0 ? -1 : 1);
+		}
+	};
+	
+	/**
+	 * Comparator for the queue modes that order messages by their queue
+	 * keys (see {@link #getQueueKey(Message)}).
+	 */
+	private final Comparator<Message> queueKeyComparator = 
+			new Comparator<Message>() {
+		public int compare(Message m1, Message m2) {
+			return compareByQueueMode(m1, m2);
+		}
+	};
+	
+	/**
+	 * Comparator for the queue modes that order messages by their queue
+	 * keys; compares two tuples by their messages.
+	 */
+	private final Comparator<Tuple<Message, Connection>> 
+			tupleQueueKeyComparator = 
+			new Comparator<Tuple<Message, Connection>>() {
+		public int compare(Tuple<Message, Connection> t1,
+				Tuple<Message, Connection> t2) {
+			return compareByQueueMode(t1.getKey(), t2.getKey());
+		}
+	};
+	
 	/**
 	 * Gives the order of the two given messages as defined by the current
 	 * queue mode 
@@ -473,59 +881,101 @@ public abstract class MessageRouter {
 				return 0;
 			}
 			return (diff < 0 ? -1 : 1);
+		case Q_MODE_SHORTEST_TTL:
+		case Q_MODE_SMALLEST_FIRST:
+		case Q_MODE_FRESHEST_ENCOUNTER:
+			return Double.compare(getQueueKey(m1), getQueueKey(m2));
 		/* add more queue modes here */
 		default:
 			throw new SimError("Unknown queue mode " + sendQueueMode);
 		}
 	}
-	
-	/**
-	 * Returns routing information about this router.
-	 * @return The routing information.
-	 */
-	public RoutingInfo getRoutingInfo() {
-		RoutingInfo ri = new RoutingInfo(this);
-		RoutingInfo incoming = new RoutingInfo(this.incomingMessages.size() + 
-				" incoming message(s)");
-		RoutingInfo delivered = new RoutingInfo(this.deliveredMessages.size() +
-				" delivered message(s)");
-		
-		RoutingInfo cons = new RoutingInfo(host.getConnections().size() + 
-			" connection(s)");
-				
-		ri.addMoreInfo(incoming);
-		ri.addMoreInfo(delivered);
-		ri.addMoreInfo(cons);
-		
-		for (Message m : this.incomingMessages.values()) {
-			incoming.addMoreInfo(new RoutingInfo(m));
-		}
-		
-		for (Message m : this.deliveredMessages.values()) {
-			delivered.addMoreInfo(new RoutingInfo(m + " path:" + m.getHops()));
-		}
-		
-		for (Connection c : host.getConnections()) {
-			cons.addMoreInfo(new RoutingInfo(c));
-		}
-
-		return ri;
-	}
-	
-	/**
-	 * Creates a replicate of this router. The replicate has the same
-	 * settings as this router but empty buffers and routing tables.
-	 * @return The replicate
-	 */
-	public abstract MessageRouter replicate();
-	
-	/**
-	 * Returns a String presentation of this router
-	 * @return A String presentation of this router
-	 */
-	public String toString() {
-		return getClass().getSimpleName() + " of " + 
-			this.getHost().toString() + " with " + getNrofMessages() 
-			+ " messages";
-	}
-}
+	
+	/**
+	 * Returns the maximum number of items listed of each list of the
+	 * routing info
+	 * @return The maximum number of items or 0 if all are listed
+	 * @see #ROUTING_INFO_ITEMS_S
+	 */
+	protected int getRoutingInfoItems() {
+		return this.routingInfoItems;
+	}
+	
+	/**
+	 * Returns routing information about this router.
+	 * @return The routing information.
+	 */
+	public RoutingInfo getRoutingInfo() {
+		RoutingInfo ri = new RoutingInfo(this);
+		
+		/* the lists are collected and described only when expanded */
+		ri.addMoreInfo(new PagedRoutingInfo(this.nrofIncomingMessages + 
+				" incoming message(s)", 
+				this.routingInfoItems) {
+			private List<Message> messages;
+			protected int snapshot() {
+				this.messages = new ArrayList<Message>();
+				for (HashMap<String, Message> fromHost : 
+						incomingMessages.values()) {
+					this.messages.addAll(fromHost.values());
+				}
+				return this.messages.size();
+			}
+			protected RoutingInfo infoAt(int index) {
+				return new RoutingInfo(this.messages.get(index));
+			}
+		});
+		
+		ri.addMoreInfo(new PagedRoutingInfo(this.deliveredIds.size() +
+				" delivered message(s)", 
+				this.routingInfoItems) {
+			private List<Message> messages;
+			protected int snapshot() {
+				this.messages = deliveredMessages == null ? 
+						new ArrayList<Message>(0) : 
+						new ArrayList<Message>(deliveredMessages.values());
+				return this.messages.size();
+			}
+			protected RoutingInfo infoAt(int index) {
+				final Message m = this.messages.get(index);
+				return new LazyRoutingInfo() {
+					protected String describe() {
+						return m + " path:" + m.getHops();
+					}
+				};
+			}
+		});
+		
+		ri.addMoreInfo(new PagedRoutingInfo(host.getConnections().size() + 
+				" connection(s)", 
+				this.routingInfoItems) {
+			private List<Connection> cons;
+			protected int snapshot() {
+				this.cons = new ArrayList<Connection>(host.getConnections());
+				return this.cons.size();
+			}
+			protected RoutingInfo infoAt(int index) {
+				return new RoutingInfo(this.cons.get(index));
+			}
+		});
+
+		return ri;
+	}
+	
+	/**
+	 * Creates a replicate of this router. The replicate has the same
+	 * settings as this router but empty buffers and routing tables.
+	 * @return The replicate
+	 */
+	public abstract MessageRouter replicate();
+	
+	/**
+	 * Returns a String presentation of this router
+	 * @return A String presentation of this router
+	 */
+	public String toString() {
+		return getClass().getSimpleName() + " of " + 
+			this.getHost().toString() + " with " + getNrofMessages() 
+			+ " messages";
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+
+/**
+ * Spatial index of the neighbors of a router on the square lattice. Every
+ * neighbor is put to the lattice cell its lattice position falls in
+ * (cell (i,j) covers [i,i+1) x [j,j+1)). Nearest-neighbor queries search
+ * the cells in rings around the queried point and stop when the next ring
+ * can't be closer than the best neighbor found so far, so a router with
+ * hundreds of neighbors in many cells doesn't have to compare every one of
+ * them. Whether a cell has a neighbor is looked up from the cell's hash
+ * bucket in constant time. The grid is rebuilt on every update and reuses
+ * its arrays.
+ */
+public class NeighborGrid {
+	/** Return value for "no neighbor" */
+	public static final int NONE = -1;
+
+	/**
+	 * Decides which neighbors the queries may return
+	 */
+	public interface SlotFilter {
+		/**
+		 * Returns true if the neighbor can be returned
+		 * @param slot Slot of the neighbor
+		 * @return true if the neighbor is acceptable
+		 */
+		public boolean accept(int slot);
+	}
+
+	/** Neighbor slots of the entries */
+	private int[] slots;
+	/** Lattice positions of the entries */
+	private double[] xs;
+	private double[] ys;
+	/** Next entry in the same cell (or NONE) */
+	private int[] next;
+	private int size;
+
+	/** Cell keys of the hash buckets */
+	private long[] cellKeys;
+	/** First entry of the cell of each bucket (or NONE if unused) */
+	private int[] cellHeads;
+	/** Buckets in use, in the order the cells were first used */
+	private int[] usedBuckets;
+	private int nrofCells;
+	/** Bounds of the occupied cells */
+	private int minCellX;
+	private int maxCellX;
+	private int minCellY;
+	private int maxCellY;
+
+	/** Best entry found by the current query (or NONE) */
+	private int best;
+	/** Squared distance of the best entry */
+	private double bestDist;
+
+	/**
+	 * Creates a new, empty grid
+	 */
+	public NeighborGrid() {
+		this.slots = new int[8];
+		this.xs = new double[8];
+		this.ys = new double[8];
+		this.next = new int[8];
+		this.cellKeys = new long[32];
+		this.cellHeads = new int[32];
+		this.usedBuckets = new int[16];
+		Arrays.fill(this.cellHeads, NONE);
+		clear();
+	}
+
+	/**
+	 * Removes all neighbors from the grid
+	 */
+	public void clear() {
+		for (int i = 0; i < this.nrofCells; i++) {
+			this.cellHeads[this.usedBuckets[i]] = NONE;
+		}
+		this.nrofCells = 0;
+		this.size = 0;
+		this.minCellX = Integer.MAX_VALUE;
+		this.maxCellX = Integer.MIN_VALUE;
+		this.minCellY = Integer.MAX_VALUE;
+		this.maxCellY = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Adds a neighbor to the grid
+	 * @param slot Slot of the neighbor (e.g. in {@link NextHopIndex})
+	 * @param x Lattice x coordinate of the neighbor
+	 * @param y Lattice y coordinate of the neighbor
+	 */
+	public void add(int slot, double x, double y) {
+		if (this.size == this.slots.length) {
+			int capacity = this.size * 2;
+			this.slots = Arrays.copyOf(this.slots, capacity);
+			this.xs = Arrays.copyOf(this.xs, capacity);
+			this.ys = Arrays.copyOf(this.ys, capacity);
+			this.next = Arrays.copyOf(this.next, capacity);
+		}
+		if ((this.nrofCells + 1) * 2 > this.cellKeys.length) {
+			growCells();
+		}
+
+		int entry = this.size++;
+		this.slots[entry] = slot;
+		this.xs[entry] = x;
+		this.ys[entry] = y;
+
+		int cx = cell(x);
+		int cy = cell(y);
+		this.minCellX = Math.min(this.minCellX, cx);
+		this.maxCellX = Math.max(this.maxCellX, cx);
+		this.minCellY = Math.min(this.minCellY, cy);
+		this.maxCellY = Math.max(this.maxCellY, cy);
+		long key = cellKey(cx, cy);
+		int bucket = bucketOf(key);
+		if (this.cellHeads[bucket] == NONE) {
+			this.cellKeys[bucket] = key;
+			this.usedBuckets[this.nrofCells++] = bucket;
+		}
+		this.next[entry] = this.cellHeads[bucket];
+		this.cellHeads[bucket] = entry;
+	}
+
+	/**
+	 * Returns true if some acceptable neighbor is inside the lattice cell of
+	 * the given point. Only the neighbors of that cell are looked at.
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @param filter Filter for the neighbors or null to accept all
+	 * @return true if the cell has an acceptable neighbor
+	 */
+	public boolean hasNeighborInCell(double x, double y, SlotFilter filter) {
+		if (this.size == 0) {
+			return false;
+		}
+		int bucket = bucketOf(cellKey(cell(x), cell(y)));
+		for (int e = this.cellHeads[bucket]; e != NONE; e = this.next[e]) {
+			if (filter == null || filter.accept(this.slots[e])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if two points are in the same lattice cell
+	 * @param x1 Lattice x coordinate of the first point
+	 * @param y1 Lattice y coordinate of the first point
+	 * @param x2 Lattice x coordinate of the second point
+	 * @param y2 Lattice y coordinate of the second point
+	 * @return true if the points are in the same cell
+	 */
+	public static boolean isSameCell(double x1, double y1, double x2, 
+			double y2) {
+		return cell(x1) == cell(x2) && cell(y1) == cell(y2);
+	}
+
+	/**
+	 * Returns the acceptable neighbor that is closest to the given point.
+	 * Of equally close neighbors any one may be returned.
+	 * <P>
+	 * The cells are searched in square rings around the cell of the point,
+	 * nearest ring first, until the next ring can't have a neighbor closer
+	 * than the best one found. Only the rings that overlap the occupied 
+	 * cells are looked at. If the rings to search would have more cells than
+	 * there are occupied cells (e.g. the point is far from all the 
+	 * neighbors), the rest of the occupied cells are checked one by one 
+	 * instead.</P>
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @param filter Filter for the neighbors or null to accept all
+	 * @return The slot of the closest neighbor or {@link #NONE} if there
+	 * are no acceptable neighbors
+	 */
+	public int nearest(double x, double y, SlotFilter filter) {
+		if (this.size == 0) {
+			return NONE;
+		}
+		int cx = cell(x);
+		int cy = cell(y);
+		/* distance from the point to the border of its cell */
+		double margin = Math.min(Math.min(x - cx, cx + 1 - x), 
+				Math.min(y - cy, cy + 1 - y));
+		int lastRing = Math.max(Math.max(cx - this.minCellX, this.maxCellX - cx),
+				Math.max(cy - this.minCellY, this.maxCellY - cy));
+		int budget = this.nrofCells;
+		this.best = NONE;
+		this.bestDist = Double.MAX_VALUE;
+
+		for (int r = 0; r <= lastRing; r++) {
+			double ringDist = r == 0 ? 0 : r - 1 + margin;
+			if (ringDist * ringDist >= this.bestDist) {
+				break;
+			}
+			int fromX = Math.max(cx - r, this.minCellX);
+			int toX = Math.min(cx + r, this.maxCellX);
+			int fromY = Math.max(cy - r + 1, this.minCellY);
+			int toY = Math.min(cy + r - 1, this.maxCellY);
+			boolean top = isOccupiedRow(cy - r);
+			boolean bottom = r > 0 && isOccupiedRow(cy + r);
+			boolean left = r > 0 && isOccupiedColumn(cx - r);
+			boolean right = r > 0 && isOccupiedColumn(cx + r);
+			int rowCells = Math.max(0, toX - fromX + 1);
+			int columnCells = Math.max(0, toY - fromY + 1);
+			int nrofRingCells = (top ? rowCells : 0) + 
+				(bottom ? rowCells : 0) + (left ? columnCells : 0) + 
+				(right ? columnCells : 0);
+			if (nrofRingCells > budget) {
+				scanCells(x, y, filter, cx, cy, r);
+				break;
+			}
+			budget -= nrofRingCells;
+
+			for (int i = fromX; i <= toX; i++) {
+				if (top) {
+					searchCell(i, cy - r, x, y, filter);
+				}
+				if (bottom) {
+					searchCell(i, cy + r, x, y, filter);
+				}
+			}
+			for (int j = fromY; j <= toY; j++) {
+				if (left) {
+					searchCell(cx - r, j, x, y, filter);
+				}
+				if (right) {
+					searchCell(cx + r, j, x, y, filter);
+				}
+			}
+		}
+
+		return this.best == NONE ? NONE : this.slots[this.best];
+	}
+
+	/**
+	 * Returns true if a row of cells is within the bounds of the occupied
+	 * cells
+	 * @param j The y index of the row
+	 */
+	private boolean isOccupiedRow(int j) {
+		return j >= this.minCellY && j <= this.maxCellY;
+	}
+
+	/**
+	 * Returns true if a column of cells is within the bounds of the 
+	 * occupied cells
+	 * @param i The x index of the column
+	 */
+	private boolean isOccupiedColumn(int i) {
+		return i >= this.minCellX && i <= this.maxCellX;
+	}
+
+	/**
+	 * Searches the occupied cells that are not within the given number of
+	 * rings around the point's cell (the rings have been searched already)
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @param filter Filter for the neighbors or null
+	 * @param cx The x index of the point's cell
+	 * @param cy The y index of the point's cell
+	 * @param nrofRings Number of rings searched
+	 */
+	private void scanCells(double x, double y, SlotFilter filter, int cx,
+			int cy, int nrofRings) {
+		for (int i = 0; i < this.nrofCells; i++) {
+			int bucket = this.usedBuckets[i];
+			long key = this.cellKeys[bucket];
+			int ring = Math.max(Math.abs((int)(key >> 32) - cx), 
+					Math.abs((int)key - cy));
+			if (ring < nrofRings || 
+					cellDistance(key, x, y) >= this.bestDist) {
+				continue;
+			}
+			nearestInCell(bucket, x, y, filter);
+		}
+	}
+
+	/**
+	 * Searches a cell for the closest acceptable neighbor, if the cell is
+	 * occupied
+	 * @param i The x index of the cell
+	 * @param j The y index of the cell
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @param filter Filter for the neighbors or null
+	 */
+	private void searchCell(int i, int j, double x, double y, 
+			SlotFilter filter) {
+		int bucket = bucketOf(cellKey(i, j));
+		if (this.cellHeads[bucket] != NONE) {
+			nearestInCell(bucket, x, y, filter);
+		}
+	}
+
+	/**
+	 * Finds the closest acceptable entry of a cell and makes it the best
+	 * entry if it is closer than the best one found so far
+	 * @param bucket The bucket of the cell
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @param filter Filter for the neighbors or null
+	 */
+	private void nearestInCell(int bucket, double x, double y,
+			SlotFilter filter) {
+		for (int e = this.cellHeads[bucket]; e != NONE; e = this.next[e]) {
+			double d = distance(x, y, this.xs[e], this.ys[e]);
+			if (d < this.bestDist && 
+					(filter == null || filter.accept(this.slots[e]))) {
+				this.best = e;
+				this.bestDist = d;
+			}
+		}
+	}
+
+	/**
+	 * Returns the smallest squared distance from a point to any point of
+	 * a cell
+	 * @param key Key of the cell
+	 * @param x Lattice x coordinate of the point
+	 * @param y Lattice y coordinate of the point
+	 * @return The squared distance
+	 */
+	private static double cellDistance(long key, double x, double y) {
+		int cx = (int)(key >> 32);
+		int cy = (int)key;
+		double dx = Math.max(0, Math.max(cx - x, x - (cx + 1.0)));
+		double dy = Math.max(0, Math.max(cy - y, y - (cy + 1.0)));
+		return dx*dx + dy*dy;
+	}
+
+	/**
+	 * Returns the squared distance of two points
+	 */
+	private static double distance(double x1, double y1, double x2, double y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		return dx*dx + dy*dy;
+	}
+
+	private static int cell(double coordinate) {
+		return (int)Math.floor(coordinate);
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the bucket of a cell key: either the bucket where the key is
+	 * or the free bucket where it would be put
+	 */
+	private int bucketOf(long key) {
+		int mask = this.cellKeys.length - 1;
+		long h = key * 0x9E3779B97F4A7C15L;
+		int i = (int)(h ^ (h >>> 32)) & mask;
+		while (this.cellHeads[i] != NONE && this.cellKeys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Doubles the number of hash buckets
+	 */
+	private void growCells() {
+		long[] oldKeys = this.cellKeys;
+		int[] oldHeads = this.cellHeads;
+		int[] oldUsed = this.usedBuckets;
+		int oldCells = this.nrofCells;
+
+		this.cellKeys = new long[oldKeys.length * 2];
+		this.cellHeads = new int[oldKeys.length * 2];
+		this.usedBuckets = new int[oldKeys.length];
+		Arrays.fill(this.cellHeads, NONE);
+		this.nrofCells = 0;
+		for (int i = 0; i < oldCells; i++) {
+			int bucket = bucketOf(oldKeys[oldUsed[i]]);
+			this.cellKeys[bucket] = oldKeys[oldUsed[i]];
+			this.cellHeads[bucket] = oldHeads[oldUsed[i]];
+			this.usedBuckets[this.nrofCells++] = bucket;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+
+import core.Connection;
+import core.DTNHost;
+
+/**
+ * Per-update index of the neighbors of an EASE router. The index is
+ * rebuilt at the beginning of every update from the current connections
+ * and answers, for any destination, which connected neighbor has the
+ * freshest encounter with it. The answer for a destination is computed on
+ * the first query of the update and memoized, so all the buffered messages
+ * to the same destination share one pass over the connections. The index
+ * reuses its arrays between updates and doesn't allocate anything once it
+ * has grown to the size of the neighborhood.
+ */
+public class NextHopIndex {
+	/** Slot value for "no neighbor" */
+	public static final int NONE = -1;
+
+	private Connection[] connections;
+	private DTNHost[] hosts;
+	/** Encounter tables of the neighbors (null if not known) */
+	private EncounterTable[] tables;
+	private boolean[] up;
+	private int size;
+
+	/** Neighbor slots by host address */
+	private StampedIntMap slotsByAddress;
+	/** Memoized freshest neighbor slots by destination address */
+	private StampedIntMap freshestByDestination;
+
+	/**
+	 * Creates a new, empty index
+	 */
+	public NextHopIndex() {
+		this.connections = new Connection[8];
+		this.hosts = new DTNHost[8];
+		this.tables = new EncounterTable[8];
+		this.up = new boolean[8];
+		this.slotsByAddress = new StampedIntMap();
+		this.freshestByDestination = new StampedIntMap();
+	}
+
+	/**
+	 * Clears the index and starts building it for a new update
+	 */
+	public void clear() {
+		Arrays.fill(this.connections, 0, this.size, null);
+		Arrays.fill(this.hosts, 0, this.size, null);
+		Arrays.fill(this.tables, 0, this.size, null);
+		this.size = 0;
+		this.slotsByAddress.clear();
+		this.freshestByDestination.clear();
+	}
+
+	/**
+	 * Adds a neighbor to the index
+	 * @param con Connection to the neighbor
+	 * @param host The neighbor
+	 * @param table The neighbor's encounter table or null if it isn't known
+	 */
+	public void addNeighbor(Connection con, DTNHost host, EncounterTable table) {
+		if (this.size == this.connections.length) {
+			int capacity = this.size * 2;
+			this.connections = Arrays.copyOf(this.connections, capacity);
+			this.hosts = Arrays.copyOf(this.hosts, capacity);
+			this.tables = Arrays.copyOf(this.tables, capacity);
+			this.up = Arrays.copyOf(this.up, capacity);
+		}
+		this.connections[this.size] = con;
+		this.hosts[this.size] = host;
+		this.tables[this.size] = table;
+		this.up[this.size] = con.isUp();
+		if (this.slotsByAddress.get(host.getAddress()) == NONE) {
+			this.slotsByAddress.put(host.getAddress(), this.size);
+		}
+		this.size++;
+	}
+
+	/**
+	 * Returns the number of neighbors in the index
+	 * @return the number of neighbors
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the slot of a neighbor
+	 * @param address Host address of the neighbor
+	 * @return The slot or {@link #NONE} if the host is not a neighbor
+	 */
+	public int slotOf(int address) {
+		return this.slotsByAddress.get(address);
+	}
+
+	/**
+	 * Returns the connection of a neighbor
+	 * @param slot Slot of the neighbor
+	 * @return The connection
+	 */
+	public Connection getConnection(int slot) {
+		return this.connections[slot];
+	}
+
+	/**
+	 * Returns a neighbor
+	 * @param slot Slot of the neighbor
+	 * @return The neighbor host
+	 */
+	public DTNHost getHost(int slot) {
+		return this.hosts[slot];
+	}
+
+	/**
+	 * Returns the encounter table of a neighbor
+	 * @param slot Slot of the neighbor
+	 * @return The neighbor's table or null if it isn't known
+	 */
+	public EncounterTable getTable(int slot) {
+		return this.tables[slot];
+	}
+
+	/**
+	 * Returns the time of a neighbor's last encounter with a destination
+	 * @param slot Slot of the neighbor
+	 * @param destination Address of the destination
+	 * @return The encounter time or {@link EncounterTable#UNKNOWN}
+	 */
+	public double getEncounterTime(int slot, int destination) {
+		EncounterTable table = this.tables[slot];
+		return table == null ? EncounterTable.UNKNOWN :
+			table.getTime(destination);
+	}
+
+	/**
+	 * Returns the connected neighbor with the freshest (latest) encounter
+	 * with the given destination. Only neighbors whose connection is up
+	 * and whose encounter time is positive are considered; of equally fresh
+	 * neighbors the one added first is returned. The result is memoized
+	 * until the index is cleared.
+	 * @param destination Address of the destination
+	 * @return The slot of the neighbor or {@link #NONE} if no neighbor knows
+	 * the destination
+	 */
+	public int getFreshestNeighbor(int destination) {
+		int slot = this.freshestByDestination.get(destination);
+		if (slot == NONE && !this.freshestByDestination.contains(destination)) {
+			slot = findFreshestNeighbor(destination, null);
+			this.freshestByDestination.put(destination, slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Finds the neighbor with the freshest encounter with the destination
+	 * without using the memoized results.
+	 * @param destination Address of the destination
+	 * @param excluded Hosts that must not be returned or null
+	 * @return The slot of the neighbor or {@link #NONE}
+	 */
+	public int findFreshestNeighbor(int destination, HopSet excluded) {
+		int best = NONE;
+		double bestTime = 0;
+
+		for (int i = 0; i < this.size; i++) {
+			if (!this.up[i] || this.tables[i] == null) {
+				continue;
+			}
+			if (excluded != null && excluded.contains(this.hosts[i])) {
+				continue;
+			}
+			double time = this.tables[i].getTime(destination);
+			if (bestTime < time) {
+				best = i;
+				bestTime = time;
+			}
+		}
+
+		return best;
+	}
+
+	/**
+	 * Open addressing map from int keys to int values that can be cleared
+	 * in constant time. Values of cleared and missing keys are
+	 * {@link NextHopIndex#NONE}.
+	 */
+	private static class StampedIntMap {
+		private int[] keys = new int[32];
+		private int[] values = new int[32];
+		/** Generation of every bucket; only buckets of the current
+		 * generation are in use */
+		private int[] stamps = new int[32];
+		private int stamp = 1;
+		private int size;
+
+		private void clear() {
+			if (++this.stamp == 0) { // wrapped around; forget old generations
+				Arrays.fill(this.stamps, 0);
+				this.stamp = 1;
+			}
+			this.size = 0;
+		}
+
+		private int bucketOf(int key) {
+			int mask = this.keys.length - 1;
+			int h = key * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (this.stamps[i] == this.stamp && this.keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private boolean contains(int key) {
+			return this.stamps[bucketOf(key)] == this.stamp;
+		}
+
+		private int get(int key) {
+			int i = bucketOf(key);
+			return this.stamps[i] == this.stamp ? this.values[i] : NONE;
+		}
+
+		private void put(int key, int value) {
+			if ((this.size + 1) * 2 > this.keys.length) {
+				grow();
+			}
+			int i = bucketOf(key);
+			if (this.stamps[i] != this.stamp) {
+				this.stamps[i] = this.stamp;
+				this.keys[i] = key;
+				this.size++;
+			}
+			this.values[i] = value;
+		}
+
+		private void grow() {
+			int[] oldKeys = this.keys;
+			int[] oldValues = this.values;
+			int[] oldStamps = this.stamps;
+			int oldStamp = this.stamp;
+
+			this.keys = new int[oldKeys.length * 2];
+			this.values = new int[oldKeys.length * 2];
+			this.stamps = new int[oldKeys.length * 2];
+			this.stamp = 1;
+			this.size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldStamps[i] == oldStamp) {
+					put(oldKeys[i], oldValues[i]);
+				}
+			}
+		}
+	}
+}
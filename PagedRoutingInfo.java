@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import core.RoutingInfo;
+
+/**
+ * Lazy routing information about a list of items. The items are collected
+ * with {@link #snapshot()} when the node is first expanded and split into
+ * pages so that no node has more than {@link #PAGE_SIZE} children; lists
+ * of more than PAGE_SIZE<sup>2</sup> items get pages of pages. The node of
+ * an item is created with {@link #infoAt(int)} only when its page is
+ * expanded.
+ * <P>
+ * The ONE GUI walks the whole routing information tree of a host when it
+ * shows it, which expands every page. So that a walk stays bounded, only
+ * the first <CODE>maxItems</CODE> items of a list are paged and the rest
+ * are summarized in one leaf (see {@link MessageRouter#ROUTING_INFO_ITEMS_S}).
+ * </P>
+ */
+public abstract class PagedRoutingInfo extends LazyRoutingInfo {
+	/** Maximum number of children of a node ({@value}) */
+	public static final int PAGE_SIZE = 100;
+
+	/** Maximum number of items shown (0 for all) */
+	private final int maxItems;
+
+	/**
+	 * Creates a paged node with the given text
+	 * @param text The text of the node
+	 * @param maxItems Maximum number of items shown or 0 to show all
+	 */
+	public PagedRoutingInfo(String text, int maxItems) {
+		super(text);
+		this.maxItems = maxItems;
+	}
+
+	/**
+	 * Collects the items. Called once, when the node is first expanded; the
+	 * implementation should copy the items it needs so that later changes
+	 * of the router do not affect the pages.
+	 * @return The number of items
+	 */
+	protected abstract int snapshot();
+
+	/**
+	 * Creates the routing information of an item
+	 * @param index Index of the item (0...snapshot()-1)
+	 * @return The routing information of the item
+	 */
+	protected abstract RoutingInfo infoAt(int index);
+
+	@Override
+	protected void expand() {
+		int nrofItems = snapshot();
+		int nrofShown = this.maxItems > 0 ?
+				Math.min(nrofItems, this.maxItems) : nrofItems;
+		addRange(this, 0, nrofShown);
+		if (nrofShown < nrofItems) {
+			addMoreInfo(new RoutingInfo("... and " + (nrofItems - nrofShown) +
+					" more"));
+		}
+	}
+
+	/**
+	 * Adds the items of a range, or the pages of the range if it has more
+	 * than {@link #PAGE_SIZE} items, to a node
+	 * @param node The node
+	 * @param from Index of the first item of the range
+	 * @param to Index after the last item of the range
+	 */
+	private void addRange(RoutingInfo node, int from, int to) {
+		long pageSize = 1;
+		while (to - from > pageSize * PAGE_SIZE) {
+			pageSize *= PAGE_SIZE;
+		}
+
+		if (pageSize == 1) {
+			for (int i = from; i < to; i++) {
+				node.addMoreInfo(infoAt(i));
+			}
+			return;
+		}
+
+		for (long start = from; start < to; start += pageSize) {
+			node.addMoreInfo(new Page((int)start, 
+					(int)Math.min(to, start + pageSize)));
+		}
+	}
+
+	/**
+	 * A page of items
+	 */
+	private class Page extends LazyRoutingInfo {
+		private final int from;
+		private final int to;
+
+		private Page(int from, int to) {
+			super("[" + from + "..." + (to - 1) + "]");
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void expand() {
+			addRange(this, this.from, this.to);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import core.DTNHost;
+import core.Settings;
+import core.SettingsError;
+
+/**
+ * Updates the routers of all hosts in three phases. First every router
+ * begins its update serially (finishing transfers etc.), then the plans of
+ * the {@link EASERouter}s are made concurrently on a fork-join pool and
+ * finally the plans are committed serially in the order of the hosts.
+ * Since planning doesn't change anything outside the planning router, the
+ * results are identical regardless of the number of threads. Hosts with
+ * other routers are updated normally in the first phase. Before the
+ * phases, the {@link LatticePositions} of all the hosts are computed
+ * (concurrently, if there are many hosts).
+ * <P>
+ * The results are not the same as with the simulator's own update loop,
+ * which updates the hosts one at a time. There a host begins, plans and
+ * commits its update before the next host begins its update, so it sees
+ * the transfers started by the hosts updated before it. Here every router
+ * begins its update before any plan is committed, and the plans are made
+ * on that state. For example, a host may plan a transfer to a neighbor 
+ * that becomes busy with another host's transfer before the plan is 
+ * committed (the transfer is then not started), or a router may finish 
+ * receiving a message only after its own plan was made. This is a change
+ * of semantics, not only of speed: compare runs made with the same 
+ * updater.</P>
+ * <P>
+ * The updater is used instead of calling {@link DTNHost#update()} for
+ * every host, once per update interval. It is configured with the
+ * settings of the {@link #UPDATER_NS} namespace.</P>
+ */
+public class ParallelUpdater {
+	/** Namespace of the updater settings ({@value}) */
+	public static final String UPDATER_NS = "ParallelUpdater";
+	/** Number of planning threads -setting id ({@value}). Default is the
+	 * number of available processors; with 1 all planning is done in the
+	 * calling thread. */
+	public static final String NROF_THREADS_S = "nrofThreads";
+	/** Number of routers planned by one fork-join task -setting id
+	 * ({@value}). Default is 64. */
+	public static final String BATCH_SIZE_S = "batchSize";
+
+	private ForkJoinPool pool;
+	private int batchSize;
+	/** Routers that plan in this update (null for the other hosts) */
+	private EASERouter[] planning;
+
+	/**
+	 * Creates a new updater based on the settings in the
+	 * {@link #UPDATER_NS} namespace
+	 */
+	public ParallelUpdater() {
+		this(new Settings(UPDATER_NS));
+	}
+
+	/**
+	 * Creates a new updater
+	 * @param s The settings object
+	 */
+	public ParallelUpdater(Settings s) {
+		int nrofThreads = Runtime.getRuntime().availableProcessors();
+		if (s.contains(NROF_THREADS_S)) {
+			nrofThreads = s.getInt(NROF_THREADS_S);
+			if (nrofThreads < 1) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(NROF_THREADS_S));
+			}
+		}
+		this.batchSize = 64;
+		if (s.contains(BATCH_SIZE_S)) {
+			this.batchSize = s.getInt(BATCH_SIZE_S);
+			if (batchSize < 1) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(BATCH_SIZE_S));
+			}
+		}
+
+		if (nrofThreads > 1) {
+			this.pool = new ForkJoinPool(nrofThreads);
+		}
+		this.planning = new EASERouter[0];
+	}
+
+	/**
+	 * Updates the routers of the hosts
+	 * @param hosts The hosts to update
+	 */
+	public void update(List<DTNHost> hosts) {
+		int nrofHosts = hosts.size();
+		if (this.planning.length < nrofHosts) {
+			this.planning = new EASERouter[nrofHosts];
+		}
+
+		/* the lattice positions are read concurrently while planning */
+		LatticePositions.updateAll(hosts, this.pool, this.batchSize);
+
+		/* phase 1: begin the updates serially */
+		for (int i = 0; i < nrofHosts; i++) {
+			DTNHost host = hosts.get(i);
+			MessageRouter router = host.getRouter();
+			this.planning[i] = null;
+			if (router instanceof EASERouter) {
+				EASERouter r = (EASERouter)router;
+				if (r.beginUpdate()) {
+					this.planning[i] = r;
+				}
+			}
+			else {
+				host.update();
+			}
+		}
+
+		/* phase 2: make the plans concurrently */
+		if (this.pool == null) {
+			plan(0, nrofHosts);
+		}
+		else {
+			this.pool.invoke(new PlanTask(0, nrofHosts));
+		}
+
+		/* phase 3: commit the plans serially in the order of the hosts */
+		for (int i = 0; i < nrofHosts; i++) {
+			EASERouter r = this.planning[i];
+			if (r != null) {
+				r.commit(r.getRoutingPlan());
+				this.planning[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Makes the plans of the routers in the given range
+	 * @param from Index of the first host
+	 * @param to Index after the last host
+	 */
+	private void plan(int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (this.planning[i] != null) {
+				this.planning[i].plan();
+			}
+		}
+	}
+
+	/**
+	 * Shuts down the planning threads
+	 */
+	public void close() {
+		if (this.pool != null) {
+			this.pool.shutdown();
+		}
+	}
+
+	/**
+	 * Fork-join task that plans a range of routers
+	 */
+	private class PlanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private int from;
+		private int to;
+
+		private PlanTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (this.to - this.from <= batchSize) {
+				plan(this.from, this.to);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new PlanTask(this.from, middle),
+					new PlanTask(middle, this.to));
+		}
+	}
+}
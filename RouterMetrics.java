@@ -0,0 +1,115 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import core.RoutingInfo;
+
+/**
+ * Metrics of one router. The router records its events here; the counts
+ * are kept per router and added to the aggregate {@link RoutingMetrics}.
+ * The time of an update is measured in phases (see
+ * {@link #startPhase()}), since the phases of an update may be run apart
+ * (see {@link ParallelUpdater}). A router's metrics must be written only
+ * by the thread that is updating the router.
+ */
+public class RouterMetrics {
+	private final RoutingMetrics aggregate;
+	private final long[] counts;
+	/** Start time of the current phase (nanoseconds) */
+	private long phaseStart;
+	/** Time spent in the phases of the current update */
+	private long updateNanos;
+	/** Time spent in all the updates */
+	private long totalUpdateNanos;
+
+	/**
+	 * Creates the metrics of a router
+	 * @param aggregate The aggregate metrics the counts are added to
+	 */
+	RouterMetrics(RoutingMetrics aggregate) {
+		this.aggregate = aggregate;
+		this.counts = new long[RoutingMetrics.NROF_COUNTERS];
+	}
+
+	/**
+	 * Counts one event
+	 * @param counter The counter (e.g. {@link RoutingMetrics#MODE_SWITCHES})
+	 */
+	public void count(int counter) {
+		count(counter, 1);
+	}
+
+	/**
+	 * Adds to a counter
+	 * @param counter The counter (e.g. {@link RoutingMetrics#MODE_SWITCHES})
+	 * @param n The amount to add
+	 */
+	public void count(int counter, long n) {
+		this.counts[counter] += n;
+		this.aggregate.add(counter, n);
+	}
+
+	/**
+	 * Starts timing a phase of an update
+	 */
+	public void startPhase() {
+		this.phaseStart = System.nanoTime();
+	}
+
+	/**
+	 * Ends timing a phase of an update
+	 */
+	public void endPhase() {
+		this.updateNanos += System.nanoTime() - this.phaseStart;
+	}
+
+	/**
+	 * Records the end of an update. Must be called from the simulation
+	 * thread.
+	 * @param nrofDecisions Number of started forwarding decisions of the
+	 * update
+	 * @param occupancyPercent Buffer occupancy (percent of the buffer size)
+	 */
+	public void endUpdate(int nrofDecisions, int occupancyPercent) {
+		count(RoutingMetrics.UPDATES);
+		count(RoutingMetrics.FORWARD_DECISIONS, nrofDecisions);
+		this.aggregate.updateDone(this.updateNanos, nrofDecisions,
+				occupancyPercent);
+		this.totalUpdateNanos += this.updateNanos;
+		this.updateNanos = 0;
+	}
+
+	/**
+	 * Returns the value of a counter
+	 * @param counter The counter (e.g. {@link RoutingMetrics#MODE_SWITCHES})
+	 * @return The value of the counter
+	 */
+	public long getCount(int counter) {
+		return this.counts[counter];
+	}
+
+	/**
+	 * Returns the total time of the updates
+	 * @return the time in nanoseconds
+	 */
+	public long getTotalUpdateTime() {
+		return this.totalUpdateNanos;
+	}
+
+	/**
+	 * Returns the metrics as routing information
+	 * @return The routing information
+	 */
+	public RoutingInfo getRoutingInfo() {
+		RoutingInfo ri = new RoutingInfo("metrics");
+		for (int i = 0; i < RoutingMetrics.NROF_COUNTERS; i++) {
+			ri.addMoreInfo(new RoutingInfo(RoutingMetrics.COUNTER_NAMES[i] +
+					": " + this.counts[i]));
+		}
+		ri.addMoreInfo(new RoutingInfo("updateTime: " +
+				this.totalUpdateNanos / 1000000 + " ms"));
+		return ri;
+	}
+}
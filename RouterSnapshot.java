@@ -0,0 +1,663 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import core.DTNHost;
+import core.Message;
+import core.SimClock;
+import core.SimError;
+
+/**
+ * Snapshots of the routing state of all hosts. A snapshot keeps the
+ * buffered messages and the delivered set of every router and, for
+ * {@link EASERouter}s, the encounter table and the states (encounter
+ * tables and sent versions) of the neighbors. The state is stored column
+ * by column and the columns are written and read through memory mappings
+ * of the file, so no stream or intermediate copy of the state is needed.
+ * Every column is mapped on its own, so the file can be larger than one
+ * mapping (2 GB).
+ * <P>
+ * A snapshot is restored to the routers of a new simulation with the same
+ * hosts (same addresses and router classes) whose routers are still
+ * empty. {@link #restore(List, String)} sets the simulation clock to the
+ * time of the snapshot; restoring the rest of the simulation (host
+ * locations and movement, connections, event queues) is up to the caller.
+ * Connections are not in the snapshot, so transfers in progress and
+ * partially received messages are lost, and the encounter table refreshes
+ * of the neighbors start again when the connections come up. Encounter
+ * table messages are not saved, since their contents are sent again on
+ * the next refresh.</P>
+ * <P>
+ * The restored messages keep their creation time and initial TTL, so
+ * they expire when the original messages would have. The message API has
+ * no getter for the initial TTL; it is derived from the remaining TTL
+ * (see {@link #initialTtl(Message)}). Only the
+ * {@link EASEHeader} of the message properties is restored.</P>
+ * <P>
+ * Format (big-endian): the magic {@link #MAGIC}, the format version, the
+ * snapshot time and the number of hosts, messages, hop addresses, message
+ * ID bytes, delivered set words, tables and table entries. Then the
+ * sections, each as consecutive columns:
+ * <UL>
+ * <LI/> hosts: address, EASE router flag (byte), delivered set capacity,
+ *  size, IDs in the current filter and number of words; then the words of
+ *  all the delivered sets (long)
+ * <LI/> tables: owner address, neighbor address (-1 for the owner's own
+ *  table), version (the sent version for neighbors), received version
+ *  (the version of the neighbor's table the copy is at; 0 for the owner's
+ *  own table), update time (double) and number of entries (-1 for a
+ *  neighbor without a table); then the entries of all the tables in their
+ *  change order: address, time, x, y (double) and version
+ * <LI/> messages: owner, from and to address, size, initial TTL (minutes,
+ *  {@link Message#INFINITE_TTL} for an infinite TTL), creation and
+ *  receive time (double), flags (byte), anchor x and y (double), number
+ *  of copies (see {@link EASEHeader#getCopies()}), number of hops and ID
+ *  length; then the hop addresses and the UTF-8 ID bytes of all the
+ *  messages
+ * </UL>
+ * Addresses, counts and versions are ints.</P>
+ */
+public class RouterSnapshot {
+	/** Magic bytes at the start of a snapshot file */
+	public static final byte[] MAGIC = {'E','A','S','E','S','N','P','1'};
+	/** Version of the file format */
+	public static final int FORMAT_VERSION = 4;
+
+	/** Size of the header in bytes */
+	private static final int HEADER_SIZE = 8 + 4 + 8 + 7 * 4;
+	/** Message flag: the message has an EASE header */
+	private static final byte HAS_HEADER = 1;
+	/** Message flag: the message is jumping to an anchor point */
+	private static final byte JUMPING = 2;
+
+	private RouterSnapshot() { }
+
+	/**
+	 * Writes a snapshot of the routers of the hosts
+	 * @param hosts The hosts
+	 * @param fileName Name of the snapshot file
+	 * @return The size of the file in bytes
+	 */
+	public static long write(List<DTNHost> hosts, String fileName) {
+		int nrofHosts = hosts.size();
+		List<Message> msgs = new ArrayList<Message>();
+		List<DTNHost> owners = new ArrayList<DTNHost>();
+		int nrofHops = 0;
+		int nrofWords = 0;
+		int nrofTables = 0;
+		int nrofEntries = 0;
+
+		for (int i = 0; i < nrofHosts; i++) {
+			DTNHost host = hosts.get(i);
+			MessageRouter r = host.getRouter();
+			for (Message m : r.getMessageCollection()) {
+				EASEHeader header = EASEHeader.of(m);
+				if (header != null && header.isTable()) {
+					continue;
+				}
+				msgs.add(m);
+				owners.add(host);
+				nrofHops += m.getHops().size();
+			}
+			nrofWords += r.getDeliveredSet().getNrofWords();
+			if (r instanceof EASERouter) {
+				EASERouter ease = (EASERouter)r;
+				nrofTables++;
+				nrofEntries += ease.getEncounterTable().size();
+				for (EASERouter.NeighborState n :
+						ease.getNeighborStates().values()) {
+					nrofTables++;
+					if (n.table != null) {
+						nrofEntries += n.table.size();
+					}
+				}
+			}
+		}
+
+		int nrofMsgs = msgs.size();
+		byte[][] ids = new byte[nrofMsgs][];
+		int nrofIdBytes = 0;
+		for (int i = 0; i < nrofMsgs; i++) {
+			ids[i] = utf8(msgs.get(i).getId());
+			nrofIdBytes += ids[i].length;
+		}
+		long length = length(nrofHosts, nrofMsgs, nrofHops, nrofIdBytes,
+				nrofWords, nrofTables, nrofEntries);
+
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(fileName, "rw");
+			file.setLength(length);
+			Columns out = new Columns(file.getChannel(),
+					FileChannel.MapMode.READ_WRITE);
+
+			ByteBuffer header = out.bytes(HEADER_SIZE);
+			header.put(MAGIC);
+			header.putInt(FORMAT_VERSION);
+			header.putDouble(SimClock.getTime());
+			header.putInt(nrofHosts);
+			header.putInt(nrofMsgs);
+			header.putInt(nrofHops);
+			header.putInt(nrofIdBytes);
+			header.putInt(nrofWords);
+			header.putInt(nrofTables);
+			header.putInt(nrofEntries);
+
+			writeHosts(hosts, nrofWords, out);
+			writeTables(hosts, nrofTables, nrofEntries, out);
+			writeMessages(msgs, owners, ids, nrofHops, nrofIdBytes, out);
+			out.force();
+		} catch (IOException e) {
+			throw new SimError("Can't write router snapshot " + fileName, e);
+		} finally {
+			close(file);
+		}
+		return length;
+	}
+
+	/**
+	 * Restores the routers of the hosts from a snapshot and sets the
+	 * simulation clock to the time of the snapshot. The routers must be
+	 * initialized and empty.
+	 * @param hosts The hosts; must have the same addresses and router
+	 * classes as the hosts of the snapshot
+	 * @param fileName Name of the snapshot file
+	 * @return The time of the snapshot
+	 */
+	public static double restore(List<DTNHost> hosts, String fileName) {
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(fileName, "r");
+			if (file.length() < HEADER_SIZE) {
+				throw new SimError(fileName + " is not a router snapshot");
+			}
+			Columns in = new Columns(file.getChannel(),
+					FileChannel.MapMode.READ_ONLY);
+
+			ByteBuffer header = in.bytes(HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC) ||
+					header.getInt() != FORMAT_VERSION) {
+				throw new SimError(fileName + " is not a router snapshot");
+			}
+			double time = header.getDouble();
+			int nrofHosts = header.getInt();
+			int nrofMsgs = header.getInt();
+			int nrofHops = header.getInt();
+			int nrofIdBytes = header.getInt();
+			int nrofWords = header.getInt();
+			int nrofTables = header.getInt();
+			int nrofEntries = header.getInt();
+			if (file.length() != length(nrofHosts, nrofMsgs, nrofHops, 
+					nrofIdBytes, nrofWords, nrofTables, nrofEntries)) {
+				throw new SimError("Router snapshot " + fileName + 
+						" is truncated");
+			}
+			if (nrofHosts != hosts.size()) {
+				throw new SimError("Router snapshot " + fileName + " has " +
+						nrofHosts + " hosts instead of " + hosts.size());
+			}
+
+			DTNHost[] byAddress = indexByAddress(hosts);
+			SimClock.getInstance().setTime(time);
+			readHosts(byAddress, nrofHosts, nrofWords, in);
+			readTables(byAddress, nrofTables, nrofEntries, in);
+			readMessages(byAddress, time, nrofMsgs, nrofHops, nrofIdBytes,
+					in);
+			return time;
+		} catch (IOException e) {
+			throw new SimError("Can't read router snapshot " + fileName, e);
+		} finally {
+			close(file);
+		}
+	}
+
+	/**
+	 * Returns the size of a snapshot file
+	 * @return The size in bytes
+	 */
+	private static long length(int nrofHosts, int nrofMsgs, int nrofHops,
+			int nrofIdBytes, int nrofWords, int nrofTables, int nrofEntries) {
+		return HEADER_SIZE +
+			nrofHosts * 21L + nrofWords * 8L +
+			nrofTables * 28L + nrofEntries * 32L +
+			nrofMsgs * 65L + nrofHops * 4L + nrofIdBytes;
+	}
+
+	/**
+	 * Writes the hosts section
+	 */
+	private static void writeHosts(List<DTNHost> hosts, int nrofWords,
+			Columns out) throws IOException {
+		int n = hosts.size();
+		IntBuffer addresses = out.ints(n);
+		ByteBuffer isEase = out.bytes(n);
+		IntBuffer capacities = out.ints(n);
+		IntBuffer sizes = out.ints(n);
+		IntBuffer inCurrent = out.ints(n);
+		IntBuffer words = out.ints(n);
+		LongBuffer allWords = out.longs(nrofWords);
+
+		for (int i = 0; i < n; i++) {
+			MessageRouter r = hosts.get(i).getRouter();
+			DeliveredSet delivered = r.getDeliveredSet();
+			addresses.put(hosts.get(i).getAddress());
+			isEase.put((byte)(r instanceof EASERouter ? 1 : 0));
+			capacities.put(delivered.getCapacity());
+			sizes.put(delivered.size());
+			inCurrent.put(delivered.getNrofInCurrent());
+			words.put(delivered.getNrofWords());
+			delivered.writeTo(allWords);
+		}
+	}
+
+	/**
+	 * Reads the hosts section and restores the delivered sets
+	 */
+	private static void readHosts(DTNHost[] byAddress, int n, int nrofWords,
+			Columns in) throws IOException {
+		IntBuffer addresses = in.ints(n);
+		ByteBuffer isEase = in.bytes(n);
+		IntBuffer capacities = in.ints(n);
+		IntBuffer sizes = in.ints(n);
+		IntBuffer inCurrent = in.ints(n);
+		IntBuffer words = in.ints(n);
+		LongBuffer allWords = in.longs(nrofWords);
+
+		for (int i = 0; i < n; i++) {
+			int address = addresses.get();
+			MessageRouter r = hostOf(byAddress, address).getRouter();
+			if ((isEase.get() == 1) != (r instanceof EASERouter)) {
+				throw new SimError("Router of host " + address +
+						" doesn't match the snapshot");
+			}
+			r.setDeliveredSet(DeliveredSet.readFrom(capacities.get(),
+					sizes.get(), inCurrent.get(), allWords, words.get()));
+		}
+	}
+
+	/**
+	 * Writes the tables section
+	 */
+	private static void writeTables(List<DTNHost> hosts, int nrofTables,
+			int nrofEntries, Columns out) throws IOException {
+		IntBuffer owners = out.ints(nrofTables);
+		IntBuffer neighbors = out.ints(nrofTables);
+		IntBuffer versions = out.ints(nrofTables);
+		IntBuffer received = out.ints(nrofTables);
+		DoubleBuffer updated = out.doubles(nrofTables);
+		IntBuffer sizes = out.ints(nrofTables);
+		IntBuffer addresses = out.ints(nrofEntries);
+		DoubleBuffer times = out.doubles(nrofEntries);
+		DoubleBuffer xs = out.doubles(nrofEntries);
+		DoubleBuffer ys = out.doubles(nrofEntries);
+		IntBuffer entryVersions = out.ints(nrofEntries);
+
+		for (DTNHost host : hosts) {
+			if (!(host.getRouter() instanceof EASERouter)) {
+				continue;
+			}
+			EASERouter r = (EASERouter)host.getRouter();
+			EncounterTable own = r.getEncounterTable();
+			owners.put(host.getAddress());
+			neighbors.put(-1);
+			versions.put(own.getVersion());
+			received.put(0);
+			updated.put(0);
+			sizes.put(own.size());
+			writeEntries(own, true, addresses, times, xs, ys, entryVersions);
+
+			for (Map.Entry<DTNHost, EASERouter.NeighborState> n :
+					r.getNeighborStates().entrySet()) {
+				EASERouter.NeighborState state = n.getValue();
+				owners.put(host.getAddress());
+				neighbors.put(n.getKey().getAddress());
+				versions.put(state.versionSent);
+				received.put(state.table == null ? 0 : 
+					state.table.getSourceVersion());
+				updated.put(state.updated);
+				if (state.table == null) {
+					sizes.put(-1);
+					continue;
+				}
+				sizes.put(state.table.size());
+				writeEntries(state.table, false, addresses, times, xs, ys,
+						entryVersions);
+			}
+		}
+	}
+
+	/**
+	 * Writes the entries of a table to the entry columns in their change
+	 * order
+	 * @param withVersions If true, the sequence numbers of the entries are
+	 * written (only the host's own table needs them), otherwise zeros
+	 */
+	private static void writeEntries(EncounterTable table,
+			boolean withVersions, IntBuffer addresses, DoubleBuffer times,
+			DoubleBuffer xs, DoubleBuffer ys, IntBuffer versions) {
+		EncounterTableDelta all = table.changesSince(0);
+		for (int i = 0, n = all.size(); i < n; i++) {
+			int address = all.addressAt(i);
+			addresses.put(address);
+			times.put(all.timeAt(i));
+			xs.put(all.xAt(i));
+			ys.put(all.yAt(i));
+			versions.put(withVersions ? table.getEntryVersion(address) : 0);
+		}
+	}
+
+	/**
+	 * Reads the tables section and restores the encounter tables and the
+	 * neighbor states
+	 */
+	private static void readTables(DTNHost[] byAddress, int nrofTables,
+			int nrofEntries, Columns in) throws IOException {
+		IntBuffer owners = in.ints(nrofTables);
+		IntBuffer neighbors = in.ints(nrofTables);
+		IntBuffer versions = in.ints(nrofTables);
+		IntBuffer received = in.ints(nrofTables);
+		DoubleBuffer updated = in.doubles(nrofTables);
+		IntBuffer sizes = in.ints(nrofTables);
+		IntBuffer addresses = in.ints(nrofEntries);
+		DoubleBuffer times = in.doubles(nrofEntries);
+		DoubleBuffer xs = in.doubles(nrofEntries);
+		DoubleBuffer ys = in.doubles(nrofEntries);
+		IntBuffer entryVersions = in.ints(nrofEntries);
+
+		for (int t = 0; t < nrofTables; t++) {
+			EASERouter r = (EASERouter)hostOf(byAddress, 
+					owners.get()).getRouter();
+			int neighbor = neighbors.get();
+			int version = versions.get();
+			int receivedVersion = received.get();
+			double updateTime = updated.get();
+			int size = sizes.get();
+
+			if (neighbor == -1) {
+				EncounterTable own = r.getEncounterTable();
+				for (int i = 0; i < size; i++) {
+					own.restoreEntry(addresses.get(), times.get(), xs.get(),
+							ys.get(), entryVersions.get());
+				}
+				own.restoreVersion(version);
+				continue;
+			}
+
+			EASERouter.NeighborState state = new EASERouter.NeighborState();
+			state.versionSent = version;
+			state.updated = updateTime;
+			if (size >= 0) {
+				state.table = r.newNeighborTable();
+				for (int i = 0; i < size; i++) {
+					state.table.put(addresses.get(), times.get(), xs.get(),
+							ys.get());
+					entryVersions.get();
+				}
+				state.table.restoreSourceVersion(receivedVersion);
+			}
+			r.getNeighborStates().put(hostOf(byAddress, neighbor), state);
+		}
+	}
+
+	/**
+	 * Writes the messages section
+	 */
+	private static void writeMessages(List<Message> msgs, List<DTNHost> owners,
+			byte[][] ids, int nrofHops, int nrofIdBytes, Columns out) 
+			throws IOException {
+		int n = msgs.size();
+		IntBuffer ownerAddresses = out.ints(n);
+		IntBuffer from = out.ints(n);
+		IntBuffer to = out.ints(n);
+		IntBuffer sizes = out.ints(n);
+		IntBuffer ttls = out.ints(n);
+		DoubleBuffer created = out.doubles(n);
+		DoubleBuffer received = out.doubles(n);
+		ByteBuffer flags = out.bytes(n);
+		DoubleBuffer anchorX = out.doubles(n);
+		DoubleBuffer anchorY = out.doubles(n);
+		IntBuffer copies = out.ints(n);
+		IntBuffer hopCounts = out.ints(n);
+		IntBuffer idLengths = out.ints(n);
+		IntBuffer hops = out.ints(nrofHops);
+		ByteBuffer idBytes = out.bytes(nrofIdBytes);
+
+		for (int i = 0; i < n; i++) {
+			Message m = msgs.get(i);
+			ownerAddresses.put(owners.get(i).getAddress());
+			from.put(m.getFrom().getAddress());
+			to.put(m.getTo().getAddress());
+			sizes.put(m.getSize());
+			ttls.put(initialTtl(m));
+			created.put(m.getCreationTime());
+			received.put(m.getReceiveTime());
+			EASEHeader header = EASEHeader.of(m);
+			if (header != null) {
+				flags.put((byte)(HAS_HEADER | (header.isJumping() ? JUMPING : 0)));
+				anchorX.put(header.getArchorX());
+				anchorY.put(header.getArchorY());
+				copies.put(header.getCopies());
+			}
+			else {
+				flags.put((byte)0);
+				anchorX.put(0);
+				anchorY.put(0);
+				copies.put(1);
+			}
+			List<DTNHost> path = m.getHops();
+			hopCounts.put(path.size());
+			for (int j = 0, pathLength = path.size(); j < pathLength; j++) {
+				hops.put(path.get(j).getAddress());
+			}
+			idLengths.put(ids[i].length);
+			idBytes.put(ids[i]);
+		}
+	}
+
+	/**
+	 * Returns the initial TTL of a message. The remaining TTL is the
+	 * initial TTL minus the age of the message, truncated to whole
+	 * minutes, so the initial TTL is the only integer in
+	 * [remaining + age, remaining + age + 1).
+	 * @param m The message
+	 * @return The initial TTL in minutes or {@link Message#INFINITE_TTL}
+	 */
+	private static int initialTtl(Message m) {
+		int ttl = m.getTtl();
+		if (ttl == Integer.MAX_VALUE) {
+			return Message.INFINITE_TTL;
+		}
+		double age = (SimClock.getTime() - m.getCreationTime()) / 60;
+		return (int)Math.ceil(ttl + age);
+	}
+
+	/**
+	 * Reads the messages section and adds the messages to the buffers of
+	 * their owners. The clock is set to the creation time of each message
+	 * while the message is created and back to the snapshot time after it.
+	 */
+	private static void readMessages(DTNHost[] byAddress, double time, int n,
+			int nrofHops, int nrofIdBytes, Columns in) throws IOException {
+		IntBuffer owners = in.ints(n);
+		IntBuffer from = in.ints(n);
+		IntBuffer to = in.ints(n);
+		IntBuffer sizes = in.ints(n);
+		IntBuffer ttls = in.ints(n);
+		DoubleBuffer created = in.doubles(n);
+		DoubleBuffer received = in.doubles(n);
+		ByteBuffer flags = in.bytes(n);
+		DoubleBuffer anchorX = in.doubles(n);
+		DoubleBuffer anchorY = in.doubles(n);
+		IntBuffer copies = in.ints(n);
+		IntBuffer hopCounts = in.ints(n);
+		IntBuffer idLengths = in.ints(n);
+		IntBuffer hops = in.ints(nrofHops);
+		ByteBuffer idBytes = in.bytes(nrofIdBytes);
+		byte[] id = new byte[64];
+
+		for (int i = 0; i < n; i++) {
+			DTNHost owner = hostOf(byAddress, owners.get());
+			int idLength = idLengths.get();
+			if (idLength > id.length) {
+				id = new byte[idLength];
+			}
+			idBytes.get(id, 0, idLength);
+			/* the constructor takes the creation time from the clock */
+			SimClock.getInstance().setTime(created.get());
+			Message m = new Message(hostOf(byAddress, from.get()),
+					hostOf(byAddress, to.get()), fromUtf8(id, idLength),
+					sizes.get());
+			SimClock.getInstance().setTime(time);
+			/* the constructor adds the source to the path */
+			hops.get();
+			for (int j = 1, hopCount = hopCounts.get(); j < hopCount; j++) {
+				m.addNodeOnPath(hostOf(byAddress, hops.get()));
+			}
+			m.setTtl(ttls.get());
+			m.setReceiveTime(received.get());
+
+			byte flag = flags.get();
+			double x = anchorX.get();
+			double y = anchorY.get();
+			int nrofCopies = copies.get();
+			if ((flag & HAS_HEADER) != 0) {
+				EASEHeader header = new EASEHeader();
+				List<DTNHost> path = m.getHops();
+				for (int j = 0, pathLength = path.size(); j < pathLength; j++) {
+					header.getHops().add(path.get(j));
+				}
+				/* the anchor is kept also when the message isn't jumping */
+				header.startJumping(x, y);
+				if ((flag & JUMPING) == 0) {
+					header.stopJumping();
+				}
+				header.setCopies(nrofCopies);
+				m.addProperty(EASEHeader.KEY, header);
+			}
+
+			owner.getRouter().addToMessages(m, false);
+		}
+	}
+
+	/**
+	 * Returns the hosts indexed by their addresses
+	 */
+	private static DTNHost[] indexByAddress(List<DTNHost> hosts) {
+		int maxAddress = -1;
+		for (DTNHost host : hosts) {
+			maxAddress = Math.max(maxAddress, host.getAddress());
+		}
+		DTNHost[] byAddress = new DTNHost[maxAddress + 1];
+		for (DTNHost host : hosts) {
+			byAddress[host.getAddress()] = host;
+		}
+		return byAddress;
+	}
+
+	/**
+	 * Returns the host with an address or throws an error if there is no
+	 * such host
+	 */
+	private static DTNHost hostOf(DTNHost[] byAddress, int address) {
+		if (address < 0 || address >= byAddress.length ||
+				byAddress[address] == null) {
+			throw new SimError("No host with address " + address +
+					" for the router snapshot");
+		}
+		return byAddress[address];
+	}
+
+	private static byte[] utf8(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new SimError(e);
+		}
+	}
+
+	private static String fromUtf8(byte[] bytes, int length) {
+		try {
+			return new String(bytes, 0, length, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new SimError(e);
+		}
+	}
+
+	private static void close(RandomAccessFile file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new SimError(e);
+		}
+	}
+
+	/**
+	 * The consecutive columns of a snapshot file. Every column is mapped
+	 * separately when it is reached.
+	 */
+	private static class Columns {
+		private final FileChannel channel;
+		private final FileChannel.MapMode mode;
+		/** Mapped columns that are forced to the file after writing */
+		private final List<MappedByteBuffer> written;
+		/** File offset of the next column */
+		private long offset;
+
+		private Columns(FileChannel channel, FileChannel.MapMode mode) {
+			this.channel = channel;
+			this.mode = mode;
+			this.written = new ArrayList<MappedByteBuffer>();
+		}
+
+		private ByteBuffer bytes(long size) throws IOException {
+			MappedByteBuffer buf = this.channel.map(this.mode, this.offset,
+					size);
+			this.offset += size;
+			if (this.mode == FileChannel.MapMode.READ_WRITE) {
+				this.written.add(buf);
+			}
+			return buf;
+		}
+
+		private IntBuffer ints(int n) throws IOException {
+			return bytes(n * 4L).asIntBuffer();
+		}
+
+		private DoubleBuffer doubles(int n) throws IOException {
+			return bytes(n * 8L).asDoubleBuffer();
+		}
+
+		private LongBuffer longs(int n) throws IOException {
+			return bytes(n * 8L).asLongBuffer();
+		}
+
+		/**
+		 * Writes the mapped columns to the storage device
+		 */
+		private void force() {
+			for (MappedByteBuffer buf : this.written) {
+				buf.force();
+			}
+		}
+	}
+}
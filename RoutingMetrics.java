@@ -0,0 +1,405 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+import core.SimError;
+
+/**
+ * Aggregate routing metrics of all routers: event counters and fixed
+ * bucket histograms of the router updates. Every router records its events
+ * through its own {@link RouterMetrics}, which keeps the per-router counts
+ * and adds them here. The counters and histogram buckets are striped
+ * ({@link LongAdder}), so routers planning concurrently (see
+ * {@link ParallelUpdater}) don't contend on them.
+ * <P>
+ * The metrics are configured with the settings of the {@link #METRICS_NS}
+ * namespace. When they are enabled, they can be read through a JMX MBean
+ * (see {@link RoutingMetricsMBean}, object name {@link #OBJECT_NAME}) and
+ * a snapshot line can be written to a CSV report periodically. When they
+ * are disabled, routers don't get a {@link RouterMetrics} and recording an
+ * event costs one null check.</P>
+ */
+public class RoutingMetrics implements RoutingMetricsMBean {
+	/** Namespace of the metrics settings ({@value}) */
+	public static final String METRICS_NS = "RoutingMetrics";
+	/** Metrics enabled -setting id ({@value}). Default is false */
+	public static final String ENABLED_S = "enabled";
+	/** Report interval (simulated seconds) -setting id ({@value}). A
+	 * snapshot of the metrics is written to the report every this many
+	 * seconds. Default is 0 (no report). */
+	public static final String REPORT_INTERVAL_S = "reportInterval";
+	/** Report file -setting id ({@value}). Default is
+	 * {@link #DEF_REPORT_FILE} */
+	public static final String REPORT_FILE_S = "reportFile";
+	/** JMX export -setting id ({@value}). Default is true */
+	public static final String JMX_S = "jmx";
+
+	/** Default report file ({@value}) */
+	public static final String DEF_REPORT_FILE = "reports/routing_metrics.csv";
+	/** Object name of the MBean ({@value}) */
+	public static final String OBJECT_NAME = "routing:type=RoutingMetrics";
+
+	/** Counter of forwarding decisions whose transfers were started
+	 * (planned transfers that were skipped or refused are not counted) */
+	public static final int FORWARD_DECISIONS = 0;
+	/** Counter of encounter table messages sent */
+	public static final int TABLES_SENT = 1;
+	/** Counter of encounter table entries sent */
+	public static final int TABLE_ENTRIES_SENT = 2;
+	/** Counter of anchor mode switches */
+	public static final int MODE_SWITCHES = 3;
+	/** Counter of started transfers to the neighbor closest to the
+	 * destination (fallbacks) */
+	public static final int NEAREST_FALLBACKS = 4;
+	/** Counter of aborted transfers */
+	public static final int TRANSFER_ABORTS = 5;
+	/** Counter of router updates */
+	public static final int UPDATES = 6;
+	/** Counter of bundle messages sent */
+	public static final int BUNDLES_SENT = 7;
+	/** Counter of messages sent in bundles */
+	public static final int BUNDLED_MESSAGES = 8;
+	/** Number of counters */
+	public static final int NROF_COUNTERS = 9;
+	/** Names of the counters (in the reports) */
+	public static final String[] COUNTER_NAMES = {"forwardDecisions",
+		"tablesSent", "tableEntriesSent", "modeSwitches", "nearestFallbacks",
+		"transferAborts", "updates", "bundlesSent", "bundledMessages"};
+
+	private static RoutingMetrics instance;
+
+	private boolean enabled;
+	private LongAdder[] counters;
+	/** Started forwarding decisions per update */
+	private Histogram decisions;
+	/** Buffer occupancy (percent) at the end of the updates */
+	private Histogram occupancy;
+	/** Update times (nanoseconds) */
+	private Histogram updateTime;
+
+	private PrintWriter report;
+	private double reportInterval;
+	private double nextReport;
+
+	/**
+	 * Returns the metrics configured by the settings. The metrics are
+	 * created when this method is called for the first time.
+	 * @return The aggregate metrics
+	 */
+	public static synchronized RoutingMetrics getInstance() {
+		if (instance == null) {
+			instance = new RoutingMetrics(new Settings(METRICS_NS));
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates the aggregate metrics
+	 * @param s Settings of the metrics
+	 */
+	private RoutingMetrics(Settings s) {
+		if (s.contains(ENABLED_S)) {
+			this.enabled = s.getBoolean(ENABLED_S);
+		}
+		if (!this.enabled) {
+			return;
+		}
+
+		this.counters = new LongAdder[NROF_COUNTERS];
+		for (int i = 0; i < NROF_COUNTERS; i++) {
+			this.counters[i] = new LongAdder();
+		}
+		this.decisions = new Histogram();
+		this.occupancy = new Histogram();
+		this.updateTime = new Histogram();
+
+		if (s.contains(REPORT_INTERVAL_S)) {
+			this.reportInterval = s.getDouble(REPORT_INTERVAL_S);
+			if (reportInterval < 0) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(REPORT_INTERVAL_S));
+			}
+		}
+		if (this.reportInterval > 0) {
+			String fileName = DEF_REPORT_FILE;
+			if (s.contains(REPORT_FILE_S)) {
+				fileName = s.getSetting(REPORT_FILE_S);
+			}
+			try {
+				this.report = new PrintWriter(new FileWriter(fileName));
+			} catch (IOException e) {
+				throw new SimError("Can't open routing metrics report " +
+						fileName, e);
+			}
+			this.report.println(getReportHeader());
+			this.nextReport = this.reportInterval;
+
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					close();
+				}
+			});
+		}
+
+		if (!s.contains(JMX_S) || s.getBoolean(JMX_S)) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+						new ObjectName(OBJECT_NAME));
+			} catch (JMException e) {
+				throw new SimError("Can't register routing metrics MBean", e);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the metrics are recorded
+	 * @return true if the metrics are enabled
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Creates the metrics of a router
+	 * @return New router metrics or null if the metrics are disabled
+	 */
+	public RouterMetrics newRouterMetrics() {
+		if (!this.enabled) {
+			return null;
+		}
+		return new RouterMetrics(this);
+	}
+
+	/**
+	 * Adds to a counter
+	 * @param counter The counter (e.g. {@link #FORWARD_DECISIONS})
+	 * @param n The amount to add
+	 */
+	void add(int counter, long n) {
+		this.counters[counter].add(n);
+	}
+
+	/**
+	 * Records the end of a router update and writes a report snapshot if
+	 * one is due. Must be called from the simulation thread.
+	 * @param nanos Duration of the update in nanoseconds
+	 * @param nrofDecisions Number of started forwarding decisions of the
+	 * update
+	 * @param occupancyPercent Buffer occupancy at the end of the update
+	 */
+	void updateDone(long nanos, int nrofDecisions, int occupancyPercent) {
+		this.updateTime.record(nanos);
+		this.decisions.record(nrofDecisions);
+		this.occupancy.record(occupancyPercent);
+		if (this.report != null && SimClock.getTime() >= this.nextReport) {
+			writeSnapshot();
+		}
+	}
+
+	/**
+	 * Writes a snapshot line to the report and schedules the next one
+	 */
+	private synchronized void writeSnapshot() {
+		if (this.report == null) {
+			return;
+		}
+		this.report.println(format(SimClock.getTime()) + "," + getSnapshot());
+		while (this.nextReport <= SimClock.getTime()) {
+			this.nextReport += this.reportInterval;
+		}
+	}
+
+	/**
+	 * Returns the value of a counter
+	 * @param counter The counter (e.g. {@link #FORWARD_DECISIONS})
+	 * @return The value of the counter
+	 */
+	public long getCount(int counter) {
+		return this.enabled ? this.counters[counter].sum() : 0;
+	}
+
+	public long getForwardDecisions() {
+		return getCount(FORWARD_DECISIONS);
+	}
+
+	public long getTablesSent() {
+		return getCount(TABLES_SENT);
+	}
+
+	public long getTableEntriesSent() {
+		return getCount(TABLE_ENTRIES_SENT);
+	}
+
+	public long getModeSwitches() {
+		return getCount(MODE_SWITCHES);
+	}
+
+	public long getNearestFallbacks() {
+		return getCount(NEAREST_FALLBACKS);
+	}
+
+	public long getTransferAborts() {
+		return getCount(TRANSFER_ABORTS);
+	}
+
+	public long getUpdates() {
+		return getCount(UPDATES);
+	}
+
+	public long getBundlesSent() {
+		return getCount(BUNDLES_SENT);
+	}
+
+	public long getBundledMessages() {
+		return getCount(BUNDLED_MESSAGES);
+	}
+
+	public double getMeanDecisionsPerUpdate() {
+		return this.enabled ? this.decisions.getMean() : 0;
+	}
+
+	public double getMeanBufferOccupancy() {
+		return this.enabled ? this.occupancy.getMean() : 0;
+	}
+
+	public double getMeanUpdateTime() {
+		return this.enabled ? this.updateTime.getMean() : 0;
+	}
+
+	public long getUpdateTimeP99() {
+		return this.enabled ? this.updateTime.getPercentile(0.99) : 0;
+	}
+
+	/**
+	 * Returns the column names of the report (and the snapshot)
+	 * @return The CSV header line
+	 */
+	public static String getReportHeader() {
+		StringBuilder sb = new StringBuilder("time");
+		for (String name : COUNTER_NAMES) {
+			sb.append(',').append(name);
+		}
+		sb.append(",decisionsMean,decisionsP99,occupancyMean,occupancyP99");
+		sb.append(",updateNanosMean,updateNanosP99");
+		return sb.toString();
+	}
+
+	public String getSnapshot() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < NROF_COUNTERS; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(getCount(i));
+		}
+		if (this.enabled) {
+			sb.append(',').append(format(this.decisions.getMean()));
+			sb.append(',').append(this.decisions.getPercentile(0.99));
+			sb.append(',').append(format(this.occupancy.getMean()));
+			sb.append(',').append(this.occupancy.getPercentile(0.99));
+			sb.append(',').append(format(this.updateTime.getMean()));
+			sb.append(',').append(this.updateTime.getPercentile(0.99));
+		}
+		return sb.toString();
+	}
+
+	private static String format(double value) {
+		return String.format("%.2f", value);
+	}
+
+	/**
+	 * Flushes and closes the report
+	 */
+	public synchronized void close() {
+		if (this.report != null) {
+			this.report.close();
+			this.report = null;
+		}
+	}
+
+	/**
+	 * Histogram of non-negative values with fixed power of two buckets:
+	 * bucket 0 counts zeros and bucket i the values from 2^(i-1) to 2^i - 1.
+	 */
+	public static class Histogram {
+		private static final int NROF_BUCKETS = 64;
+		private LongAdder[] buckets;
+		private LongAdder count;
+		private LongAdder sum;
+
+		/**
+		 * Creates a new, empty histogram
+		 */
+		public Histogram() {
+			this.buckets = new LongAdder[NROF_BUCKETS];
+			for (int i = 0; i < NROF_BUCKETS; i++) {
+				this.buckets[i] = new LongAdder();
+			}
+			this.count = new LongAdder();
+			this.sum = new LongAdder();
+		}
+
+		/**
+		 * Records a value
+		 * @param value The value (negative values are recorded as zero)
+		 */
+		public void record(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			this.buckets[64 - Long.numberOfLeadingZeros(value)].add(1);
+			this.count.add(1);
+			this.sum.add(value);
+		}
+
+		/**
+		 * Returns the number of recorded values
+		 * @return the number of values
+		 */
+		public long getCount() {
+			return this.count.sum();
+		}
+
+		/**
+		 * Returns the mean of the recorded values
+		 * @return the mean or 0 if no values have been recorded
+		 */
+		public double getMean() {
+			long n = this.count.sum();
+			return n == 0 ? 0 : (double)this.sum.sum() / n;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket where the given fraction of
+		 * the recorded values is reached
+		 * @param fraction The fraction (e.g. 0.99 for the 99th percentile)
+		 * @return The upper bound of the bucket or 0 if no values have been
+		 * recorded
+		 */
+		public long getPercentile(double fraction) {
+			long n = this.count.sum();
+			long seen = 0;
+			for (int i = 0; i < NROF_BUCKETS; i++) {
+				seen += this.buckets[i].sum();
+				if (seen > 0 && seen >= fraction * n) {
+					return i == 0 ? 0 : (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+/**
+ * JMX management interface of the aggregate {@link RoutingMetrics}
+ */
+public interface RoutingMetricsMBean {
+
+	/**
+	 * Returns the number of forwarding decisions whose transfers were
+	 * started
+	 * @return the number of forwarding decisions
+	 */
+	public long getForwardDecisions();
+
+	/**
+	 * Returns the number of encounter table messages sent
+	 * @return the number of table messages sent
+	 */
+	public long getTablesSent();
+
+	/**
+	 * Returns the number of encounter table entries sent
+	 * @return the number of table entries sent
+	 */
+	public long getTableEntriesSent();
+
+	/**
+	 * Returns the number of anchor mode switches of messages
+	 * @return the number of mode switches
+	 */
+	public long getModeSwitches();
+
+	/**
+	 * Returns the number of times a message was forwarded to the neighbor
+	 * closest to its destination for lack of a better choice
+	 * @return the number of fallbacks to the closest neighbor
+	 */
+	public long getNearestFallbacks();
+
+	/**
+	 * Returns the number of aborted transfers
+	 * @return the number of aborted transfers
+	 */
+	public long getTransferAborts();
+
+	/**
+	 * Returns the number of router updates
+	 * @return the number of updates
+	 */
+	public long getUpdates();
+
+	/**
+	 * Returns the number of bundle messages sent
+	 * @return the number of bundles sent
+	 */
+	public long getBundlesSent();
+
+	/**
+	 * Returns the number of messages sent in bundles
+	 * @return the number of bundled messages sent
+	 */
+	public long getBundledMessages();
+
+	/**
+	 * Returns the mean number of started forwarding decisions per update
+	 * @return the mean number of decisions
+	 */
+	public double getMeanDecisionsPerUpdate();
+
+	/**
+	 * Returns the mean buffer occupancy (percent of the buffer size) at the
+	 * end of the updates
+	 * @return the mean buffer occupancy
+	 */
+	public double getMeanBufferOccupancy();
+
+	/**
+	 * Returns the mean time of one router update in nanoseconds
+	 * @return the mean update time
+	 */
+	public double getMeanUpdateTime();
+
+	/**
+	 * Returns the 99th percentile of the router update times in nanoseconds
+	 * (upper bound of the histogram bucket)
+	 * @return the 99th percentile of the update times
+	 */
+	public long getUpdateTimeP99();
+
+	/**
+	 * Returns a one line snapshot of all the metrics
+	 * @return the snapshot
+	 */
+	public String getSnapshot();
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Arrays;
+
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+
+/**
+ * Routing decisions of one router update. The plan is filled by the
+ * side-effect-free planning phase of a router (see
+ * {@link EASERouter#plan()}), which only reads the state the serial
+ * {@link EASERouter#beginUpdate()} left, and applied later by its commit
+ * phase: first the control messages (encounter table updates to neighbors)
+ * are created and then the transfers are started in the planned order. A
+ * router reuses the same plan object on every update.
+ */
+public class RoutingPlan {
+	/** Transfer reason: the next hop is the destination */
+	public static final int DIRECT = 0;
+	/** Transfer reason: encounter table message to the neighbor */
+	public static final int TABLE = 1;
+	/** Transfer reason: the next hop has a fresher encounter with the
+	 * destination */
+	public static final int BY_ENCOUNTER_AGE = 2;
+	/** Transfer reason: the next hop is closest to the anchor point */
+	public static final int BY_ANCHOR = 3;
+	/** Transfer reason: the next hop is closest to the destination's last
+	 * known position (or the first neighbor) */
+	public static final int CLOSEST = 4;
+	/** Transfer reason: half of the message's copies are handed to the next
+	 * hop (see {@link SprayAndEASERouter}) */
+	public static final int SPRAY = 5;
+
+	/** Neighbors that should be sent an encounter table update */
+	private DTNHost[] tableTargets;
+	private int nrofTableTargets;
+
+	private Message[] messages;
+	private Connection[] connections;
+	private int[] reasons;
+	/** Encounter ages of the BY_ENCOUNTER_AGE decisions (for tracing) */
+	private double[] ownAges;
+	private double[] nextAges;
+	private int nrofTransfers;
+
+	/**
+	 * Creates a new, empty plan
+	 */
+	public RoutingPlan() {
+		this.tableTargets = new DTNHost[8];
+		this.messages = new Message[16];
+		this.connections = new Connection[16];
+		this.reasons = new int[16];
+		this.ownAges = new double[16];
+		this.nextAges = new double[16];
+	}
+
+	/**
+	 * Removes all decisions from the plan
+	 */
+	public void clear() {
+		Arrays.fill(this.tableTargets, 0, this.nrofTableTargets, null);
+		Arrays.fill(this.messages, 0, this.nrofTransfers, null);
+		Arrays.fill(this.connections, 0, this.nrofTransfers, null);
+		this.nrofTableTargets = 0;
+		this.nrofTransfers = 0;
+	}
+
+	/**
+	 * Adds a neighbor that should be sent an encounter table update
+	 * @param host The neighbor
+	 */
+	public void addTableTarget(DTNHost host) {
+		if (this.nrofTableTargets == this.tableTargets.length) {
+			this.tableTargets = Arrays.copyOf(this.tableTargets,
+					this.nrofTableTargets * 2);
+		}
+		this.tableTargets[this.nrofTableTargets++] = host;
+	}
+
+	/**
+	 * Adds a transfer to the plan
+	 * @param m The message to transfer
+	 * @param con The connection to transfer the message through
+	 * @param reason Why the message is transferred (e.g. {@link #DIRECT})
+	 */
+	public void addTransfer(Message m, Connection con, int reason) {
+		addTransfer(m, con, reason, 0, 0);
+	}
+
+	/**
+	 * Adds a transfer to the plan
+	 * @param m The message to transfer
+	 * @param con The connection to transfer the message through
+	 * @param reason Why the message is transferred (e.g. {@link #DIRECT})
+	 * @param ownAge Age of the router's own encounter with the destination
+	 * @param nextAge Age of the next hop's encounter with the destination
+	 */
+	public void addTransfer(Message m, Connection con, int reason,
+			double ownAge, double nextAge) {
+		if (this.nrofTransfers == this.messages.length) {
+			int capacity = this.nrofTransfers * 2;
+			this.messages = Arrays.copyOf(this.messages, capacity);
+			this.connections = Arrays.copyOf(this.connections, capacity);
+			this.reasons = Arrays.copyOf(this.reasons, capacity);
+			this.ownAges = Arrays.copyOf(this.ownAges, capacity);
+			this.nextAges = Arrays.copyOf(this.nextAges, capacity);
+		}
+		int i = this.nrofTransfers++;
+		this.messages[i] = m;
+		this.connections[i] = con;
+		this.reasons[i] = reason;
+		this.ownAges[i] = ownAge;
+		this.nextAges[i] = nextAge;
+	}
+
+	/**
+	 * Returns the number of neighbors that should get a table update
+	 * @return the number of table targets
+	 */
+	public int getNrofTableTargets() {
+		return this.nrofTableTargets;
+	}
+
+	/**
+	 * Returns a neighbor that should get a table update
+	 * @param i Index of the target
+	 * @return The neighbor
+	 */
+	public DTNHost getTableTarget(int i) {
+		return this.tableTargets[i];
+	}
+
+	/**
+	 * Returns the number of planned transfers
+	 * @return the number of transfers
+	 */
+	public int getNrofTransfers() {
+		return this.nrofTransfers;
+	}
+
+	/**
+	 * Returns the message of a planned transfer
+	 * @param i Index of the transfer
+	 * @return The message
+	 */
+	public Message getMessage(int i) {
+		return this.messages[i];
+	}
+
+	/**
+	 * Returns the connection of a planned transfer
+	 * @param i Index of the transfer
+	 * @return The connection
+	 */
+	public Connection getConnection(int i) {
+		return this.connections[i];
+	}
+
+	/**
+	 * Returns the reason of a planned transfer
+	 * @param i Index of the transfer
+	 * @return The reason (e.g. {@link #BY_ENCOUNTER_AGE})
+	 */
+	public int getReason(int i) {
+		return this.reasons[i];
+	}
+
+	/**
+	 * Returns the router's own encounter age with the destination for a
+	 * {@link #BY_ENCOUNTER_AGE} transfer
+	 * @param i Index of the transfer
+	 * @return The encounter age
+	 */
+	public double getOwnAge(int i) {
+		return this.ownAges[i];
+	}
+
+	/**
+	 * Returns the next hop's encounter age with the destination for a
+	 * {@link #BY_ENCOUNTER_AGE} transfer
+	 * @param i Index of the transfer
+	 * @return The encounter age
+	 */
+	public double getNextAge(int i) {
+		return this.nextAges[i];
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import core.DTNHost;
+import core.Message;
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+import core.SimError;
+
+/**
+ * Recorder of routing decisions. Routers write fixed-size binary records
+ * of their decisions to a preallocated buffer; full buffers are handed to a
+ * background thread that writes them to the trace file while the
+ * simulation continues with another buffer. Trace files can be converted
+ * to CSV with {@link RoutingTraceReader}.
+ * <P>
+ * The recorder is configured with the settings of the {@link #TRACE_NS}
+ * namespace. When tracing is off, recording a decision costs one field read
+ * and a branch. Records must be written from the simulation thread.</P>
+ * <P>
+ * Format: the file starts with the 8 byte magic {@link #MAGIC}, followed by
+ * {@link #RECORD_SIZE} byte big-endian records. Every record starts with a
+ * type byte. Message IDs are written as numbers; the first time an ID is
+ * seen an {@link #TYPE_ID} record maps the number to the ID string. Only
+ * the {@link #ID_CACHE_SIZE_S} most recently used IDs are remembered; an
+ * ID that has been forgotten gets a new number and ID record when it is
+ * seen again, so the numbers are never reused.</P>
+ */
+public class RoutingTrace {
+	/** Namespace of the trace settings ({@value}) */
+	public static final String TRACE_NS = "RoutingTrace";
+	/**
+	 * Trace mode -setting id ({@value}). Valid values are<BR>
+	 * <UL>
+	 * <LI/> 0 : off (default)
+	 * <LI/> 1 : sampled (every {@link #SAMPLE_INTERVAL_S}th record is written)
+	 * <LI/> 2 : full (all records are written)
+	 * </UL>
+	 */
+	public static final String MODE_S = "mode";
+	/** Trace file -setting id ({@value}). Default is
+	 * {@link #DEF_TRACE_FILE} */
+	public static final String FILE_S = "file";
+	/** Sampling interval -setting id ({@value}). Default is 100 */
+	public static final String SAMPLE_INTERVAL_S = "sampleInterval";
+	/** Number of records in one buffer -setting id ({@value}).
+	 * Default is 16384 */
+	public static final String BUFFER_SIZE_S = "bufferSize";
+	/** Number of message IDs whose numbers are remembered -setting id 
+	 * ({@value}). Default is 65536 */
+	public static final String ID_CACHE_SIZE_S = "idCacheSize";
+
+	/** Setting value for tracing off */
+	public static final int MODE_OFF = 0;
+	/** Setting value for sampled tracing */
+	public static final int MODE_SAMPLED = 1;
+	/** Setting value for full tracing */
+	public static final int MODE_FULL = 2;
+
+	/** Default trace file ({@value}) */
+	public static final String DEF_TRACE_FILE = "reports/routing_trace.bin";
+
+	/** Magic bytes at the start of a trace file */
+	public static final byte[] MAGIC = {'E','A','S','E','T','R','C','1'};
+	/** Size of every record in bytes */
+	public static final int RECORD_SIZE = 40;
+	/** Maximum number of ID bytes in an ID record */
+	public static final int MAX_ID_LENGTH = RECORD_SIZE - 8;
+
+	/** Record type: message ID definition.
+	 * Layout: type, length (byte), 2 unused, message number (int),
+	 * ID bytes (UTF-8, zero padded) */
+	public static final byte TYPE_ID = 1;
+	/** Record type: message sent to the next hop.
+	 * Fields: host = sender, other = receiver, flags = 1 if the sender is
+	 * the source of the message */
+	public static final byte TYPE_SEND = 2;
+	/** Record type: forwarding decision by encounter age.
+	 * Fields: other = chosen neighbor, a = our encounter age with the
+	 * destination, b = the neighbor's encounter age */
+	public static final byte TYPE_FORWARD = 3;
+	/** Record type: anchor mode switch.
+	 * Fields: flags = 1 if the message started jumping to an anchor point,
+	 * a, b = lattice position of the anchor */
+	public static final byte TYPE_MODE_SWITCH = 4;
+
+	/** Number of buffers in rotation */
+	private static final int NROF_BUFFERS = 4;
+	/** How long to wait for a free buffer before checking the writer 
+	 * thread again (milliseconds) */
+	private static final long WRITER_CHECK_INTERVAL = 100;
+
+	private static RoutingTrace instance;
+
+	private int mode;
+	private int sampleInterval;
+	private int sampleCounter;
+	/** Buffer the records are currently written to */
+	private ByteBuffer current;
+	/** Empty buffers available for writing */
+	private BlockingQueue<ByteBuffer> free;
+	/** Full buffers waiting to be written to the file */
+	private BlockingQueue<ByteBuffer> full;
+	/** Numbers of the most recently used message IDs */
+	private LinkedHashMap<String, Integer> idNumbers;
+	/** Number of the next defined message ID */
+	private int nextIdNumber;
+	private Thread writer;
+	private FileChannel channel;
+	/** Error that stopped the writer thread (if any) */
+	private volatile IOException writeError;
+
+	/**
+	 * Returns the trace recorder configured by the settings. The recorder is
+	 * created when this method is called for the first time.
+	 * @return The trace recorder
+	 */
+	public static synchronized RoutingTrace getInstance() {
+		if (instance == null) {
+			instance = new RoutingTrace(new Settings(TRACE_NS));
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new trace recorder
+	 * @param s Settings of the recorder
+	 */
+	private RoutingTrace(Settings s) {
+		this.mode = MODE_OFF;
+		if (s.contains(MODE_S)) {
+			this.mode = s.getInt(MODE_S);
+			if (mode < MODE_OFF || mode > MODE_FULL) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(MODE_S));
+			}
+		}
+		if (this.mode == MODE_OFF) {
+			return;
+		}
+
+		this.sampleInterval = mode == MODE_FULL ? 1 : 100;
+		if (mode == MODE_SAMPLED && s.contains(SAMPLE_INTERVAL_S)) {
+			this.sampleInterval = s.getInt(SAMPLE_INTERVAL_S);
+			if (sampleInterval < 1) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(SAMPLE_INTERVAL_S));
+			}
+		}
+		int bufferSize = 16384;
+		if (s.contains(BUFFER_SIZE_S)) {
+			bufferSize = s.getInt(BUFFER_SIZE_S);
+			if (bufferSize < 1 || bufferSize > Integer.MAX_VALUE / RECORD_SIZE) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(BUFFER_SIZE_S));
+			}
+		}
+		int idCacheSize = 65536;
+		if (s.contains(ID_CACHE_SIZE_S)) {
+			idCacheSize = s.getInt(ID_CACHE_SIZE_S);
+			if (idCacheSize < 1) {
+				throw new SettingsError("Invalid value for " +
+						s.getFullPropertyName(ID_CACHE_SIZE_S));
+			}
+		}
+		String fileName = DEF_TRACE_FILE;
+		if (s.contains(FILE_S)) {
+			fileName = s.getSetting(FILE_S);
+		}
+
+		try {
+			this.channel = new FileOutputStream(fileName).getChannel();
+			this.channel.write(ByteBuffer.wrap(MAGIC));
+		} catch (IOException e) {
+			throw new SimError("Can't open routing trace file " + fileName, e);
+		}
+
+		this.free = new ArrayBlockingQueue<ByteBuffer>(NROF_BUFFERS);
+		this.full = new ArrayBlockingQueue<ByteBuffer>(NROF_BUFFERS);
+		for (int i = 0; i < NROF_BUFFERS - 1; i++) {
+			this.free.add(ByteBuffer.allocateDirect(bufferSize * RECORD_SIZE));
+		}
+		this.current = ByteBuffer.allocateDirect(bufferSize * RECORD_SIZE);
+		final int maxIds = idCacheSize;
+		this.idNumbers = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> e) {
+				return size() > maxIds;
+			}
+		};
+
+		this.writer = new Thread("RoutingTrace writer") {
+			public void run() {
+				writeBuffers();
+			}
+		};
+		this.writer.setDaemon(true);
+		this.writer.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Returns true if decisions are recorded
+	 * @return true if tracing is on
+	 */
+	public boolean isEnabled() {
+		return this.mode != MODE_OFF;
+	}
+
+	/**
+	 * Records the start of a message transfer
+	 * @param m The message
+	 * @param from The sending host
+	 * @param to The receiving host
+	 */
+	public void recordSend(Message m, DTNHost from, DTNHost to) {
+		if (this.mode == MODE_OFF || !sample()) {
+			return;
+		}
+		write(TYPE_SEND, m.getFrom() == from ? 1 : 0, from, m, to, 0, 0);
+	}
+
+	/**
+	 * Records a forwarding decision by encounter age
+	 * @param m The message
+	 * @param host The deciding host
+	 * @param next The chosen neighbor
+	 * @param ownAge Age of the host's own encounter with the destination
+	 * @param nextAge Age of the neighbor's encounter with the destination
+	 */
+	public void recordForward(Message m, DTNHost host, DTNHost next,
+			double ownAge, double nextAge) {
+		if (this.mode == MODE_OFF || !sample()) {
+			return;
+		}
+		write(TYPE_FORWARD, 0, host, m, next, ownAge, nextAge);
+	}
+
+	/**
+	 * Records a switch of the anchor mode of a message
+	 * @param m The message
+	 * @param host The host where the mode was switched
+	 * @param jumping True if the message started jumping to an anchor point
+	 * @param archorX Lattice x coordinate of the anchor point
+	 * @param archorY Lattice y coordinate of the anchor point
+	 */
+	public void recordModeSwitch(Message m, DTNHost host, boolean jumping,
+			double archorX, double archorY) {
+		if (this.mode == MODE_OFF || !sample()) {
+			return;
+		}
+		write(TYPE_MODE_SWITCH, jumping ? 1 : 0, host, m, null, archorX,
+				archorY);
+	}
+
+	/**
+	 * Returns true if the next record should be written (sampling)
+	 */
+	private boolean sample() {
+		if (++this.sampleCounter < this.sampleInterval) {
+			return false;
+		}
+		this.sampleCounter = 0;
+		return true;
+	}
+
+	/**
+	 * Writes one record to the current buffer
+	 */
+	private void write(byte type, int flags, DTNHost host, Message m,
+			DTNHost other, double a, double b) {
+		int msgNumber = getIdNumber(m.getId());
+		ByteBuffer buf = reserve();
+		buf.put(type);
+		buf.put((byte)flags);
+		buf.putShort((short)0);
+		buf.putInt(host.getAddress());
+		buf.putInt(msgNumber);
+		buf.putInt(other == null ? -1 : other.getAddress());
+		buf.putDouble(SimClock.getTime());
+		buf.putDouble(a);
+		buf.putDouble(b);
+	}
+
+	/**
+	 * Returns the number of a message ID, writing an ID record if the ID
+	 * hasn't been seen before
+	 */
+	private int getIdNumber(String id) {
+		Integer number = this.idNumbers.get(id);
+		if (number != null) {
+			return number.intValue();
+		}
+
+		int n = this.nextIdNumber++;
+		this.idNumbers.put(id, n);
+
+		byte[] bytes;
+		try {
+			bytes = id.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new SimError(e);
+		}
+		int length = Math.min(bytes.length, MAX_ID_LENGTH);
+		ByteBuffer buf = reserve();
+		buf.put(TYPE_ID);
+		buf.put((byte)length);
+		buf.putShort((short)0);
+		buf.putInt(n);
+		buf.put(bytes, 0, length);
+		for (int i = length; i < MAX_ID_LENGTH; i++) {
+			buf.put((byte)0);
+		}
+
+		return n;
+	}
+
+	/**
+	 * Returns a buffer with room for one record. If the current buffer is
+	 * full, it is handed to the writer thread and an empty buffer is taken
+	 * (waiting for the writer if necessary).
+	 * @throws SimError if the writer thread has failed or stopped
+	 */
+	private ByteBuffer reserve() {
+		if (this.current.remaining() < RECORD_SIZE) {
+			checkWriter();
+			try {
+				this.full.put(this.current);
+				ByteBuffer buf;
+				while ((buf = this.free.poll(WRITER_CHECK_INTERVAL, 
+						TimeUnit.MILLISECONDS)) == null) {
+					checkWriter();
+				}
+				this.current = buf;
+			} catch (InterruptedException e) {
+				throw new SimError(e);
+			}
+		}
+		return this.current;
+	}
+
+	/**
+	 * Checks that the writer thread is still writing the buffers
+	 * @throws SimError if the writer thread has failed or stopped
+	 */
+	private void checkWriter() {
+		if (this.writeError != null) {
+			throw new SimError("Writing the routing trace failed: " +
+					this.writeError.getMessage());
+		}
+		if (!this.writer.isAlive()) {
+			throw new SimError("Routing trace writer thread has stopped");
+		}
+	}
+
+	/**
+	 * Main loop of the writer thread
+	 */
+	private void writeBuffers() {
+		try {
+			while (true) {
+				ByteBuffer buf = this.full.take();
+				buf.flip();
+				while (buf.hasRemaining()) {
+					this.channel.write(buf);
+				}
+				buf.clear();
+				this.free.put(buf);
+			}
+		} catch (InterruptedException e) {
+			return; // closed
+		} catch (IOException e) {
+			this.writeError = e;
+		}
+	}
+
+	/**
+	 * Writes the records that are still in memory to the file and closes
+	 * it. Called automatically when the JVM exits.
+	 */
+	public synchronized void close() {
+		if (this.mode == MODE_OFF || this.channel == null) {
+			return;
+		}
+		try {
+			/* wait until the writer has written all full buffers */
+			while (this.free.size() < NROF_BUFFERS - 1 && 
+					this.writeError == null && this.writer.isAlive()) {
+				Thread.sleep(1);
+			}
+			this.writer.interrupt();
+			this.current.flip();
+			while (this.current.hasRemaining()) {
+				this.channel.write(this.current);
+			}
+			this.channel.close();
+		} catch (IOException e) {
+			throw new SimError("Can't close routing trace file", e);
+		} catch (InterruptedException e) {
+			throw new SimError(e);
+		}
+		this.channel = null;
+		this.mode = MODE_OFF;
+	}
+}
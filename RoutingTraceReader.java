@@ -0,0 +1,141 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Converts routing trace files written by {@link RoutingTrace} to CSV.
+ * Every record except ID definitions becomes one line:
+ * <CODE>type,time,host,message,other,flags,a,b</CODE>, where the message is
+ * the original message ID and the meaning of the other columns depends on
+ * the type (see the record types of {@link RoutingTrace}).
+ * <P>
+ * Usage: <CODE>java routing.RoutingTraceReader traceFile [csvFile]</CODE>.
+ * If the CSV file is not given, the output is printed to standard
+ * output.</P>
+ */
+public class RoutingTraceReader {
+	/** Names of the record types in the CSV output */
+	private static final String[] TYPE_NAMES = {"?", "id", "send", "forward",
+		"modeswitch"};
+
+	private DataInputStream in;
+	/** Message IDs by their numbers */
+	private List<String> ids;
+
+	/**
+	 * Creates a reader for a trace file
+	 * @param fileName Name of the trace file
+	 * @throws IOException if the file can't be read or is not a trace file
+	 */
+	public RoutingTraceReader(String fileName) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(fileName), 1 << 16));
+		this.ids = new ArrayList<String>();
+
+		byte[] magic = new byte[RoutingTrace.MAGIC.length];
+		this.in.readFully(magic);
+		if (!Arrays.equals(magic, RoutingTrace.MAGIC)) {
+			throw new IOException(fileName + " is not a routing trace file");
+		}
+	}
+
+	/**
+	 * Writes all the records of the trace as CSV
+	 * @param out Where the CSV is written to
+	 * @return The number of records written
+	 * @throws IOException if reading the trace fails
+	 */
+	public int writeCsv(PrintStream out) throws IOException {
+		int count = 0;
+		byte[] idBytes = new byte[RoutingTrace.MAX_ID_LENGTH];
+
+		out.println("type,time,host,message,other,flags,a,b");
+		while (true) {
+			byte type;
+			try {
+				type = this.in.readByte();
+			} catch (EOFException e) {
+				break;
+			}
+
+			if (type == RoutingTrace.TYPE_ID) {
+				int length = this.in.readUnsignedByte();
+				this.in.readShort();
+				int number = this.in.readInt();
+				this.in.readFully(idBytes);
+				while (this.ids.size() <= number) {
+					this.ids.add(null);
+				}
+				this.ids.set(number, new String(idBytes, 0, length, "UTF-8"));
+				continue;
+			}
+
+			int flags = this.in.readUnsignedByte();
+			this.in.readShort();
+			int host = this.in.readInt();
+			int msg = this.in.readInt();
+			int other = this.in.readInt();
+			double time = this.in.readDouble();
+			double a = this.in.readDouble();
+			double b = this.in.readDouble();
+
+			String typeName = type > 0 && type < TYPE_NAMES.length ?
+					TYPE_NAMES[type] : String.valueOf(type);
+			String id = msg >= 0 && msg < this.ids.size() ?
+					this.ids.get(msg) : String.valueOf(msg);
+			out.println(typeName + "," + time + "," + host + "," + id + "," +
+					(other < 0 ? "" : String.valueOf(other)) + "," + flags +
+					"," + a + "," + b);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Closes the trace file
+	 * @throws IOException if closing fails
+	 */
+	public void close() throws IOException {
+		this.in.close();
+	}
+
+	/**
+	 * Converts a trace file to CSV
+	 * @param args trace file name and optional CSV file name
+	 * @throws IOException if reading or writing fails
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: RoutingTraceReader traceFile [csvFile]");
+			System.exit(1);
+		}
+
+		RoutingTraceReader reader = new RoutingTraceReader(args[0]);
+		PrintStream out = System.out;
+		if (args.length > 1) {
+			out = new PrintStream(new FileOutputStream(args[1]));
+		}
+
+		int count = reader.writeCsv(out);
+		reader.close();
+		out.flush();
+		if (out != System.out) {
+			out.close();
+			System.err.println(count + " records written to " + args[1]);
+		}
+	}
+}
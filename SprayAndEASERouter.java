@@ -0,0 +1,129 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.List;
+
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+import core.Settings;
+import core.SettingsError;
+
+/**
+ * Multi-copy variant of {@link EASERouter}. Every new message gets
+ * {@link #NROF_COPIES_S} copies that are spread binary spray style: a host
+ * that holds more than one copy of a message hands half of them to every
+ * neighbor it meets that hasn't got the message (nor been on its path)
+ * and keeps the rest. A host with a single copy forwards it with the EASE
+ * rules (encounter age and anchor points) without keeping a copy, so every
+ * copy travels to the destination independently.
+ * <P>
+ * All the hosts must use this router, since the number of copies is
+ * halved by the receiving router. The copies are kept in the
+ * {@link EASEHeader} of the message.</P>
+ */
+public class SprayAndEASERouter extends EASERouter {
+	/** Spray and EASE router's settings name space ({@value})*/
+	public static final String SPRAY_NS = "SprayAndEASERouter";
+	/** Number of copies of a new message -setting id ({@value}). Default
+	 * is 4; with 1 the router works like {@link EASERouter}. */
+	public static final String NROF_COPIES_S = "nrofCopies";
+
+	private int nrofCopies = 4;
+
+	/**
+	 * Constructor. Creates a new router based on the settings in the given
+	 * Settings object and the {@link #SPRAY_NS} and
+	 * {@link EASERouter#EASE_NS} namespaces.
+	 * @param s The settings object
+	 */
+	public SprayAndEASERouter(Settings s) {
+		super(s);
+		Settings spraySettings = new Settings(SPRAY_NS);
+		if (spraySettings.contains(NROF_COPIES_S)) {
+			nrofCopies = spraySettings.getInt(NROF_COPIES_S);
+			if (nrofCopies < 1) {
+				throw new SettingsError("Invalid value for " +
+						spraySettings.getFullPropertyName(NROF_COPIES_S));
+			}
+		}
+	}
+
+	/**
+	 * Copy constructor.
+	 * @param r The router prototype where setting values are copied from
+	 */
+	protected SprayAndEASERouter(SprayAndEASERouter r) {
+		super(r);
+		this.nrofCopies = r.nrofCopies;
+	}
+
+	@Override
+	public boolean createNewMessage(Message m) {
+		boolean created = super.createNewMessage(m);
+		EASEHeader.of(m).setCopies(nrofCopies);
+		return created;
+	}
+
+	/**
+	 * Plans handing half of the copies of a message to each neighbor that
+	 * hasn't been on the message's path, if this host has more than one
+	 * copy. The neighbors are tried in order until one accepts the message
+	 * (see {@link EASERouter#commit(RoutingPlan)}).
+	 */
+	@Override
+	protected boolean planCopies(Message m, EASEHeader header, 
+			RoutingPlan plan) {
+		if (header.getCopies() <= 1) {
+			return false;
+		}
+
+		boolean planned = false;
+		List<Connection> connections = getConnections();
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			Connection con = connections.get(i);
+			if (con.isUp() && !hasVisited(m, con.getOtherNode(getHost()))) {
+				plan.addTransfer(m, con, RoutingPlan.SPRAY);
+				planned = true;
+			}
+		}
+		return planned;
+	}
+
+	/**
+	 * Keeps the message and half of its copies (rounded up) if the message
+	 * had more than one copy and was not delivered to its destination.
+	 * Otherwise the message is deleted.
+	 */
+	@Override
+	protected void forwarded(Message m, DTNHost to) {
+		Message own = getMessage(m.getId());
+		EASEHeader header = own == null ? null : EASEHeader.of(own);
+		if (header != null && header.getCopies() > 1 && to != m.getTo()) {
+			header.setCopies(header.getCopies() - header.getCopies() / 2);
+			return;
+		}
+		super.forwarded(m, to);
+	}
+
+	/**
+	 * Returns this host's own copy of the header of a received message.
+	 * The receiver gets half of the sender's copies (rounded down).
+	 */
+	@Override
+	protected EASEHeader copyHeader(EASEHeader header) {
+		EASEHeader copy = super.copyHeader(header);
+		if (copy.getCopies() > 1) {
+			copy.setCopies(copy.getCopies() / 2);
+		}
+		return copy;
+	}
+
+	@Override
+	public MessageRouter replicate() {
+		return new SprayAndEASERouter(this);
+	}
+}
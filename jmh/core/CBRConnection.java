@@ -0,0 +1,56 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's constant bit-rate connection (see
+ * jmh/README.txt).
+ */
+public class CBRConnection extends Connection {
+	private int speed;
+	private double transferDoneTime;
+
+	public CBRConnection(DTNHost fromNode, DTNHost toNode, int connectionSpeed) {
+		super(fromNode, toNode);
+		this.speed = connectionSpeed;
+		this.transferDoneTime = 0;
+	}
+
+	public int startTransfer(DTNHost from, Message m) {
+		assert this.msgOnFly == null : "Already transferring " +
+			this.msgOnFly + " from " + this.msgFromNode + " to " +
+			this.getOtherNode(this.msgFromNode) + ". Can't " +
+			"start transfer of " + m + " from " + from;
+
+		Message newMessage = m.replicate();
+		int retVal = getOtherNode(from).receiveMessage(newMessage, from);
+
+		if (retVal == 0) { // RCV_OK
+			this.msgFromNode = from;
+			this.msgOnFly = newMessage;
+			this.transferDoneTime = SimClock.getTime() +
+				(1.0 * m.getSize()) / this.speed;
+		}
+		return retVal;
+	}
+
+	public boolean isMessageTransferred() {
+		return this.msgOnFly != null &&
+			SimClock.getTime() >= this.transferDoneTime;
+	}
+
+	public double getSpeed() {
+		return this.speed;
+	}
+
+	public int getRemainingByteCount() {
+		if (this.msgOnFly == null) {
+			return 0;
+		}
+		int remaining = (int)((this.transferDoneTime - SimClock.getTime()) *
+				this.speed);
+		return remaining > 0 ? remaining : 0;
+	}
+}
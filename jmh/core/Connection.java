@@ -0,0 +1,80 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's connection class (see jmh/README.txt).
+ */
+public abstract class Connection {
+	protected DTNHost toNode;
+	protected DTNHost fromNode;
+	protected DTNHost msgFromNode;
+	protected Message msgOnFly;
+	private boolean isUp;
+
+	public Connection(DTNHost fromNode, DTNHost toNode) {
+		this.fromNode = fromNode;
+		this.toNode = toNode;
+		this.isUp = true;
+	}
+
+	public boolean isUp() {
+		return this.isUp;
+	}
+
+	public void setUpState(boolean state) {
+		this.isUp = state;
+	}
+
+	public boolean isTransferring() {
+		return this.msgOnFly != null;
+	}
+
+	public boolean isInitiator(DTNHost node) {
+		return node == this.fromNode;
+	}
+
+	public abstract int startTransfer(DTNHost from, Message m);
+
+	public void finalizeTransfer() {
+		getOtherNode(this.msgFromNode).messageTransferred(this.msgOnFly.getId(),
+				this.msgFromNode);
+		clearMsgOnFly();
+	}
+
+	protected void clearMsgOnFly() {
+		this.msgOnFly = null;
+		this.msgFromNode = null;
+	}
+
+	public abstract boolean isMessageTransferred();
+
+	public boolean isReadyForTransfer() {
+		return this.isUp && this.msgOnFly == null;
+	}
+
+	public Message getMessage() {
+		return this.msgOnFly;
+	}
+
+	public abstract double getSpeed();
+
+	public abstract int getRemainingByteCount();
+
+	public void abortTransfer() {
+		assert this.msgOnFly != null : "No message to abort at " + this;
+		getOtherNode(this.msgFromNode).messageAborted(this.msgOnFly.getId(),
+				this.msgFromNode, getRemainingByteCount());
+		clearMsgOnFly();
+	}
+
+	public DTNHost getOtherNode(DTNHost node) {
+		return node == this.fromNode ? this.toNode : this.fromNode;
+	}
+
+	public String toString() {
+		return this.fromNode + "<->" + this.toNode;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's coordinate class for the benchmarks and
+ * tests (see jmh/README.txt).
+ */
+public class Coord implements Cloneable, Comparable<Coord> {
+	private double x;
+	private double y;
+
+	public Coord(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public void setLocation(Coord c) {
+		this.x = c.x;
+		this.y = c.y;
+	}
+
+	public void setLocation(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public void translate(double dx, double dy) {
+		this.x += dx;
+		this.y += dy;
+	}
+
+	public double distance(Coord other) {
+		double dx = other.x - this.x;
+		double dy = other.y - this.y;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public double getX() {
+		return this.x;
+	}
+
+	public double getY() {
+		return this.y;
+	}
+
+	@Override
+	public Coord clone() {
+		return new Coord(this.x, this.y);
+	}
+
+	public int compareTo(Coord other) {
+		if (this.y != other.y) {
+			return this.y < other.y ? -1 : 1;
+		}
+		return this.x < other.x ? -1 : (this.x > other.x ? 1 : 0);
+	}
+
+	public String toString() {
+		return "(" + this.x + "," + this.y + ")";
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import routing.MessageRouter;
+
+/**
+ * Stand-in of the simulator's host class (see jmh/README.txt). Instead of
+ * movement and network interfaces the hosts are moved with
+ * {@link #setLocation(Coord)} and connected with
+ * {@link #connect(DTNHost, int)} and {@link #disconnect(DTNHost)}.
+ */
+public class DTNHost implements Comparable<DTNHost> {
+	private int address;
+	private Coord location;
+	private String name;
+	private List<Connection> connections;
+	private MessageRouter router;
+
+	public DTNHost(int address, Coord location) {
+		this.address = address;
+		this.location = location;
+		this.name = "n" + address;
+		this.connections = new ArrayList<Connection>();
+	}
+
+	public int getAddress() {
+		return this.address;
+	}
+
+	public List<Connection> getConnections() {
+		return this.connections;
+	}
+
+	public Coord getLocation() {
+		return this.location;
+	}
+
+	public void setLocation(Coord location) {
+		this.location = location;
+	}
+
+	public MessageRouter getRouter() {
+		return this.router;
+	}
+
+	public void setRouter(MessageRouter router) {
+		this.router = router;
+	}
+
+	public RoutingInfo getRoutingInfo() {
+		return this.router.getRoutingInfo();
+	}
+
+	public int receiveMessage(Message m, DTNHost from) {
+		int retVal = this.router.receiveMessage(m, from);
+		if (retVal == MessageRouter.RCV_OK) {
+			m.addNodeOnPath(this);
+		}
+		return retVal;
+	}
+
+	public Message messageTransferred(String id, DTNHost from) {
+		return this.router.messageTransferred(id, from);
+	}
+
+	public void messageAborted(String id, DTNHost from, int bytesRemaining) {
+		this.router.messageAborted(id, from, bytesRemaining);
+	}
+
+	public boolean requestDeliverableMessages(Connection con) {
+		return this.router.requestDeliverableMessages(con);
+	}
+
+	public void update() {
+		this.router.update();
+	}
+
+	/**
+	 * Connects this host to another host and tells both routers
+	 * @param other The other host
+	 * @param speed Speed of the connection (bytes per second)
+	 * @return The new connection
+	 */
+	public Connection connect(DTNHost other, int speed) {
+		Connection con = new CBRConnection(this, other, speed);
+		this.connections.add(con);
+		other.connections.add(con);
+		this.router.changedConnection(con);
+		other.router.changedConnection(con);
+		return con;
+	}
+
+	/**
+	 * Tears down the connection between this host and another host, if
+	 * there is one, and tells both routers
+	 * @param other The other host
+	 */
+	public void disconnect(DTNHost other) {
+		for (int i = 0; i < this.connections.size(); i++) {
+			Connection con = this.connections.get(i);
+			if (con.getOtherNode(this) == other) {
+				con.setUpState(false);
+				this.connections.remove(i);
+				other.connections.remove(con);
+				this.router.changedConnection(con);
+				other.router.changedConnection(con);
+				return;
+			}
+		}
+	}
+
+	public String toString() {
+		return this.name;
+	}
+
+	public int compareTo(DTNHost h) {
+		return this.address - h.address;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in of the simulator's message class (see jmh/README.txt).
+ */
+public class Message implements Comparable<Message> {
+	/** Value for infinite TTL of message */
+	public static final int INFINITE_TTL = -1;
+	private DTNHost from;
+	private DTNHost to;
+	private String id;
+	private int size;
+	private List<DTNHost> path;
+	private int ttl;
+	private double timeReceived;
+	private double timeCreated;
+	private Map<String, Object> properties;
+
+	public Message(DTNHost from, DTNHost to, String id, int size) {
+		this.from = from;
+		this.to = to;
+		this.id = id;
+		this.size = size;
+		this.path = new ArrayList<DTNHost>();
+		this.path.add(from);
+		this.ttl = INFINITE_TTL;
+		this.timeCreated = SimClock.getTime();
+		this.timeReceived = this.timeCreated;
+	}
+
+	public DTNHost getFrom() {
+		return this.from;
+	}
+
+	public DTNHost getTo() {
+		return this.to;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	public void addNodeOnPath(DTNHost node) {
+		this.path.add(node);
+	}
+
+	public List<DTNHost> getHops() {
+		return this.path;
+	}
+
+	public int getHopCount() {
+		return this.path.size() - 1;
+	}
+
+	public int getTtl() {
+		if (this.ttl == INFINITE_TTL) {
+			return Integer.MAX_VALUE;
+		}
+		return (int)(((this.ttl * 60) -
+				(SimClock.getTime() - this.timeCreated)) / 60.0);
+	}
+
+	public void setTtl(int ttl) {
+		this.ttl = ttl;
+	}
+
+	public void setReceiveTime(double time) {
+		this.timeReceived = time;
+	}
+
+	public double getReceiveTime() {
+		return this.timeReceived;
+	}
+
+	public double getCreationTime() {
+		return this.timeCreated;
+	}
+
+	public void addProperty(String key, Object value) throws SimError {
+		if (this.properties != null && this.properties.containsKey(key)) {
+			throw new SimError("Message " + this + " already contains value " +
+					"for a key " + key);
+		}
+		this.updateProperty(key, value);
+	}
+
+	public Object getProperty(String key) {
+		if (this.properties == null) {
+			return null;
+		}
+		return this.properties.get(key);
+	}
+
+	public void updateProperty(String key, Object value) throws SimError {
+		if (this.properties == null) {
+			this.properties = new HashMap<String, Object>();
+		}
+		this.properties.put(key, value);
+	}
+
+	public Message replicate() {
+		Message m = new Message(this.from, this.to, this.id, this.size);
+		m.copyFrom(this);
+		return m;
+	}
+
+	protected void copyFrom(Message m) {
+		this.path = new ArrayList<DTNHost>(m.path);
+		this.ttl = m.ttl;
+		this.timeCreated = m.timeCreated;
+		this.timeReceived = m.timeReceived;
+		if (m.properties != null) {
+			for (Map.Entry<String, Object> e : m.properties.entrySet()) {
+				updateProperty(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	public int compareTo(Message m) {
+		return this.id.compareTo(m.id);
+	}
+
+	public String toString() {
+		return this.id;
+	}
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's message event listener (see
+ * jmh/README.txt).
+ */
+public interface MessageListener {
+	public void newMessage(Message m);
+
+	public void messageTransferStarted(Message m, DTNHost from, DTNHost to);
+
+	public void messageDeleted(Message m, DTNHost where, boolean dropped);
+
+	public void messageTransferAborted(Message m, DTNHost from, DTNHost to);
+
+	public void messageTransferred(Message m, DTNHost from, DTNHost to,
+			boolean firstDelivery);
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stand-in of the simulator's routing information tree (see
+ * jmh/README.txt).
+ */
+public class RoutingInfo {
+	private String text;
+	private List<RoutingInfo> moreInfo = null;
+
+	public RoutingInfo(String infoText) {
+		this.text = infoText;
+	}
+
+	public RoutingInfo(Object o) {
+		this(o.toString());
+	}
+
+	public void addMoreInfo(RoutingInfo info) {
+		if (this.moreInfo == null) {
+			this.moreInfo = new ArrayList<RoutingInfo>();
+		}
+		this.moreInfo.add(info);
+	}
+
+	public List<RoutingInfo> getMoreInfo() {
+		if (this.moreInfo == null) {
+			return new ArrayList<RoutingInfo>(0);
+		}
+		return this.moreInfo;
+	}
+
+	public String toString() {
+		return this.text;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's settings class (see jmh/README.txt). The
+ * settings are read from the system properties, e.g. the setting
+ * <code>EASERouter.tableRefresh</code> is the value of
+ * <code>-DEASERouter.tableRefresh=...</code> or of
+ * <code>System.setProperty("EASERouter.tableRefresh", ...)</code>.
+ */
+public class Settings {
+	private String namespace;
+
+	public Settings() {
+		this(null);
+	}
+
+	public Settings(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public void setNameSpace(String namespace) {
+		this.namespace = namespace;
+	}
+
+	public void setSubNameSpace(String namespace) {
+		this.namespace = this.namespace + "." + namespace;
+	}
+
+	public String getNameSpace() {
+		return this.namespace;
+	}
+
+	public String getFullPropertyName(String name) {
+		return this.namespace == null ? name : this.namespace + "." + name;
+	}
+
+	public boolean contains(String name) {
+		return System.getProperty(getFullPropertyName(name)) != null;
+	}
+
+	public String getSetting(String name) {
+		String value = System.getProperty(getFullPropertyName(name));
+		if (value == null) {
+			throw new SettingsError("Can't find setting " +
+					getFullPropertyName(name));
+		}
+		return value.trim();
+	}
+
+	public String getSetting(String name, String defaultValue) {
+		return contains(name) ? getSetting(name) : defaultValue;
+	}
+
+	public double getDouble(String name) {
+		try {
+			return Double.parseDouble(getSetting(name));
+		} catch (NumberFormatException e) {
+			throw new SettingsError("Invalid numeric setting '" +
+					getSetting(name) + "' for '" +
+					getFullPropertyName(name) + "'", e);
+		}
+	}
+
+	public double getDouble(String name, double defaultValue) {
+		return contains(name) ? getDouble(name) : defaultValue;
+	}
+
+	public int getInt(String name) {
+		return (int)getDouble(name);
+	}
+
+	public int getInt(String name, int defaultValue) {
+		return contains(name) ? getInt(name) : defaultValue;
+	}
+
+	public boolean getBoolean(String name) {
+		String value = getSetting(name);
+		return value.equalsIgnoreCase("true") || value.equals("1");
+	}
+
+	public boolean getBoolean(String name, boolean defaultValue) {
+		return contains(name) ? getBoolean(name) : defaultValue;
+	}
+
+	public double[] getCsvDoubles(String name) {
+		String[] values = getSetting(name).split(",");
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = Double.parseDouble(values[i].trim());
+		}
+		return result;
+	}
+
+	public int[] getCsvInts(String name) {
+		double[] values = getCsvDoubles(name);
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (int)values[i];
+		}
+		return result;
+	}
+}
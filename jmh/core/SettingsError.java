@@ -0,0 +1,24 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's settings error (see jmh/README.txt).
+ */
+public class SettingsError extends SimError {
+	private static final long serialVersionUID = 1L;
+
+	public SettingsError(String cause) {
+		super(cause);
+	}
+
+	public SettingsError(String cause, Exception e) {
+		super(cause, e);
+	}
+
+	public SettingsError(Exception e) {
+		super(e);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's clock (see jmh/README.txt).
+ */
+public class SimClock {
+	private static double clockTime = 0;
+	private static SimClock clock = new SimClock();
+
+	private SimClock() { }
+
+	public static SimClock getInstance() {
+		return clock;
+	}
+
+	public void advance(double time) {
+		clockTime += time;
+	}
+
+	public void setTime(double time) {
+		clockTime = time;
+	}
+
+	public static double getTime() {
+		return clockTime;
+	}
+
+	public static int getIntTime() {
+		return (int)clockTime;
+	}
+
+	public static void reset() {
+		clockTime = 0;
+	}
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's error class (see jmh/README.txt).
+ */
+public class SimError extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	public SimError(String cause) {
+		super(cause);
+	}
+
+	public SimError(String cause, Exception e) {
+		super(cause, e);
+	}
+
+	public SimError(Exception e) {
+		super(e);
+	}
+}
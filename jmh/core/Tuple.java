@@ -0,0 +1,30 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package core;
+
+/**
+ * Stand-in of the simulator's key-value pair (see jmh/README.txt).
+ */
+public class Tuple<K, V> {
+	private K key;
+	private V value;
+
+	public Tuple(K key, V value) {
+		this.key = key;
+		this.value = value;
+	}
+
+	public K getKey() {
+		return this.key;
+	}
+
+	public V getValue() {
+		return this.value;
+	}
+
+	public String toString() {
+		return this.key + ":" + this.value;
+	}
+}
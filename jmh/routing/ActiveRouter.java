@@ -0,0 +1,264 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import core.Connection;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+import core.SimClock;
+import core.Tuple;
+
+/**
+ * Stand-in of the simulator's active router (see jmh/README.txt). Only the
+ * parts used by {@link EASERouter} are here.
+ */
+public abstract class ActiveRouter extends MessageRouter {
+	/** Delete delivered messages -setting id ({@value}). */
+	public static final String DELETE_DELIVERED_S = "deleteDelivered";
+	/** should messages that final recipient marks as delivered be deleted
+	 * from message buffer */
+	protected boolean deleteDelivered = false;
+	/** connection(s) that are currently used for sending */
+	protected ArrayList<Connection> sendingConnections;
+	/** sim time when the last TTL check was done */
+	private double lastTtlCheck;
+
+	public ActiveRouter(Settings s) {
+		super(s);
+	}
+
+	protected ActiveRouter(ActiveRouter r) {
+		super(r);
+		this.deleteDelivered = r.deleteDelivered;
+	}
+
+	@Override
+	public void init(DTNHost host, List<MessageListener> mListeners) {
+		super.init(host, mListeners);
+		this.sendingConnections = new ArrayList<Connection>(1);
+		this.lastTtlCheck = 0;
+	}
+
+	@Override
+	public void changedConnection(Connection con) { }
+
+	@Override
+	public boolean requestDeliverableMessages(Connection con) {
+		if (isTransferring()) {
+			return false;
+		}
+		DTNHost other = con.getOtherNode(getHost());
+		ArrayList<Message> temp =
+			new ArrayList<Message>(this.getMessageCollection());
+		for (Message m : temp) {
+			if (other == m.getTo()) {
+				if (startTransfer(m, con) == RCV_OK) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean createNewMessage(Message m) {
+		makeRoomForNewMessage(m.getSize());
+		return super.createNewMessage(m);
+	}
+
+	@Override
+	public int receiveMessage(Message m, DTNHost from) {
+		int recvCheck = checkReceiving(m);
+		if (recvCheck != RCV_OK) {
+			return recvCheck;
+		}
+		return super.receiveMessage(m, from);
+	}
+
+	protected List<Connection> getConnections() {
+		return getHost().getConnections();
+	}
+
+	protected int startTransfer(Message m, Connection con) {
+		if (!con.isReadyForTransfer()) {
+			return TRY_LATER_BUSY;
+		}
+		int retVal = con.startTransfer(getHost(), m);
+		if (retVal == RCV_OK) {
+			this.sendingConnections.add(con);
+		}
+		else if (this.deleteDelivered && retVal == DENIED_OLD &&
+				m.getTo() == con.getOtherNode(this.getHost())) {
+			this.deleteMessage(m.getId(), false);
+		}
+		return retVal;
+	}
+
+	protected boolean canStartTransfer() {
+		return this.getNrofMessages() > 0 && this.getConnections().size() > 0;
+	}
+
+	protected int checkReceiving(Message m) {
+		if (isTransferring()) {
+			return TRY_LATER_BUSY;
+		}
+		if (hasMessage(m.getId()) || isDeliveredMessage(m)) {
+			return DENIED_OLD;
+		}
+		if (m.getTtl() <= 0 && m.getTo() != getHost()) {
+			return DENIED_TTL;
+		}
+		if (!makeRoomForMessage(m.getSize())) {
+			return DENIED_NO_SPACE;
+		}
+		return RCV_OK;
+	}
+
+	protected boolean makeRoomForMessage(int size) {
+		if (size > this.getBufferSize()) {
+			return false;
+		}
+		int freeBuffer = this.getFreeBufferSize();
+		while (freeBuffer < size) {
+			Message m = getOldestMessage(true);
+			if (m == null) {
+				return false;
+			}
+			deleteMessage(m.getId(), true);
+			freeBuffer += m.getSize();
+		}
+		return true;
+	}
+
+	protected void dropExpiredMessages() {
+		Message[] messages = getMessageCollection().toArray(new Message[0]);
+		for (int i = 0; i < messages.length; i++) {
+			if (messages[i].getTtl() <= 0) {
+				deleteMessage(messages[i].getId(), true);
+			}
+		}
+	}
+
+	protected void makeRoomForNewMessage(int size) {
+		makeRoomForMessage(size);
+	}
+
+	protected Message getOldestMessage(boolean excludeMsgBeingSent) {
+		Message oldest = null;
+		for (Message m : getMessageCollection()) {
+			if (excludeMsgBeingSent && isSending(m.getId())) {
+				continue;
+			}
+			if (oldest == null ||
+					oldest.getReceiveTime() > m.getReceiveTime()) {
+				oldest = m;
+			}
+		}
+		return oldest;
+	}
+
+	protected List<Tuple<Message, Connection>> getMessagesForConnected() {
+		List<Tuple<Message, Connection>> forTuples =
+			new ArrayList<Tuple<Message, Connection>>();
+		for (Message m : getMessageCollection()) {
+			for (Connection con : getConnections()) {
+				if (m.getTo() == con.getOtherNode(getHost())) {
+					forTuples.add(new Tuple<Message, Connection>(m, con));
+				}
+			}
+		}
+		return forTuples;
+	}
+
+	protected Connection exchangeDeliverableMessages() {
+		List<Connection> connections = getConnections();
+		if (connections.size() == 0) {
+			return null;
+		}
+		List<Tuple<Message, Connection>> messages =
+			sortByQueueMode(getMessagesForConnected());
+		for (Tuple<Message, Connection> t : messages) {
+			if (startTransfer(t.getKey(), t.getValue()) == RCV_OK) {
+				return t.getValue();
+			}
+		}
+		for (Connection con : connections) {
+			if (con.getOtherNode(getHost()).requestDeliverableMessages(con)) {
+				return con;
+			}
+		}
+		return null;
+	}
+
+	public boolean isTransferring() {
+		if (this.sendingConnections.size() > 0) {
+			return true;
+		}
+		List<Connection> connections = getConnections();
+		for (int i = 0, n = connections.size(); i < n; i++) {
+			if (!connections.get(i).isReadyForTransfer()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isSending(String msgId) {
+		for (Connection con : this.sendingConnections) {
+			if (con.getMessage() == null) {
+				continue;
+			}
+			if (con.getMessage().getId().equals(msgId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void update() {
+		for (int i = 0; i < this.sendingConnections.size(); ) {
+			boolean removeCurrent = false;
+			Connection con = this.sendingConnections.get(i);
+
+			if (con.isMessageTransferred()) {
+				if (con.getMessage() != null) {
+					transferDone(con);
+					con.finalizeTransfer();
+				}
+				removeCurrent = true;
+			}
+			else if (!con.isUp()) {
+				if (con.getMessage() != null) {
+					transferAborted(con);
+					con.abortTransfer();
+				}
+				removeCurrent = true;
+			}
+
+			if (removeCurrent) {
+				this.sendingConnections.remove(i);
+			}
+			else {
+				i++;
+			}
+		}
+
+		if (SimClock.getTime() - this.lastTtlCheck >= 60 &&
+				this.sendingConnections.size() == 0) {
+			dropExpiredMessages();
+			this.lastTtlCheck = SimClock.getTime();
+		}
+	}
+
+	protected void transferAborted(Connection con) { }
+
+	protected void transferDone(Connection con) { }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import core.Connection;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+
+/**
+ * Benchmarks of the message buffer of {@link MessageRouter}: receiving a
+ * message and dropping one with a full buffer, the free space query and
+ * getting the buffered messages in the sending queue order. Run with
+ * <CODE>-prof gc</CODE> to see the allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+	/** Settings namespace of the benchmark routers */
+	private static final String NS = "BufferBenchmark";
+
+	@Param({"100", "1000", "10000"})
+	private int bufferSize;
+
+	@Param({"" + MessageRouter.Q_MODE_FIFO,
+		"" + MessageRouter.Q_MODE_SHORTEST_TTL})
+	private int sendQueue;
+
+	private BenchRouter router;
+	/** The buffer holds bufferSize consecutive messages of the pool */
+	private Message[] pool;
+	private int next;
+	private List<Message> list;
+
+	/**
+	 * Message router that does nothing on its own; the benchmarks call its
+	 * buffer methods directly
+	 */
+	private static class BenchRouter extends MessageRouter {
+		private BenchRouter(Settings s) {
+			super(s);
+			init(null, new ArrayList<MessageListener>());
+		}
+
+		private BenchRouter(BenchRouter r) {
+			super(r);
+		}
+
+		public void update() { }
+
+		public void changedConnection(Connection con) { }
+
+		public MessageRouter replicate() {
+			return new BenchRouter(this);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		System.setProperty(NS + "." + MessageRouter.SEND_QUEUE_MODE_S,
+				String.valueOf(this.sendQueue));
+		this.router = new BenchRouter(new Settings(NS));
+		this.pool = createMessages(this.bufferSize * 2, "M");
+		for (int i = 0; i < this.bufferSize; i++) {
+			this.router.addToMessages(this.pool[i], false);
+		}
+		this.next = this.bufferSize;
+		this.list = new ArrayList<Message>(this.bufferSize);
+	}
+
+	/**
+	 * Creates the messages used by the buffer benchmarks
+	 * @param count Number of messages
+	 * @param prefix Prefix of the message IDs
+	 * @return The messages
+	 */
+	static Message[] createMessages(int count, String prefix) {
+		Random rng = new Random(count);
+		Message[] msgs = new Message[count];
+		for (int i = 0; i < count; i++) {
+			msgs[i] = new Message(null, null, prefix + i, 100 + rng.nextInt(900));
+			msgs[i].setReceiveTime(i);
+			msgs[i].setTtl(1 + rng.nextInt(1000));
+		}
+		return msgs;
+	}
+
+	/**
+	 * Receiving a message from a neighbor and completing the transfer,
+	 * then buffering a message and dropping the oldest one. The router has
+	 * no host, so the received messages are delivered to it and the buffer
+	 * is exercised separately.
+	 */
+	@Benchmark
+	public int transfer() {
+		Message in = this.pool[this.next];
+		Message out = this.pool[(this.next + this.bufferSize) % 
+		                        this.pool.length];
+		this.router.receiveMessage(in, null);
+		this.router.messageTransferred(in.getId(), null);
+		this.router.addToMessages(in, false);
+		this.router.deleteMessage(out.getId(), true);
+		this.next = (this.next + 1) % this.pool.length;
+		return this.router.getFreeBufferSize();
+	}
+
+	/**
+	 * Free buffer space query with a full buffer
+	 */
+	@Benchmark
+	public int freeBufferSize() {
+		return this.router.getFreeBufferSize();
+	}
+
+	/**
+	 * Sorting the buffered messages with sortByQueueMode
+	 */
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public int queueSort() {
+		this.list.addAll(this.router.getMessageCollection());
+		this.router.sortByQueueMode(this.list);
+		int size = this.list.get(0).getSize();
+		this.list.clear();
+		return size;
+	}
+
+	/**
+	 * Getting the buffered messages in the maintained sending queue order
+	 */
+	@Benchmark
+	public int queueOrdered() {
+		this.router.getMessagesInQueueOrder(this.list);
+		int size = this.list.get(0).getSize();
+		this.list.clear();
+		return size;
+	}
+}
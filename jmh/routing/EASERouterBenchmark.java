@@ -0,0 +1,242 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+import core.SimClock;
+
+/**
+ * Benchmarks of the two hot paths of {@link EASERouter}: an update of a
+ * router that has messages to forward and neighbors to forward them to,
+ * and the completion of a received transfer
+ * ({@link EASERouter#messageTransferred(String, DTNHost)}).
+ * <P>
+ * In the update benchmark every neighbor already has all the messages of
+ * the router, so every planned transfer is denied and the state of the
+ * router doesn't change between the updates: each update makes the same
+ * decisions (encounter table lookups, neighbor grid queries, the sending
+ * queue) and tries the same transfers. The simulation time advances one
+ * second per update, so the lattice positions are recomputed as in a
+ * simulation.</P>
+ * <P>
+ * The transfer benchmark receives a replicate of a message from a
+ * neighbor, completes the transfer and deletes the message again, with
+ * a full buffer of other messages. Receiving and aborting the transfer is
+ * measured as the baseline.</P>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EASERouterBenchmark {
+	/** Settings namespace of the benchmark routers */
+	private static final String NS = "EASERouterBenchmark";
+	/** Speed of the connections (bytes per second) */
+	private static final int SPEED = 250000;
+	/** Number of destinations of the messages */
+	private static final int NROF_DESTINATIONS = 100;
+
+	/**
+	 * Creates a host with an EASE router that has no neighbor table
+	 * refreshes
+	 * @param address Address of the host
+	 * @param location Location of the host
+	 * @return The host
+	 */
+	private static DTNHost createHost(int address, Coord location) {
+		System.setProperty(EASERouter.EASE_NS + "." +
+				EASERouter.TABLE_REFRESH_S, "1e9");
+		DTNHost host = new DTNHost(address, location);
+		EASERouter router = new EASERouter(new Settings(NS));
+		router.init(host, new ArrayList<MessageListener>());
+		host.setRouter(router);
+		return host;
+	}
+
+	/**
+	 * Creates the destinations of the messages. They are never connected,
+	 * so they have no routers.
+	 * @param firstAddress Address of the first destination
+	 * @return The destinations
+	 */
+	private static DTNHost[] createDestinations(int firstAddress) {
+		DTNHost[] destinations = new DTNHost[NROF_DESTINATIONS];
+		for (int i = 0; i < destinations.length; i++) {
+			destinations[i] = new DTNHost(firstAddress + i, new Coord(0, 0));
+		}
+		return destinations;
+	}
+
+	/**
+	 * Adds random encounters with the destinations to an encounter table
+	 * @param table The table
+	 * @param destinations The destinations
+	 * @param rng The random number generator
+	 * @param maxTime Latest encounter time
+	 */
+	private static void addEncounters(EncounterTable table,
+			DTNHost[] destinations, Random rng, double maxTime) {
+		for (DTNHost d : destinations) {
+			if (rng.nextBoolean()) {
+				table.put(d.getAddress(), rng.nextDouble() * maxTime,
+						rng.nextInt(100), rng.nextInt(100));
+			}
+		}
+	}
+
+	/**
+	 * A router with buffered messages and connected neighbors who already
+	 * have all the messages
+	 */
+	@State(Scope.Thread)
+	public static class UpdateState {
+		@Param({"100", "1000"})
+		private int nrofMessages;
+
+		@Param({"4", "32"})
+		private int nrofNeighbors;
+
+		private EASERouter router;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random rng = new Random(1);
+			SimClock.getInstance().setTime(0);
+			DTNHost host = createHost(0, new Coord(500, 500));
+			List<DTNHost> all = new ArrayList<DTNHost>();
+			all.add(host);
+			for (int i = 1; i <= this.nrofNeighbors; i++) {
+				double angle = 2 * Math.PI * i / this.nrofNeighbors;
+				all.add(createHost(i, new Coord(500 + 8 * Math.cos(angle),
+						500 + 8 * Math.sin(angle))));
+			}
+			DTNHost[] destinations = createDestinations(all.size());
+			this.router = (EASERouter)host.getRouter();
+			addEncounters(this.router.getEncounterTable(), destinations, rng,
+					500);
+			for (int i = 1; i < all.size(); i++) {
+				addEncounters(((EASERouter)all.get(i).getRouter()).
+						getEncounterTable(), destinations, rng, 1000);
+			}
+
+			SimClock.getInstance().setTime(1000);
+			for (int i = 0; i < this.nrofMessages; i++) {
+				DTNHost to = destinations[rng.nextInt(destinations.length)];
+				int size = 1000 + rng.nextInt(9000);
+				for (DTNHost h : all) {
+					h.getRouter().createNewMessage(
+							new Message(host, to, "M" + i, size));
+				}
+			}
+
+			/* exchange the encounter tables */
+			for (int i = 1; i < all.size(); i++) {
+				host.connect(all.get(i), SPEED);
+			}
+			for (int i = 0; i < 4 * all.size(); i++) {
+				SimClock.getInstance().advance(1);
+				for (DTNHost h : all) {
+					h.update();
+				}
+			}
+
+			if (this.router.getNeighborStates().size() != this.nrofNeighbors ||
+					this.router.getNrofMessages() != this.nrofMessages ||
+					this.router.isTransferring()) {
+				throw new IllegalStateException("Router didn't settle: " +
+						this.router.getNrofMessages() + " messages, " +
+						this.router.getNeighborStates().size() +
+						" neighbor tables");
+			}
+		}
+	}
+
+	/**
+	 * A router with a full buffer and a connected neighbor that sends it a
+	 * message
+	 */
+	@State(Scope.Thread)
+	public static class TransferState {
+		@Param({"100", "1000", "10000"})
+		private int nrofMessages;
+
+		private EASERouter router;
+		private DTNHost from;
+		private Message message;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random rng = new Random(2);
+			SimClock.getInstance().setTime(0);
+			DTNHost host = createHost(0, new Coord(500, 500));
+			this.from = createHost(1, new Coord(505, 500));
+			DTNHost[] destinations = createDestinations(2);
+			this.router = (EASERouter)host.getRouter();
+			addEncounters(this.router.getEncounterTable(), destinations, rng,
+					1000);
+			host.connect(this.from, SPEED);
+
+			SimClock.getInstance().setTime(1000);
+			for (int i = 0; i < this.nrofMessages; i++) {
+				this.router.createNewMessage(new Message(host,
+						destinations[rng.nextInt(destinations.length)],
+						"M" + i, 1000));
+			}
+			this.message = new Message(this.from, destinations[0], "IN", 1000);
+			this.from.getRouter().createNewMessage(this.message);
+		}
+	}
+
+	@Benchmark
+	public int update(UpdateState s) {
+		SimClock.getInstance().advance(1);
+		s.router.update();
+		return s.router.getRoutingPlan().getNrofTransfers();
+	}
+
+	@Benchmark
+	public Message messageTransferred(TransferState s) {
+		Message m = s.message.replicate();
+		if (s.router.receiveMessage(m, s.from) != MessageRouter.RCV_OK) {
+			throw new IllegalStateException("Message " + m + " not accepted");
+		}
+		Message received = s.router.messageTransferred(m.getId(), s.from);
+		s.router.deleteMessage(m.getId(), false);
+		return received;
+	}
+
+	@Benchmark
+	public Message messageAborted(TransferState s) {
+		Message m = s.message.replicate();
+		if (s.router.receiveMessage(m, s.from) != MessageRouter.RCV_OK) {
+			throw new IllegalStateException("Message " + m + " not accepted");
+		}
+		s.router.messageAborted(m.getId(), s.from, 0);
+		return m;
+	}
+}
@@ -0,0 +1,793 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+import core.SettingsError;
+import core.SimClock;
+
+/**
+ * End-to-end benchmark of {@link EASERouter} in generated scenarios. The
+ * benchmark is self-contained: it needs no simulator, only the stand-ins
+ * of the benchmark source set (see jmh/README.txt). For every scenario
+ * size a contact trace is generated from the given seed: the hosts move
+ * with random waypoint mobility in a square world whose area grows with
+ * the number of hosts (so the density stays the same) and two hosts are
+ * in contact while they are within the transmit range of each other. The
+ * connections of the hosts are brought up and torn down
+ * ({@link DTNHost#connect(DTNHost, int)},
+ * {@link DTNHost#disconnect(DTNHost)}) as the trace says, messages are
+ * created between random hosts and the routers are updated once per
+ * second, host by host or with a {@link ParallelUpdater}. The same
+ * arguments always produce the same trace and messages, so different
+ * routers and settings can be compared on the same scenario. The results
+ * are appended as one CSV line per run to the results file:
+ * <CODE>label,nodes,seed,simTime,wallTime,wallPerSimHour,created,
+ * delivered,deliveryRatio,latencyAvg,controlMsgs,controlBytes,
+ * peakHeapMB,latencyP95,dataRelayed,overheadRatio</CODE>.
+ * <P>
+ * The wall time is the time spent in the routers (connection changes,
+ * message creation and updates); generating the trace is not included.
+ * Control messages are the encounter table messages of the routers (IDs
+ * starting with "broadcast"); they are not counted in the created and
+ * delivered data messages. The data relays are the completed transfers of
+ * data messages and the overhead ratio is (dataRelayed - delivered) /
+ * delivered.</P>
+ * <P>
+ * The scenario settings (see
+ * {@link #getScenarioSettings(int)}) are set as system properties, where
+ * the stand-in {@link Settings} reads them, and the routers are created
+ * in the "Group" namespace. Usage:
+ * <CODE>java -cp target/benchmarks.jar routing.EASEScenarioBenchmark
+ * [options]</CODE> where the options are
+ * <CODE>-nodes 1000,10000,50000</CODE>, <CODE>-hours 1</CODE> (simulated
+ * time), <CODE>-seed 1</CODE>, <CODE>-results benchmark/results.csv</CODE>,
+ * <CODE>-label name</CODE>, <CODE>-set key=value</CODE> (extra setting
+ * for every scenario; can be given many times) and
+ * <CODE>-sweep key=value1,value2,...</CODE> (runs every scenario once for
+ * each value of the setting, e.g.
+ * <CODE>-sweep EASERouter.maxTableEntries=100,1000,10000</CODE> to compare
+ * delivery and memory with different table caps, or
+ * <CODE>-sweep Group.router=EASERouter,SprayAndEASERouter</CODE> to
+ * compare the latency and overhead of single- and multi-copy routing; the
+ * value is added to the label). If the
+ * <CODE>ParallelUpdater.nrofThreads</CODE> setting is given, the routers
+ * are updated with a {@link ParallelUpdater} of that many threads.</P>
+ */
+public class EASEScenarioBenchmark {
+	/** Prefix of the encounter table message IDs */
+	private static final String CONTROL_PREFIX = "broadcast";
+	/** Namespace of the router settings */
+	private static final String GROUP_NS = "Group";
+
+	/** Hosts per square kilometer */
+	public static final double DENSITY = 100;
+	/** Transmit range of the hosts (meters) */
+	public static final double TRANSMIT_RANGE = 30;
+
+	private List<Integer> nodeCounts;
+	private double hours;
+	private long seed;
+	private File results;
+	private String label;
+	/** Extra settings for every scenario */
+	private Map<String, String> extraSettings;
+	/** Setting that is varied between the runs (or null) */
+	private String sweepKey;
+	private List<String> sweepValues;
+
+	/**
+	 * Creates a benchmark with the default options
+	 */
+	public EASEScenarioBenchmark() {
+		this.nodeCounts = new ArrayList<Integer>();
+		this.hours = 1;
+		this.seed = 1;
+		this.results = new File("benchmark", "results.csv");
+		this.label = "ease";
+		this.extraSettings = new LinkedHashMap<String, String>();
+		this.sweepValues = new ArrayList<String>();
+	}
+
+	/**
+	 * Parses the command line options
+	 * @param args The options
+	 */
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("No value for " + args[i]);
+			}
+			String opt = args[i];
+			String value = args[i + 1];
+			if (opt.equals("-nodes")) {
+				for (String n : value.split(",")) {
+					this.nodeCounts.add(Integer.parseInt(n.trim()));
+				}
+			}
+			else if (opt.equals("-hours")) {
+				this.hours = Double.parseDouble(value);
+			}
+			else if (opt.equals("-seed")) {
+				this.seed = Long.parseLong(value);
+			}
+			else if (opt.equals("-results")) {
+				this.results = new File(value);
+			}
+			else if (opt.equals("-label")) {
+				this.label = value;
+			}
+			else if (opt.equals("-set")) {
+				int eq = value.indexOf('=');
+				if (eq < 1) {
+					throw new IllegalArgumentException("Invalid setting " + value);
+				}
+				this.extraSettings.put(value.substring(0, eq).trim(),
+						value.substring(eq + 1).trim());
+			}
+			else if (opt.equals("-sweep")) {
+				int eq = value.indexOf('=');
+				if (eq < 1) {
+					throw new IllegalArgumentException("Invalid sweep " + value);
+				}
+				this.sweepKey = value.substring(0, eq).trim();
+				for (String v : value.substring(eq + 1).split(",")) {
+					this.sweepValues.add(v.trim());
+				}
+			}
+			else {
+				throw new IllegalArgumentException("Unknown option " + opt);
+			}
+		}
+
+		if (this.nodeCounts.isEmpty()) {
+			this.nodeCounts.add(1000);
+			this.nodeCounts.add(10000);
+			this.nodeCounts.add(50000);
+		}
+	}
+
+	/**
+	 * Returns the settings of a scenario
+	 * @param nrofHosts Number of hosts
+	 * @return The settings
+	 */
+	public Map<String, String> getScenarioSettings(int nrofHosts) {
+		Map<String, String> s = new LinkedHashMap<String, String>();
+		int side = (int)Math.ceil(Math.sqrt(nrofHosts / DENSITY) * 1000);
+
+		s.put("Scenario.endTime", String.valueOf(
+				(int)Math.round(this.hours * 3600)));
+		s.put("Scenario.updateInterval", "1.0");
+
+		s.put("Group.router", "EASERouter");
+		s.put("Group.speed", "0.5, 1.5");
+		s.put("Group.waitTime", "0, 120");
+		s.put("Group.bufferSize", "5000000");
+		s.put("Group.msgTtl", "300");
+		s.put("Group.transmitRange", String.valueOf(TRANSMIT_RANGE));
+		s.put("Group.transmitSpeed", "250000");
+
+		s.put("MovementModel.worldSize", side + ", " + side);
+
+		/* on average one new message per host per simulated hour */
+		double interval = 3600.0 / nrofHosts;
+		s.put("Events1.interval", interval + ", " + (interval * 2));
+		s.put("Events1.size", "10000, 100000");
+
+		s.putAll(this.extraSettings);
+		return s;
+	}
+
+	/**
+	 * Runs all the scenarios and appends their results to the results file
+	 * @throws IOException if writing the results fails
+	 */
+	public void runAll() throws IOException {
+		File dir = this.results.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		boolean newResults = !this.results.exists();
+		PrintStream out = new PrintStream(new FileOutputStream(this.results,
+				true));
+		if (newResults) {
+			out.println("label,nodes,seed,simTime,wallTime,wallPerSimHour," +
+					"created,delivered,deliveryRatio,latencyAvg,controlMsgs," +
+					"controlBytes,peakHeapMB,latencyP95,dataRelayed," +
+					"overheadRatio");
+		}
+
+		if (this.sweepKey == null) {
+			runScenarios(out);
+		}
+		else {
+			for (String value : this.sweepValues) {
+				this.extraSettings.put(this.sweepKey, value);
+				runScenarios(out);
+			}
+		}
+		out.close();
+	}
+
+	/**
+	 * Runs the scenarios of all sizes with the current settings
+	 * @param out Where the result lines are written
+	 */
+	private void runScenarios(PrintStream out) {
+		String label = this.sweepKey == null ? this.label : this.label +
+				"[" + this.sweepKey + "=" + this.extraSettings.get(this.sweepKey) +
+				"]";
+		for (int nrofHosts : this.nodeCounts) {
+			String line = label + "," + runScenario(nrofHosts);
+			out.println(line);
+			out.flush();
+			System.out.println(line);
+		}
+	}
+
+	/**
+	 * Generates and runs one scenario. The settings of the scenario are
+	 * set as system properties for the run.
+	 * @param nrofHosts Number of hosts
+	 * @return The result line of the run without the label
+	 */
+	private String runScenario(int nrofHosts) {
+		Map<String, String> settings = getScenarioSettings(nrofHosts);
+		for (Map.Entry<String, String> e : settings.entrySet()) {
+			System.setProperty(e.getKey(), e.getValue());
+		}
+		try {
+			return new Scenario(nrofHosts, this.seed).run();
+		} finally {
+			for (String key : settings.keySet()) {
+				System.clearProperty(key);
+			}
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(java.util.Locale.US, "%.4f", value);
+	}
+
+	/**
+	 * Returns the two values of a "min, max" setting
+	 * @param s The settings
+	 * @param name Name of the setting
+	 * @return The minimum and the maximum
+	 */
+	private static double[] getRange(Settings s, String name) {
+		double[] range = s.getCsvDoubles(name);
+		if (range.length != 2 || range[0] > range[1]) {
+			throw new SettingsError("Invalid value for " +
+					s.getFullPropertyName(name));
+		}
+		return range;
+	}
+
+	/**
+	 * One run of a scenario: the hosts and their routers, the contact
+	 * trace and the message generator
+	 */
+	private static class Scenario {
+		private List<DTNHost> hosts;
+		private ContactTrace trace;
+		private ScenarioListener listener;
+		private ParallelUpdater updater;
+		private Random msgRng;
+		private double endTime;
+		private double updateInterval;
+		private int speed;
+		private double[] msgInterval;
+		private double[] msgSize;
+		private long seed;
+
+		/**
+		 * Creates the hosts and the routers of a scenario
+		 * @param nrofHosts Number of hosts
+		 * @param seed Seed of the trace and message generators
+		 */
+		public Scenario(int nrofHosts, long seed) {
+			Settings scen = new Settings("Scenario");
+			Settings group = new Settings(GROUP_NS);
+			Settings events = new Settings("Events1");
+			Settings mm = new Settings("MovementModel");
+			this.endTime = scen.getDouble("endTime");
+			this.updateInterval = scen.getDouble("updateInterval");
+			this.speed = group.getInt("transmitSpeed");
+			this.msgInterval = getRange(events, "interval");
+			this.msgSize = getRange(events, "size");
+
+			MessageRouter prototype = createRouter(group);
+			this.listener = new ScenarioListener();
+			List<MessageListener> listeners = new ArrayList<MessageListener>();
+			listeners.add(this.listener);
+			this.hosts = new ArrayList<DTNHost>(nrofHosts);
+			for (int i = 0; i < nrofHosts; i++) {
+				DTNHost host = new DTNHost(i, new Coord(0, 0));
+				MessageRouter router = prototype.replicate();
+				router.init(host, listeners);
+				host.setRouter(router);
+				this.hosts.add(host);
+			}
+
+			this.trace = new ContactTrace(this.hosts, mm.getCsvDoubles(
+					"worldSize"), group.getDouble("transmitRange"),
+					getRange(group, "speed"), getRange(group, "waitTime"),
+					new Random(seed));
+			this.msgRng = new Random(seed);
+			this.seed = seed;
+			if (new Settings(ParallelUpdater.UPDATER_NS).contains(
+					ParallelUpdater.NROF_THREADS_S)) {
+				this.updater = new ParallelUpdater();
+			}
+		}
+
+		/**
+		 * Creates the router prototype of the hosts
+		 * @param s The settings of the routers
+		 * @return The router
+		 */
+		private static MessageRouter createRouter(Settings s) {
+			String name = s.getSetting("router");
+			try {
+				Class<?> c = Class.forName(name.indexOf('.') < 0 ?
+						"routing." + name : name);
+				return (MessageRouter)c.getConstructor(Settings.class).
+						newInstance(s);
+			} catch (Exception e) {
+				throw new SettingsError("Can't create router " + name, e);
+			}
+		}
+
+		/**
+		 * Runs the scenario
+		 * @return The result line of the run without the label
+		 */
+		public String run() {
+			for (MemoryPoolMXBean pool :
+					ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					pool.resetPeakUsage();
+				}
+			}
+			SimClock clock = SimClock.getInstance();
+			clock.setTime(0);
+			long wallNanos = 0;
+			int nextId = 0;
+			double nextMsg = nextMessageInterval();
+
+			for (double t = 0; t < this.endTime; t += this.updateInterval) {
+				clock.setTime(t);
+				this.trace.step(t, this.updateInterval);
+				long start = System.nanoTime();
+				applyContacts();
+				while (nextMsg <= t) {
+					createMessage("M" + nextId++);
+					nextMsg += nextMessageInterval();
+				}
+				if (this.updater != null) {
+					this.updater.update(this.hosts);
+				}
+				else {
+					for (int i = 0, n = this.hosts.size(); i < n; i++) {
+						this.hosts.get(i).update();
+					}
+				}
+				wallNanos += System.nanoTime() - start;
+			}
+			if (this.updater != null) {
+				this.updater.close();
+			}
+
+			long peak = 0;
+			for (MemoryPoolMXBean pool :
+					ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			return this.listener.getResults(this.hosts.size(), this.seed,
+					this.endTime, wallNanos / 1e9, peak / (1024.0 * 1024.0));
+		}
+
+		/**
+		 * Tears down and brings up the connections that the trace changed
+		 * in the last step
+		 */
+		private void applyContacts() {
+			long[] downs = this.trace.getDowns();
+			for (int i = 0, n = this.trace.getNrofDowns(); i < n; i++) {
+				this.hosts.get(ContactTrace.first(downs[i])).disconnect(
+						this.hosts.get(ContactTrace.second(downs[i])));
+			}
+			long[] ups = this.trace.getUps();
+			for (int i = 0, n = this.trace.getNrofUps(); i < n; i++) {
+				this.hosts.get(ContactTrace.first(ups[i])).connect(
+						this.hosts.get(ContactTrace.second(ups[i])), this.speed);
+			}
+		}
+
+		/**
+		 * Creates a message between two different random hosts
+		 * @param id ID of the message
+		 */
+		private void createMessage(String id) {
+			int n = this.hosts.size();
+			int from = this.msgRng.nextInt(n);
+			int to = this.msgRng.nextInt(n - 1);
+			if (to >= from) {
+				to++;
+			}
+			int size = (int)uniform(this.msgSize);
+			DTNHost host = this.hosts.get(from);
+			host.getRouter().createNewMessage(new Message(host,
+					this.hosts.get(to), id, size));
+		}
+
+		private double nextMessageInterval() {
+			return uniform(this.msgInterval);
+		}
+
+		private double uniform(double[] range) {
+			return range[0] + this.msgRng.nextDouble() * (range[1] - range[0]);
+		}
+	}
+
+	/**
+	 * Contact trace of hosts that move with random waypoint mobility. The
+	 * trace is generated one step at a time; after every step the contacts
+	 * that began and ended in it can be read. A contact is coded as a long
+	 * of the addresses of the two hosts (the smaller address first).
+	 */
+	private static class ContactTrace {
+		private List<DTNHost> hosts;
+		private Random rng;
+		private double width;
+		private double height;
+		private double range;
+		private double[] speed;
+		private double[] waitTime;
+
+		/** Waypoints, speeds and wait end times of the hosts */
+		private double[] destX;
+		private double[] destY;
+		private double[] hostSpeed;
+		private double[] waitUntil;
+
+		/** Hosts sorted by their grid cell and the first index of a cell */
+		private int[] cellOf;
+		private int[] cellStart;
+		private int[] sorted;
+		private int cellsX;
+		private int cellsY;
+
+		/** Contacts of the previous and the current step, sorted */
+		private long[] contacts;
+		private int nrofContacts;
+		private long[] next;
+		private int nrofNext;
+		private long[] ups;
+		private int nrofUps;
+		private long[] downs;
+		private int nrofDowns;
+
+		/**
+		 * Creates a trace and places the hosts at random locations
+		 * @param hosts The hosts
+		 * @param worldSize Width and height of the world (meters)
+		 * @param range Transmit range (meters)
+		 * @param speed Minimum and maximum speed (meters per second)
+		 * @param waitTime Minimum and maximum wait time at a waypoint
+		 * (seconds)
+		 * @param rng The random number generator
+		 */
+		public ContactTrace(List<DTNHost> hosts, double[] worldSize,
+				double range, double[] speed, double[] waitTime, Random rng) {
+			int n = hosts.size();
+			this.hosts = hosts;
+			this.rng = rng;
+			this.width = worldSize[0];
+			this.height = worldSize[1];
+			this.range = range;
+			this.speed = speed;
+			this.waitTime = waitTime;
+			this.destX = new double[n];
+			this.destY = new double[n];
+			this.hostSpeed = new double[n];
+			this.waitUntil = new double[n];
+			for (int i = 0; i < n; i++) {
+				hosts.get(i).getLocation().setLocation(
+						rng.nextDouble() * this.width,
+						rng.nextDouble() * this.height);
+				nextWaypoint(i, 0);
+			}
+
+			this.cellsX = Math.max(1, (int)Math.ceil(this.width / range));
+			this.cellsY = Math.max(1, (int)Math.ceil(this.height / range));
+			this.cellOf = new int[n];
+			this.cellStart = new int[this.cellsX * this.cellsY + 1];
+			this.sorted = new int[n];
+			this.contacts = new long[64];
+			this.next = new long[64];
+			this.ups = new long[64];
+			this.downs = new long[64];
+		}
+
+		/**
+		 * Picks the next waypoint and speed of a host
+		 * @param host Index of the host
+		 * @param waitEnd Time when the host leaves for the waypoint
+		 */
+		private void nextWaypoint(int host, double waitEnd) {
+			this.destX[host] = this.rng.nextDouble() * this.width;
+			this.destY[host] = this.rng.nextDouble() * this.height;
+			this.hostSpeed[host] = this.speed[0] +
+					this.rng.nextDouble() * (this.speed[1] - this.speed[0]);
+			this.waitUntil[host] = waitEnd;
+		}
+
+		/**
+		 * Moves the hosts and finds the contacts that began and ended
+		 * @param time The current time
+		 * @param interval Time since the previous step
+		 */
+		public void step(double time, double interval) {
+			for (int i = 0, n = this.hosts.size(); i < n; i++) {
+				move(i, time, interval);
+			}
+			findContacts();
+
+			/* merge the sorted contact lists */
+			this.nrofUps = 0;
+			this.nrofDowns = 0;
+			int i = 0;
+			int j = 0;
+			while (i < this.nrofContacts || j < this.nrofNext) {
+				if (j == this.nrofNext || (i < this.nrofContacts &&
+						this.contacts[i] < this.next[j])) {
+					this.downs = add(this.downs, this.nrofDowns++,
+							this.contacts[i++]);
+				}
+				else if (i == this.nrofContacts ||
+						this.next[j] < this.contacts[i]) {
+					this.ups = add(this.ups, this.nrofUps++, this.next[j++]);
+				}
+				else {
+					i++;
+					j++;
+				}
+			}
+
+			long[] tmp = this.contacts;
+			this.contacts = this.next;
+			this.nrofContacts = this.nrofNext;
+			this.next = tmp;
+		}
+
+		/**
+		 * Moves a host towards its waypoint
+		 * @param host Index of the host
+		 * @param time The current time
+		 * @param interval Time since the previous step
+		 */
+		private void move(int host, double time, double interval) {
+			if (time < this.waitUntil[host]) {
+				return;
+			}
+			Coord c = this.hosts.get(host).getLocation();
+			double dx = this.destX[host] - c.getX();
+			double dy = this.destY[host] - c.getY();
+			double dist = Math.sqrt(dx * dx + dy * dy);
+			double step = this.hostSpeed[host] * interval;
+			if (dist <= step) {
+				c.setLocation(this.destX[host], this.destY[host]);
+				nextWaypoint(host, time + this.waitTime[0] +
+						this.rng.nextDouble() *
+						(this.waitTime[1] - this.waitTime[0]));
+			}
+			else {
+				c.translate(dx / dist * step, dy / dist * step);
+			}
+		}
+
+		/**
+		 * Finds the pairs of hosts that are within the range of each other
+		 * with a grid whose cells are as wide as the range
+		 */
+		private void findContacts() {
+			int n = this.hosts.size();
+			Arrays.fill(this.cellStart, 0);
+			for (int i = 0; i < n; i++) {
+				Coord c = this.hosts.get(i).getLocation();
+				int cell = cellY(c.getY()) * this.cellsX + cellX(c.getX());
+				this.cellOf[i] = cell;
+				this.cellStart[cell + 1]++;
+			}
+			for (int i = 1; i < this.cellStart.length; i++) {
+				this.cellStart[i] += this.cellStart[i - 1];
+			}
+			for (int i = n - 1; i >= 0; i--) {
+				this.sorted[--this.cellStart[this.cellOf[i] + 1]] = i;
+			}
+
+			this.nrofNext = 0;
+			for (int i = 0; i < n; i++) {
+				Coord c = this.hosts.get(i).getLocation();
+				int cx = this.cellOf[i] % this.cellsX;
+				int cy = this.cellOf[i] / this.cellsX;
+				for (int y = Math.max(0, cy - 1);
+						y <= Math.min(this.cellsY - 1, cy + 1); y++) {
+					for (int x = Math.max(0, cx - 1);
+							x <= Math.min(this.cellsX - 1, cx + 1); x++) {
+						int cell = y * this.cellsX + x;
+						for (int k = this.cellStart[cell];
+								k < this.cellStart[cell + 1]; k++) {
+							int other = this.sorted[k];
+							if (other > i && c.distance(this.hosts.get(other).
+									getLocation()) <= this.range) {
+								this.next = add(this.next, this.nrofNext++,
+										((long)i << 32) | other);
+							}
+						}
+					}
+				}
+			}
+			Arrays.sort(this.next, 0, this.nrofNext);
+		}
+
+		private int cellX(double x) {
+			return Math.min(this.cellsX - 1, Math.max(0,
+					(int)(x / this.range)));
+		}
+
+		private int cellY(double y) {
+			return Math.min(this.cellsY - 1, Math.max(0,
+					(int)(y / this.range)));
+		}
+
+		/**
+		 * Stores a value in an array, growing the array if needed
+		 * @return The array
+		 */
+		private static long[] add(long[] array, int index, long value) {
+			if (index == array.length) {
+				array = Arrays.copyOf(array, array.length * 2);
+			}
+			array[index] = value;
+			return array;
+		}
+
+		public static int first(long contact) {
+			return (int)(contact >>> 32);
+		}
+
+		public static int second(long contact) {
+			return (int)contact;
+		}
+
+		public long[] getUps() {
+			return this.ups;
+		}
+
+		public int getNrofUps() {
+			return this.nrofUps;
+		}
+
+		public long[] getDowns() {
+			return this.downs;
+		}
+
+		public int getNrofDowns() {
+			return this.nrofDowns;
+		}
+	}
+
+	/**
+	 * Collects the message statistics of a run
+	 */
+	private static class ScenarioListener implements MessageListener {
+		private int created;
+		private int controlMsgs;
+		private long controlBytes;
+		private long dataRelayed;
+		private double[] latencies = new double[64];
+		private int delivered;
+		private double latencySum;
+
+		private static boolean isControl(Message m) {
+			return m.getId().startsWith(CONTROL_PREFIX);
+		}
+
+		public void newMessage(Message m) {
+			if (isControl(m)) {
+				this.controlMsgs++;
+				this.controlBytes += m.getSize();
+			}
+			else {
+				this.created++;
+			}
+		}
+
+		public void messageTransferred(Message m, DTNHost from, DTNHost to,
+				boolean firstDelivery) {
+			if (isControl(m)) {
+				return;
+			}
+			this.dataRelayed++;
+			if (firstDelivery) {
+				double latency = SimClock.getTime() - m.getCreationTime();
+				if (this.delivered == this.latencies.length) {
+					this.latencies = Arrays.copyOf(this.latencies,
+							this.delivered * 2);
+				}
+				this.latencies[this.delivered++] = latency;
+				this.latencySum += latency;
+			}
+		}
+
+		public void messageTransferStarted(Message m, DTNHost from,
+				DTNHost to) {}
+
+		public void messageDeleted(Message m, DTNHost where,
+				boolean dropped) {}
+
+		public void messageTransferAborted(Message m, DTNHost from,
+				DTNHost to) {}
+
+		/**
+		 * Returns the result line of a run
+		 * @param nrofHosts Number of hosts
+		 * @param seed Seed of the scenario
+		 * @param simTime Simulated time (seconds)
+		 * @param wallTime Wall time spent in the routers (seconds)
+		 * @param peakHeap Peak heap usage (MB)
+		 * @return The result line without the label
+		 */
+		public String getResults(int nrofHosts, long seed, double simTime,
+				double wallTime, double peakHeap) {
+			Arrays.sort(this.latencies, 0, this.delivered);
+			double d = this.delivered;
+			return nrofHosts + "," + seed + "," +
+				simTime + "," + format(wallTime) + "," +
+				format(wallTime / (simTime / 3600)) + "," + this.created +
+				"," + this.delivered + "," +
+				format(this.created == 0 ? 0 : d / this.created) + "," +
+				format(d == 0 ? 0 : this.latencySum / d) + "," +
+				this.controlMsgs + "," + this.controlBytes + "," +
+				format(peakHeap) + "," + format(d == 0 ? 0 :
+					this.latencies[(int)(d * 0.95)]) + "," +
+				this.dataRelayed + "," + format(d == 0 ? 0 :
+					(this.dataRelayed - d) / d);
+		}
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args Command line options
+	 * @throws IOException if writing the results fails
+	 */
+	public static void main(String[] args) throws IOException {
+		EASEScenarioBenchmark b = new EASEScenarioBenchmark();
+		b.parseArgs(args);
+		b.runAll();
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the encounter tables: lookups, exchanges and the wire
+ * encoding of their changes. The encoding of {@link EncounterTableCodec}
+ * is compared to a naive fixed size format (an int address and double
+ * time and coordinates per entry).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncounterTableBenchmark {
+	@Param({"100", "1000", "10000"})
+	private int tableSize;
+
+	private Random rng;
+	private EncounterTable table;
+	private EncounterTable copy;
+	private double time;
+	/** Addresses looked up; half of them are not in the table */
+	private int[] addresses;
+	private int nextAddress;
+	private EncounterTableDelta delta;
+	private ByteBuffer codecBuf;
+	private ByteBuffer naiveBuf;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.rng = new Random(3);
+		this.table = new EncounterTable();
+		for (int i = 0; i < this.tableSize; i++) {
+			this.table.put(i, this.rng.nextDouble() * 1000, 
+					this.rng.nextDouble() * 100, this.rng.nextDouble() * 100);
+		}
+		this.copy = new EncounterTable();
+		this.copy.apply(this.table.changesSince(0));
+		this.time = 1000;
+
+		this.addresses = new int[1024];
+		for (int i = 0; i < this.addresses.length; i++) {
+			this.addresses[i] = this.rng.nextInt(this.tableSize * 2);
+		}
+
+		this.delta = this.table.changesSince(0);
+		this.codecBuf = ByteBuffer.allocate(
+				EncounterTableCodec.encodedSize(this.delta));
+		EncounterTableCodec.encode(this.delta, this.codecBuf);
+		this.naiveBuf = ByteBuffer.allocate(naiveSize(this.delta));
+		naiveEncode(this.delta, this.naiveBuf);
+	}
+
+	/**
+	 * Looking up the encounter time of a destination
+	 */
+	@Benchmark
+	public double lookup() {
+		this.nextAddress = (this.nextAddress + 1) & 1023;
+		return this.table.getTime(this.addresses[this.nextAddress]);
+	}
+
+	/**
+	 * One encounter table exchange: the sender records an encounter,
+	 * computes the changes since the neighbor's last version and the
+	 * neighbor applies them to its copy
+	 */
+	@Benchmark
+	public int exchange() {
+		int sent = this.table.getVersion();
+		this.table.put(this.rng.nextInt(this.tableSize), ++this.time, 1, 1);
+		EncounterTableDelta changes = this.table.changesSince(sent);
+		this.copy.apply(changes);
+		return changes.size();
+	}
+
+	@Benchmark
+	public int codecEncode() {
+		this.codecBuf.clear();
+		EncounterTableCodec.encode(this.delta, this.codecBuf);
+		return this.codecBuf.position();
+	}
+
+	@Benchmark
+	public int codecDecode() {
+		this.codecBuf.clear();
+		return EncounterTableCodec.decode(this.codecBuf).size();
+	}
+
+	@Benchmark
+	public int naiveEncode() {
+		this.naiveBuf.clear();
+		naiveEncode(this.delta, this.naiveBuf);
+		return this.naiveBuf.position();
+	}
+
+	@Benchmark
+	public int naiveDecode() {
+		this.naiveBuf.clear();
+		return naiveDecode(this.naiveBuf).size();
+	}
+
+	/**
+	 * Returns the size of a delta in the naive format: the versions and
+	 * the number of entries as ints, then an int address and double time
+	 * and coordinates per entry
+	 */
+	private static int naiveSize(EncounterTableDelta delta) {
+		return 12 + delta.size() * 28;
+	}
+
+	private static void naiveEncode(EncounterTableDelta delta, ByteBuffer out) {
+		out.putInt(delta.getBaseVersion());
+		out.putInt(delta.getVersion());
+		out.putInt(delta.size());
+		for (int i = 0, n = delta.size(); i < n; i++) {
+			out.putInt(delta.addressAt(i));
+			out.putDouble(delta.timeAt(i));
+			out.putDouble(delta.xAt(i));
+			out.putDouble(delta.yAt(i));
+		}
+	}
+
+	private static EncounterTableDelta naiveDecode(ByteBuffer in) {
+		int baseVersion = in.getInt();
+		int version = in.getInt();
+		int n = in.getInt();
+		EncounterTableDelta delta = new EncounterTableDelta(baseVersion,
+				version, n);
+		for (int i = 0; i < n; i++) {
+			delta.set(i, in.getInt(), in.getDouble(), in.getDouble(),
+					in.getDouble());
+		}
+		return delta;
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the neighbor grid: rebuilding it and querying the neighbor
+ * closest to a random point, as done on every router update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeighborGridBenchmark {
+	@Param({"4", "32", "256"})
+	private int nrofNeighbors;
+
+	private NeighborGrid grid;
+	private double[] xs;
+	private double[] ys;
+	private double[] points;
+	private int nextPoint;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rng = new Random(4);
+		this.grid = new NeighborGrid();
+		this.xs = new double[this.nrofNeighbors];
+		this.ys = new double[this.nrofNeighbors];
+		for (int i = 0; i < this.nrofNeighbors; i++) {
+			this.xs[i] = 50 + rng.nextDouble() * 6;
+			this.ys[i] = 50 + rng.nextDouble() * 6;
+		}
+		this.points = new double[2048];
+		for (int i = 0; i < this.points.length; i++) {
+			this.points[i] = 40 + rng.nextDouble() * 26;
+		}
+	}
+
+	@Benchmark
+	public int nearest() {
+		this.grid.clear();
+		for (int i = 0; i < this.nrofNeighbors; i++) {
+			this.grid.add(i, this.xs[i], this.ys[i]);
+		}
+		this.nextPoint = (this.nextPoint + 2) & 2047;
+		return this.grid.nearest(this.points[this.nextPoint], 
+				this.points[this.nextPoint + 1], null);
+	}
+}
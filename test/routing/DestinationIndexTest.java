@@ -0,0 +1,108 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.SimClock;
+
+/**
+ * Tests for {@link DestinationIndex}
+ */
+public class DestinationIndexTest extends TestCase {
+	private DestinationIndex index;
+	private DTNHost[] hosts;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.getInstance().setTime(0);
+		this.index = new DestinationIndex();
+		this.hosts = new DTNHost[300];
+		for (int i = 0; i < this.hosts.length; i++) {
+			this.hosts[i] = new DTNHost(i, new Coord(0, 0));
+		}
+	}
+
+	private List<Message> messagesTo(int address) {
+		List<Message> list = new ArrayList<Message>();
+		this.index.addAllTo(address, list);
+		return list;
+	}
+
+	public void testEmptyIndex() {
+		assertTrue(messagesTo(0).isEmpty());
+		assertTrue(messagesTo(100000).isEmpty());
+		assertNull(this.index.remove("M"));
+	}
+
+	public void testRemoveFromAnyPosition() {
+		Message[] msgs = new Message[3];
+		for (int i = 0; i < msgs.length; i++) {
+			msgs[i] = new Message(this.hosts[0], this.hosts[200], "M" + i, 1);
+			this.index.add(msgs[i]);
+		}
+		assertSame(msgs[1], this.index.remove("M1"));
+		assertEquals(2, messagesTo(200).size());
+		assertSame(msgs[0], messagesTo(200).get(0));
+		assertSame(msgs[2], messagesTo(200).get(1));
+		assertSame(msgs[2], this.index.remove("M2"));
+		assertSame(msgs[0], this.index.remove("M0"));
+		assertTrue(messagesTo(200).isEmpty());
+		assertEquals(0, this.index.size());
+	}
+
+	public void testReplacingKeepsOneEntry() {
+		this.index.add(new Message(this.hosts[0], this.hosts[5], "M", 1));
+		Message m = new Message(this.hosts[0], this.hosts[7], "M", 1);
+		this.index.add(m);
+		assertTrue(messagesTo(5).isEmpty());
+		assertEquals(1, messagesTo(7).size());
+		assertEquals(1, this.index.size());
+	}
+
+	public void testMatchesBruteForce() {
+		Random rng = new Random(1);
+		List<Message> buffered = new ArrayList<Message>();
+		for (int round = 0; round < 5000; round++) {
+			if (buffered.isEmpty() || rng.nextInt(3) > 0) {
+				Message m = new Message(this.hosts[0],
+						this.hosts[rng.nextInt(this.hosts.length)],
+						"M" + round, 1);
+				this.index.add(m);
+				buffered.add(m);
+			}
+			else {
+				Message m = buffered.remove(rng.nextInt(buffered.size()));
+				assertSame(m, this.index.remove(m.getId()));
+			}
+		}
+		assertEquals(buffered.size(), this.index.size());
+		for (int address = 0; address < this.hosts.length; address++) {
+			HashSet<Message> expected = new HashSet<Message>();
+			for (Message m : buffered) {
+				if (m.getTo().getAddress() == address) {
+					expected.add(m);
+				}
+			}
+			List<Message> found = messagesTo(address);
+			assertEquals(expected, new HashSet<Message>(found));
+			/* in the order they were added */
+			int last = -1;
+			for (Message m : found) {
+				int seq = Integer.parseInt(m.getId().substring(1));
+				assertTrue(seq > last);
+				last = seq;
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+import core.SimClock;
+
+/**
+ * Tests for {@link EASERouter}. The hosts are the stand-ins of the
+ * benchmark source set (see jmh/README.txt), connected and disconnected
+ * by hand.
+ */
+public class EASERouterTest extends TestCase {
+	/** Settings namespace of the test routers */
+	private static final String NS = "EASERouterTest";
+	private static final int SPEED = 250000;
+
+	private List<DTNHost> hosts;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.getInstance().setTime(0);
+		this.hosts = new ArrayList<DTNHost>();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(NS + ".") ||
+					name.startsWith(EASERouter.EASE_NS + ".")) {
+				System.clearProperty(name);
+			}
+		}
+		super.tearDown();
+	}
+
+	/**
+	 * Sets a setting of the test routers
+	 * @param name Name of the setting
+	 * @param value Value of the setting
+	 */
+	private static void set(String name, Object value) {
+		System.setProperty(NS + "." + name, String.valueOf(value));
+	}
+
+	/**
+	 * Sets an EASE router setting
+	 * @param name Name of the setting
+	 * @param value Value of the setting
+	 */
+	private static void setEase(String name, Object value) {
+		System.setProperty(EASERouter.EASE_NS + "." + name,
+				String.valueOf(value));
+	}
+
+	/**
+	 * Creates a host with an EASE router
+	 * @param x The x coordinate of the host
+	 * @param y The y coordinate of the host
+	 * @return The host
+	 */
+	private DTNHost createHost(double x, double y) {
+		DTNHost host = new DTNHost(this.hosts.size(), new Coord(x, y));
+		EASERouter router = new EASERouter(new Settings(NS));
+		router.init(host, new ArrayList<MessageListener>());
+		host.setRouter(router);
+		this.hosts.add(host);
+		return host;
+	}
+
+	private static EASERouter router(DTNHost host) {
+		return (EASERouter)host.getRouter();
+	}
+
+	/**
+	 * Advances the simulation time and updates all the hosts
+	 * @param seconds Number of one second steps
+	 */
+	private void run(int seconds) {
+		for (int i = 0; i < seconds; i++) {
+			SimClock.getInstance().advance(1);
+			for (DTNHost h : this.hosts) {
+				h.update();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+						Thread.currentThread().getId());
+	}
+
+	/**
+	 * Creates a router with buffered messages and connected neighbors
+	 * whose encounter tables it knows, and checks that planning its
+	 * transfers allocates nothing
+	 * @param queueMode The sending queue mode
+	 */
+	private void checkPlanAllocation(int queueMode) {
+		set(MessageRouter.SEND_QUEUE_MODE_S, queueMode);
+		setEase(EASERouter.TABLE_REFRESH_S, 1e9);
+		Random rng = new Random(queueMode);
+		DTNHost host = createHost(500, 500);
+		for (int i = 0; i < 8; i++) {
+			createHost(500 + 10 * Math.cos(i), 500 + 10 * Math.sin(i));
+		}
+		DTNHost[] destinations = new DTNHost[20];
+		for (int i = 0; i < destinations.length; i++) {
+			destinations[i] = new DTNHost(100 + i, new Coord(0, 0));
+			for (int j = 0; j < this.hosts.size(); j++) {
+				if (rng.nextBoolean()) {
+					router(this.hosts.get(j)).getEncounterTable().put(
+							100 + i, rng.nextInt(1000), rng.nextInt(100),
+							rng.nextInt(100));
+				}
+			}
+		}
+		SimClock.getInstance().setTime(1000);
+		/* the neighbors have all the messages, so nothing is transferred */
+		for (int i = 0; i < 200; i++) {
+			DTNHost to = destinations[rng.nextInt(destinations.length)];
+			for (DTNHost h : this.hosts) {
+				router(h).createNewMessage(new Message(host, to, "M" + i, 1000));
+			}
+		}
+		for (int i = 1; i < this.hosts.size(); i++) {
+			host.connect(this.hosts.get(i), SPEED);
+		}
+		run(40);
+		assertEquals(8, router(host).getNeighborStates().size());
+		assertFalse(router(host).isTransferring());
+
+		EASERouter r = router(host);
+		for (int i = 0; i < 10000; i++) { // warm-up
+			r.plan();
+		}
+		assertTrue(r.getRoutingPlan().getNrofTransfers() > 0);
+		long overhead = allocatedBytes();
+		overhead = allocatedBytes() - overhead;
+		long before = allocatedBytes();
+		for (int i = 0; i < 1000; i++) {
+			r.plan();
+		}
+		long allocated = allocatedBytes() - before - overhead;
+		assertEquals("Bytes allocated by 1000 plans in queue mode " +
+				queueMode, 0, allocated);
+	}
+
+	public void testPlanDoesNotAllocateInRandomMode() {
+		checkPlanAllocation(MessageRouter.Q_MODE_RANDOM);
+	}
+
+	public void testPlanDoesNotAllocateInFifoMode() {
+		checkPlanAllocation(MessageRouter.Q_MODE_FIFO);
+	}
+
+	public void testPlanDoesNotAllocateInFreshestEncounterMode() {
+		checkPlanAllocation(MessageRouter.Q_MODE_FRESHEST_ENCOUNTER);
+	}
+
+	public void testPlanningDoesNotChangeTheRouter() {
+		setEase(EASERouter.TABLE_REFRESH_S, 5);
+		DTNHost host = createHost(500, 500);
+		for (int i = 0; i < 4; i++) {
+			createHost(500 + 10 * Math.cos(i), 500 + 10 * Math.sin(i));
+		}
+		/* the neighbors have all the messages, so only tables are sent */
+		DTNHost to = new DTNHost(100, new Coord(0, 0));
+		for (int i = 0; i < 20; i++) {
+			for (DTNHost h : this.hosts) {
+				router(h).createNewMessage(new Message(host, to, "M" + i, 10));
+			}
+		}
+		for (int i = 1; i < this.hosts.size(); i++) {
+			host.connect(this.hosts.get(i), SPEED);
+		}
+		run(10);
+		SimClock.getInstance().advance(100);
+
+		EASERouter r = router(host);
+		assertTrue(r.beginUpdate());
+		RoutingPlan plan = r.plan();
+		assertTrue(plan.getNrofTableTargets() > 0);
+		List<Object> first = new ArrayList<Object>();
+		for (int i = 0; i < plan.getNrofTableTargets(); i++) {
+			first.add(plan.getTableTarget(i));
+		}
+		for (int i = 0; i < plan.getNrofTransfers(); i++) {
+			first.add(plan.getMessage(i).getId() + "@" + 
+					plan.getConnection(i) + ":" + plan.getReason(i));
+		}
+		/* the refreshes stay due until the plan is committed */
+		plan = r.plan();
+		List<Object> second = new ArrayList<Object>();
+		for (int i = 0; i < plan.getNrofTableTargets(); i++) {
+			second.add(plan.getTableTarget(i));
+		}
+		for (int i = 0; i < plan.getNrofTransfers(); i++) {
+			second.add(plan.getMessage(i).getId() + "@" + 
+					plan.getConnection(i) + ":" + plan.getReason(i));
+		}
+		assertEquals(first, second);
+		r.commit(plan);
+	}
+
+	/**
+	 * Checks that a copy of an encounter table has all the entries of the
+	 * table up to the version the copy is at
+	 * @param table The table
+	 * @param copy The copy (or null)
+	 */
+	private static void assertCopyOf(EncounterTable table, 
+			EncounterTable copy) {
+		assertNotNull("No copy of the table", copy);
+		assertTrue(copy.getSourceVersion() > 0);
+		EncounterTableDelta entries = table.changesSince(0);
+		for (int i = 0; i < entries.size(); i++) {
+			int address = entries.addressAt(i);
+			if (table.getEntryVersion(address) <= copy.getSourceVersion()) {
+				assertEquals("Time of host " + address, entries.timeAt(i),
+						copy.getTime(address));
+			}
+		}
+	}
+
+	public void testTablesConvergeAfterNeighborStateEviction() {
+		setEase(EASERouter.TABLE_REFRESH_S, 5);
+		setEase(EASERouter.MAX_NEIGHBOR_TABLES_S, 1);
+		DTNHost a = createHost(500, 500);
+		DTNHost b = createHost(505, 500);
+		DTNHost c = createHost(500, 505);
+		for (int i = 0; i < 10; i++) {
+			router(a).getEncounterTable().put(100 + i, 0, i, i);
+			router(b).getEncounterTable().put(200 + i, 0, i, i);
+		}
+		SimClock.getInstance().setTime(10);
+		/* the routers update (and refresh the tables) only when they have
+		 * messages; everyone has this one, so it is not transferred */
+		DTNHost to = new DTNHost(300, new Coord(0, 0));
+		for (DTNHost h : this.hosts) {
+			router(h).createNewMessage(new Message(a, to, "M", 1000));
+		}
+
+		a.connect(b, SPEED);
+		run(20);
+		assertCopyOf(router(b).getEncounterTable(), 
+				router(a).getNeighborStates().get(b).table);
+
+		/* the states of b and c evict each other at a */
+		a.connect(c, SPEED);
+		run(20);
+		a.disconnect(c);
+		run(30);
+
+		assertCopyOf(router(b).getEncounterTable(), 
+				router(a).getNeighborStates().get(b).table);
+		assertCopyOf(router(a).getEncounterTable(), 
+				router(b).getNeighborStates().get(a).table);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(router(a).getNeighborStates().get(b).table.contains(
+					200 + i));
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link EncounterTableCodec}
+ */
+public class EncounterTableCodecTest extends TestCase {
+	/** Allowed error of the decoded times and coordinates (rounding plus
+	 * floating point error) */
+	private static final double TIME_ERROR =
+		EncounterTableCodec.TIME_UNIT / 2 + 1e-9;
+	private static final double COORD_ERROR =
+		0.5 / EncounterTableCodec.COORD_STEPS + 1e-9;
+
+	/**
+	 * Encodes and decodes a delta and checks that the decoding matches it
+	 * within the precision of the format and that the encoded size is the
+	 * number of bytes written
+	 */
+	private static void checkRoundTrip(EncounterTableDelta delta) {
+		int size = EncounterTableCodec.encodedSize(delta);
+		/* the encoding must fill the buffer exactly */
+		ByteBuffer out = ByteBuffer.allocate(size + 16);
+		EncounterTableCodec.encode(delta, out);
+		assertEquals("Encoded size", size, out.position());
+		assertEquals(size, EncounterTableCodec.encode(delta).length);
+
+		out.flip();
+		EncounterTableDelta decoded = EncounterTableCodec.decode(out);
+		assertEquals("Bytes read", size, out.position());
+		assertEquals(delta.getBaseVersion(), decoded.getBaseVersion());
+		assertEquals(delta.getVersion(), decoded.getVersion());
+		assertEquals(delta.size(), decoded.size());
+		for (int i = 0; i < delta.size(); i++) {
+			assertEquals(delta.addressAt(i), decoded.addressAt(i));
+			assertEquals("Time of entry " + i, delta.timeAt(i),
+					decoded.timeAt(i), TIME_ERROR);
+			assertEquals("X of entry " + i, delta.xAt(i), decoded.xAt(i),
+					COORD_ERROR);
+			assertEquals("Y of entry " + i, delta.yAt(i), decoded.yAt(i),
+					COORD_ERROR);
+		}
+	}
+
+	public void testEmptyDelta() {
+		EncounterTableDelta delta = new EncounterTableDelta(0, 0, 0);
+		assertEquals(3, EncounterTableCodec.encodedSize(delta));
+		checkRoundTrip(delta);
+	}
+
+	public void testExtremeValues() {
+		EncounterTableDelta delta = new EncounterTableDelta(
+				Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 6);
+		delta.set(0, Integer.MAX_VALUE, 1e7, -1e5, 1e5);
+		/* a time going backwards and an older entry after a newer one */
+		delta.set(1, 0, 0, -0.03, 0.03);
+		delta.set(2, 1 << 21, 86400.005, -12.5, -0.001);
+		delta.set(3, 127, 86399.99, 0, -7);
+		delta.set(4, 128, -3600.25, 3.96875, -3.96875);
+		delta.set(5, 1 << 28, 0.004, -1e-9, 1e-9);
+		checkRoundTrip(delta);
+	}
+
+	public void testRandomDeltas() {
+		Random rng = new Random(1);
+		for (int round = 0; round < 500; round++) {
+			int n = rng.nextInt(50);
+			int base = rng.nextInt(1 << 20);
+			EncounterTableDelta delta = new EncounterTableDelta(base,
+					base + rng.nextInt(1000), n);
+			double time = rng.nextDouble() * 1e5;
+			for (int i = 0; i < n; i++) {
+				/* the times are mostly but not always increasing */
+				time += (rng.nextDouble() - 0.2) * 1000;
+				int address = rng.nextBoolean() ? rng.nextInt(200) :
+					rng.nextInt(Integer.MAX_VALUE);
+				delta.set(i, address, time,
+						(rng.nextDouble() - 0.5) * 2000,
+						(rng.nextDouble() - 0.5) * 2000);
+			}
+			checkRoundTrip(delta);
+		}
+	}
+
+	public void testTableDeltaRoundTrip() {
+		EncounterTable table = new EncounterTable();
+		table.put(5000, 12.34, -3.5, 7.25);
+		table.put(3, 1.5, 0.0625, -100);
+		table.put(70000, 0.01, 1, 1);
+		checkRoundTrip(table.changesSince(0));
+		checkRoundTrip(table.changesSince(1));
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.SimClock;
+
+/**
+ * Tests for {@link ExpiryWheel}. The wheel is compared with a brute force
+ * scan of the expiry times of all the messages.
+ */
+public class ExpiryWheelTest extends TestCase {
+	/** Ticks covered by the slots of levels 0, 1, 2 and 3 */
+	private static final long LEVEL_1 = 64;
+	private static final long LEVEL_2 = 64 * 64;
+	private static final long LEVEL_3 = 64 * 64 * 64;
+	private static final long OVERFLOW = 64L * 64 * 64 * 64;
+
+	private ExpiryWheel wheel;
+	/** Expiry times of the messages in the wheel */
+	private Map<String, Double> expiryTimes;
+	private DTNHost host;
+	private int nextId;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.getInstance().setTime(0);
+		this.wheel = new ExpiryWheel();
+		this.expiryTimes = new HashMap<String, Double>();
+		this.host = new DTNHost(0, new Coord(0, 0));
+		this.nextId = 0;
+	}
+
+	/**
+	 * Adds a message expiring at the given time (in ticks) to the wheel
+	 * @return ID of the message
+	 */
+	private String add(double expiryTick) {
+		String id = "M" + this.nextId++;
+		double expiryTime = expiryTick * ExpiryWheel.TICK;
+		this.wheel.add(new Message(this.host, this.host, id, 1), expiryTime);
+		this.expiryTimes.put(id, expiryTime);
+		return id;
+	}
+
+	private void remove(String id) {
+		assertNotNull(this.wheel.remove(id));
+		this.expiryTimes.remove(id);
+	}
+
+	/**
+	 * Advances the clock and the wheel to the given time (in ticks) and
+	 * checks that exactly the messages that have expired by then are
+	 * removed
+	 */
+	private void advance(double tick) {
+		double time = tick * ExpiryWheel.TICK;
+		SimClock.getInstance().setTime(time);
+		List<Message> expired = new ArrayList<Message>();
+		this.wheel.advance(time, expired);
+
+		/* the wheel works in whole ticks */
+		double passed = Math.floor(tick) * ExpiryWheel.TICK;
+		Set<String> expected = new HashSet<String>();
+		for (Iterator<Map.Entry<String, Double>> i =
+				this.expiryTimes.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, Double> e = i.next();
+			if (e.getValue() <= passed) {
+				expected.add(e.getKey());
+				i.remove();
+			}
+		}
+		Set<String> found = new HashSet<String>();
+		for (Message m : expired) {
+			assertTrue("Expired twice: " + m.getId(), found.add(m.getId()));
+		}
+		assertEquals("Expired at " + tick, expected, found);
+		assertEquals(this.expiryTimes.size(), this.wheel.size());
+	}
+
+	public void testLevelBoundaries() {
+		long[] boundaries = {LEVEL_1, LEVEL_2, 2 * LEVEL_2, LEVEL_3};
+		for (long b : boundaries) {
+			for (long d = -2; d <= 2; d++) {
+				add(b + d);
+				add(b + d - 0.5);
+				add(b + d + LEVEL_1);
+			}
+		}
+		for (long b : boundaries) {
+			for (long d = -3; d <= 3; d++) {
+				advance(b + d);
+			}
+			advance(b + LEVEL_1 + 3);
+		}
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testRandomTimesAcrossBoundaries() {
+		Random rng = new Random(1);
+		double now = 0;
+		while (now < 3 * LEVEL_2) {
+			int nrofAdds = rng.nextInt(20);
+			for (int i = 0; i < nrofAdds; i++) {
+				/* mostly near, some beyond the levels 0 and 1 */
+				double range = rng.nextInt(4) == 0 ? 3 * LEVEL_2 :
+					2 * LEVEL_1;
+				add(Math.floor(now) + 1 + rng.nextDouble() * range);
+			}
+			if (!this.expiryTimes.isEmpty() && rng.nextInt(3) == 0) {
+				List<String> ids = new ArrayList<String>(
+						this.expiryTimes.keySet());
+				remove(ids.get(rng.nextInt(ids.size())));
+			}
+			now += rng.nextDouble() * (rng.nextInt(10) == 0 ? 300 : 20);
+			advance(now);
+		}
+	}
+
+	public void testOverflow() {
+		add(OVERFLOW - 1);
+		add(OVERFLOW + 3);
+		add(2 * OVERFLOW + LEVEL_3 + 5);
+		String removed = add(OVERFLOW + LEVEL_2);
+		advance(OVERFLOW - 2);
+		advance(OVERFLOW - 1);
+		advance(OVERFLOW + 2);
+		advance(OVERFLOW + 3);
+		remove(removed);
+		advance(OVERFLOW + LEVEL_3);
+		advance(2 * OVERFLOW + LEVEL_3 + 4);
+		advance(2 * OVERFLOW + LEVEL_3 + 5);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testRemoveCascadedEntry() {
+		String a = add(LEVEL_2 + 10);
+		add(LEVEL_2 + 10);
+		String c = add(LEVEL_2 + LEVEL_1 + 1);
+		/* the entries are cascaded down to level 0 and 1 at LEVEL_2 */
+		advance(LEVEL_2);
+		remove(a);
+		remove(c);
+		advance(LEVEL_2 + 9);
+		advance(LEVEL_2 + 10);
+		advance(LEVEL_2 + 2 * LEVEL_1);
+		assertEquals(0, this.wheel.size());
+		assertNull(this.wheel.remove(a));
+	}
+
+	public void testReplacedEntry() {
+		String id = add(LEVEL_2 + 1);
+		this.wheel.add(new Message(this.host, this.host, id, 1), 5);
+		this.expiryTimes.put(id, 5.0);
+		advance(5);
+		advance(LEVEL_2 + 2);
+	}
+
+	public void testEmptyWheelStartsAtCurrentTick() {
+		double start = 5e8 + 0.3;
+		SimClock.getInstance().setTime(start);
+		add(start + 10);
+		add(start + LEVEL_2);
+		long before = System.nanoTime();
+		advance(start + 9);
+		advance(start + 10);
+		advance(start + LEVEL_2 + 1);
+		/* the ticks before the first message aren't passed one by one */
+		assertTrue((System.nanoTime() - before) < 1000000000L);
+
+		/* empty again: the wheel jumps to the new time */
+		SimClock.getInstance().setTime(2 * start);
+		add(2 * start + LEVEL_1);
+		advance(2 * start + LEVEL_1 - 1);
+		advance(2 * start + LEVEL_1);
+		advance(2 * start + LEVEL_1 + 1);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testMessageExpiredBeforeAddingExpiresOnNextAdvance() {
+		SimClock.getInstance().setTime(100.5);
+		List<Message> expired = new ArrayList<Message>();
+		this.wheel.add(new Message(this.host, this.host, "old", 1), 50);
+		this.wheel.advance(100.5, expired);
+		assertEquals(1, expired.size());
+		assertEquals(0, this.wheel.size());
+
+		/* the current tick has passed now */
+		this.wheel.add(new Message(this.host, this.host, "older", 1), 10);
+		this.wheel.add(new Message(this.host, this.host, "new", 1), 101);
+		this.wheel.advance(100.9, expired);
+		assertEquals(1, expired.size());
+		this.wheel.advance(101, expired);
+		assertEquals(3, expired.size());
+	}
+
+	public void testNeverExpiringMessagesAreNotAdded() {
+		this.wheel.add(new Message(this.host, this.host, "M", 1),
+				Double.MAX_VALUE);
+		assertEquals(0, this.wheel.size());
+	}
+}
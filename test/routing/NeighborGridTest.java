@@ -0,0 +1,141 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link NeighborGrid}
+ */
+public class NeighborGridTest extends TestCase {
+	private NeighborGrid grid;
+	private double[] xs;
+	private double[] ys;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.grid = new NeighborGrid();
+	}
+
+	private void fill(int count, double spread, Random rng) {
+		this.grid.clear();
+		this.xs = new double[count];
+		this.ys = new double[count];
+		for (int i = 0; i < count; i++) {
+			this.xs[i] = 50 + rng.nextDouble() * spread;
+			this.ys[i] = 50 + rng.nextDouble() * spread;
+			this.grid.add(i, this.xs[i], this.ys[i]);
+		}
+	}
+
+	/**
+	 * Returns the squared distance of the closest neighbor accepted by the
+	 * filter, by comparing all of them
+	 */
+	private double closest(double x, double y, NeighborGrid.SlotFilter f) {
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i < this.xs.length; i++) {
+			double d = distance(x, y, i);
+			if (d < best && (f == null || f.accept(i))) {
+				best = d;
+			}
+		}
+		return best;
+	}
+
+	private double distance(double x, double y, int slot) {
+		double dx = this.xs[slot] - x;
+		double dy = this.ys[slot] - y;
+		return dx * dx + dy * dy;
+	}
+
+	private void checkNearest(double x, double y, NeighborGrid.SlotFilter f) {
+		int slot = this.grid.nearest(x, y, f);
+		double expected = closest(x, y, f);
+		if (expected == Double.MAX_VALUE) {
+			assertEquals(NeighborGrid.NONE, slot);
+			return;
+		}
+		assertTrue(slot != NeighborGrid.NONE);
+		assertTrue(f == null || f.accept(slot));
+		assertEquals("Nearest to (" + x + "," + y + ")", expected,
+				distance(x, y, slot));
+	}
+
+	public void testEmptyGrid() {
+		this.grid.clear();
+		assertEquals(NeighborGrid.NONE, this.grid.nearest(1, 1, null));
+	}
+
+	public void testNearestMatchesFullScan() {
+		Random rng = new Random(1);
+		for (int round = 0; round < 200; round++) {
+			double spread = round % 2 == 0 ? 3 : 40;
+			fill(1 + rng.nextInt(100), spread, rng);
+			for (int q = 0; q < 50; q++) {
+				/* points inside, next to and far from the neighbors */
+				double range = q % 3 == 0 ? 2000 : spread + 10;
+				checkNearest(50 - range / 2 + rng.nextDouble() * range,
+						50 - range / 2 + rng.nextDouble() * range, null);
+			}
+		}
+	}
+
+	public void testNearestWithFilter() {
+		Random rng = new Random(2);
+		NeighborGrid.SlotFilter odd = new NeighborGrid.SlotFilter() {
+			public boolean accept(int slot) {
+				return slot % 2 == 1;
+			}
+		};
+		for (int round = 0; round < 100; round++) {
+			fill(1 + rng.nextInt(60), 20, rng);
+			for (int q = 0; q < 50; q++) {
+				checkNearest(40 + rng.nextDouble() * 40,
+						40 + rng.nextDouble() * 40, odd);
+			}
+		}
+	}
+
+	public void testHasNeighborInCellMatchesFullScan() {
+		Random rng = new Random(3);
+		NeighborGrid.SlotFilter even = new NeighborGrid.SlotFilter() {
+			public boolean accept(int slot) {
+				return slot % 2 == 0;
+			}
+		};
+		assertFalse(this.grid.hasNeighborInCell(0, 0, null));
+		for (int round = 0; round < 100; round++) {
+			fill(1 + rng.nextInt(40), 10, rng);
+			for (int q = 0; q < 50; q++) {
+				double x = 45 + rng.nextDouble() * 20;
+				double y = 45 + rng.nextDouble() * 20;
+				boolean any = false;
+				boolean anyEven = false;
+				for (int i = 0; i < this.xs.length; i++) {
+					if (NeighborGrid.isSameCell(x, y, this.xs[i], this.ys[i])) {
+						any = true;
+						anyEven |= even.accept(i);
+					}
+				}
+				assertEquals(any, this.grid.hasNeighborInCell(x, y, null));
+				assertEquals(anyEven, this.grid.hasNeighborInCell(x, y, even));
+			}
+		}
+	}
+
+	public void testCellBoundaries() {
+		this.grid.clear();
+		this.grid.add(0, 2.0, -1.0);
+		assertTrue(this.grid.hasNeighborInCell(2.99, -0.01, null));
+		assertFalse(this.grid.hasNeighborInCell(1.99, -0.5, null));
+		assertFalse(this.grid.hasNeighborInCell(2.5, 0.0, null));
+		assertTrue(NeighborGrid.isSameCell(-0.5, 0.5, -0.01, 0.99));
+		assertFalse(NeighborGrid.isSameCell(-0.01, 0.5, 0.0, 0.5));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import core.RoutingInfo;
+
+/**
+ * Tests for {@link PagedRoutingInfo}
+ */
+public class PagedRoutingInfoTest extends TestCase {
+	/** Number of items created by the last walk */
+	private int nrofCreated;
+
+	/**
+	 * Returns a paged node of the given number of items whose texts are
+	 * their indices
+	 */
+	private RoutingInfo items(final int nrofItems, int maxItems) {
+		return new PagedRoutingInfo(nrofItems + " items", maxItems) {
+			protected int snapshot() {
+				return nrofItems;
+			}
+			protected RoutingInfo infoAt(int index) {
+				nrofCreated++;
+				return new RoutingInfo("" + index);
+			}
+		};
+	}
+
+	/**
+	 * Walks a tree like the GUI does and collects the texts of the leaves
+	 * @return Number of the next leaf
+	 */
+	private static int walk(RoutingInfo node, int next, List<String> skipped) {
+		List<RoutingInfo> children = node.getMoreInfo();
+		assertTrue(children.size() <= PagedRoutingInfo.PAGE_SIZE + 1);
+		if (children.isEmpty()) {
+			if (node.toString().startsWith("... and ")) {
+				skipped.add(node.toString());
+			}
+			else if (!node.toString().startsWith("[")) {
+				assertEquals("" + next, node.toString());
+				return next + 1;
+			}
+		}
+		for (RoutingInfo child : children) {
+			next = walk(child, next, skipped);
+		}
+		return next;
+	}
+
+	private void check(int nrofItems, int maxItems, int expectedShown) {
+		this.nrofCreated = 0;
+		List<String> skipped = new ArrayList<String>();
+		RoutingInfo ri = items(nrofItems, maxItems);
+		assertEquals(0, this.nrofCreated);
+		int next = 0;
+		for (RoutingInfo child : ri.getMoreInfo()) {
+			next = walk(child, next, skipped);
+		}
+		assertEquals(expectedShown, next);
+		assertEquals(expectedShown, this.nrofCreated);
+		if (expectedShown < nrofItems) {
+			assertEquals(1, skipped.size());
+			assertEquals("... and " + (nrofItems - expectedShown) + " more",
+					skipped.get(0));
+		}
+		else {
+			assertTrue(skipped.isEmpty());
+		}
+	}
+
+	public void testShortLists() {
+		check(0, 0, 0);
+		check(1, 10, 1);
+		check(PagedRoutingInfo.PAGE_SIZE, 0, PagedRoutingInfo.PAGE_SIZE);
+	}
+
+	public void testAllItemsArePaged() {
+		check(PagedRoutingInfo.PAGE_SIZE + 1, 0, PagedRoutingInfo.PAGE_SIZE + 1);
+		check(10001, 0, 10001);
+		check(123457, 0, 123457);
+	}
+
+	public void testItemsPastTheLimitAreLeftOut() {
+		check(101, 100, 100);
+		check(10001, 10000, 10000);
+		check(123457, 250, 250);
+	}
+
+	public void testPagesAreExpandedLazily() {
+		this.nrofCreated = 0;
+		RoutingInfo ri = items(250, 0);
+		List<RoutingInfo> pages = ri.getMoreInfo();
+		assertEquals(3, pages.size());
+		assertEquals("[200...249]", pages.get(2).toString());
+		assertEquals(0, this.nrofCreated);
+		assertEquals(50, pages.get(2).getMoreInfo().size());
+		assertEquals(50, this.nrofCreated);
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2008 TKK/ComNet
+ * Released under GPLv3. See LICENSE.txt for details.
+ */
+package routing;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import core.Connection;
+import core.Coord;
+import core.DTNHost;
+import core.Message;
+import core.MessageListener;
+import core.Settings;
+import core.SimClock;
+
+/**
+ * Tests for {@link RouterSnapshot}. A small random waypoint scenario is
+ * run on the stand-in hosts, the routers are written to a snapshot and
+ * restored to new hosts, and the state of the new routers is compared
+ * with the state of the old ones.
+ */
+public class RouterSnapshotTest extends TestCase {
+	/** Settings namespace of the test routers */
+	private static final String NS = "RouterSnapshotTest";
+	private static final int NROF_HOSTS = 30;
+	private static final double WORLD_SIZE = 300;
+	private static final double RANGE = 40;
+	private static final int SPEED = 250;
+
+	private File file;
+	/** Number of messages created */
+	private int nrofMsgs;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		SimClock.getInstance().setTime(0);
+		this.file = File.createTempFile("snapshot", ".bin");
+		this.nrofMsgs = 0;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		this.file.delete();
+		for (String name : System.getProperties().stringPropertyNames()) {
+			if (name.startsWith(NS + ".")) {
+				System.clearProperty(name);
+			}
+		}
+		super.tearDown();
+	}
+
+	private static void set(String name, Object value) {
+		System.setProperty(NS + "." + name, String.valueOf(value));
+	}
+
+	/**
+	 * Creates hosts at the given locations with replicates of a router
+	 * @param prototype The router prototype
+	 * @param locations Locations of the hosts
+	 * @return The hosts
+	 */
+	private static List<DTNHost> createHosts(MessageRouter prototype,
+			Coord[] locations) {
+		List<DTNHost> hosts = new ArrayList<DTNHost>();
+		for (int i = 0; i < locations.length; i++) {
+			DTNHost host = new DTNHost(i, locations[i].clone());
+			MessageRouter router = prototype.replicate();
+			router.init(host, new ArrayList<MessageListener>());
+			host.setRouter(router);
+			hosts.add(host);
+		}
+		return hosts;
+	}
+
+	/**
+	 * Runs a random waypoint scenario where the hosts create messages
+	 * @param hosts The hosts
+	 * @param duration Duration of the scenario in seconds
+	 */
+	private void runScenario(List<DTNHost> hosts, double duration) {
+		Random rng = new Random(1);
+		Coord[] waypoints = new Coord[hosts.size()];
+		for (int i = 0; i < waypoints.length; i++) {
+			waypoints[i] = new Coord(rng.nextDouble() * WORLD_SIZE,
+					rng.nextDouble() * WORLD_SIZE);
+		}
+		/* the steps aren't whole seconds, so the ages of the messages
+		 * aren't whole minutes */
+		for (double t = 0.7; t < duration; t += 0.7) {
+			SimClock.getInstance().setTime(t);
+			for (int i = 0; i < hosts.size(); i++) {
+				Coord c = hosts.get(i).getLocation();
+				double d = c.distance(waypoints[i]);
+				if (d < 2) {
+					waypoints[i] = new Coord(rng.nextDouble() * WORLD_SIZE,
+							rng.nextDouble() * WORLD_SIZE);
+				}
+				else {
+					c.translate((waypoints[i].getX() - c.getX()) * 2 / d,
+							(waypoints[i].getY() - c.getY()) * 2 / d);
+				}
+			}
+			for (int i = 0; i < hosts.size(); i++) {
+				for (int j = i + 1; j < hosts.size(); j++) {
+					updateContact(hosts.get(i), hosts.get(j));
+				}
+			}
+			if (rng.nextInt(5) == 0) {
+				DTNHost from = hosts.get(rng.nextInt(hosts.size()));
+				DTNHost to = hosts.get(rng.nextInt(hosts.size()));
+				if (from != to) {
+					from.getRouter().createNewMessage(new Message(from, to,
+							"M" + this.nrofMsgs++, 100 + rng.nextInt(400)));
+				}
+			}
+			for (DTNHost h : hosts) {
+				h.update();
+			}
+		}
+	}
+
+	/**
+	 * Connects or disconnects two hosts by their distance
+	 */
+	private static void updateContact(DTNHost a, DTNHost b) {
+		boolean inRange = a.getLocation().distance(b.getLocation()) < RANGE;
+		boolean connected = false;
+		for (Connection con : a.getConnections()) {
+			connected |= con.getOtherNode(a) == b;
+		}
+		if (inRange && !connected) {
+			a.connect(b, SPEED);
+		}
+		else if (!inRange && connected) {
+			a.disconnect(b);
+		}
+	}
+
+	/**
+	 * Returns a description of the routing state of a host: the buffered
+	 * messages with their EASE headers, the delivered set and, for EASE
+	 * routers, the own table and the neighbor states
+	 */
+	private String describe(DTNHost host) {
+		MessageRouter r = host.getRouter();
+		StringBuilder sb = new StringBuilder("host " + host + "\n");
+		List<Message> msgs = new ArrayList<Message>();
+		for (Message m : r.getMessageCollection()) {
+			EASEHeader header = EASEHeader.of(m);
+			if (header == null || !header.isTable()) {
+				msgs.add(m);
+			}
+		}
+		Collections.sort(msgs);
+		for (Message m : msgs) {
+			sb.append(m.getId() + " " + m.getFrom() + "->" + m.getTo() +
+					" size " + m.getSize() + " ttl " + m.getTtl() +
+					" created " + m.getCreationTime() + " received " +
+					m.getReceiveTime() + " path " + m.getHops());
+			EASEHeader header = EASEHeader.of(m);
+			if (header != null) {
+				sb.append(" jumping " + header.isJumping() + " anchor " +
+						header.getArchorX() + "," + header.getArchorY() +
+						" copies " + header.getCopies() + " hop set");
+				for (DTNHost hop : m.getHops()) {
+					assertTrue(header.getHops().contains(hop));
+				}
+				sb.append(" " + header.getHops().size());
+			}
+			sb.append('\n');
+		}
+
+		DeliveredSet delivered = r.getDeliveredSet();
+		sb.append("delivered " + delivered.isBounded() + " " +
+				delivered.size() + " " + delivered.getNrofWords() + ":");
+		for (int i = 0; i < this.nrofMsgs; i++) {
+			if (delivered.contains("M" + i)) {
+				sb.append(" " + i);
+			}
+		}
+		sb.append('\n');
+
+		if (r instanceof EASERouter) {
+			EASERouter ease = (EASERouter)r;
+			EncounterTable own = ease.getEncounterTable();
+			sb.append("own table version " + own.getVersion() + ":");
+			describeEntries(own, true, sb);
+			for (Map.Entry<DTNHost, EASERouter.NeighborState> e :
+					ease.getNeighborStates().entrySet()) {
+				EASERouter.NeighborState state = e.getValue();
+				sb.append("neighbor " + e.getKey() + " sent " +
+						state.versionSent + " updated " + state.updated);
+				if (state.table != null) {
+					sb.append(" received " + state.table.getSourceVersion() +
+							":");
+					describeEntries(state.table, false, sb);
+				}
+				else {
+					sb.append(" no table\n");
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Appends the entries of an encounter table in their change order
+	 */
+	private static void describeEntries(EncounterTable table,
+			boolean versions, StringBuilder sb) {
+		EncounterTableDelta entries = table.changesSince(0);
+		for (int i = 0; i < entries.size(); i++) {
+			int address = entries.addressAt(i);
+			sb.append(" " + address + "@" + entries.timeAt(i) + "(" +
+					entries.xAt(i) + "," + entries.yAt(i) + ")");
+			if (versions) {
+				sb.append("v" + table.getEntryVersion(address));
+			}
+		}
+		sb.append('\n');
+	}
+
+	/**
+	 * Runs a scenario, writes and restores the snapshot and checks that
+	 * the restored routers are equal to the original ones
+	 * @param prototype The router prototype
+	 */
+	private void checkRoundTrip(MessageRouter prototype) {
+		Coord[] locations = new Coord[NROF_HOSTS];
+		Random rng = new Random(2);
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = new Coord(rng.nextDouble() * WORLD_SIZE,
+					rng.nextDouble() * WORLD_SIZE);
+		}
+		List<DTNHost> hosts = createHosts(prototype, locations);
+		runScenario(hosts, 1500);
+		double time = SimClock.getTime();
+
+		List<String> expected = new ArrayList<String>();
+		int nrofBuffered = 0;
+		for (DTNHost h : hosts) {
+			expected.add(describe(h));
+			nrofBuffered += h.getRouter().getNrofMessages();
+		}
+		assertTrue(nrofBuffered > 0);
+		long length = RouterSnapshot.write(hosts, this.file.getPath());
+		assertEquals(this.file.length(), length);
+
+		SimClock.getInstance().setTime(0);
+		for (int i = 0; i < locations.length; i++) {
+			locations[i] = hosts.get(i).getLocation();
+		}
+		List<DTNHost> restored = createHosts(prototype, locations);
+		assertEquals(time, RouterSnapshot.restore(restored,
+				this.file.getPath()));
+		assertEquals(time, SimClock.getTime());
+		for (int i = 0; i < hosts.size(); i++) {
+			assertEquals(expected.get(i), describe(restored.get(i)));
+		}
+
+		/* the restored messages expire when the original ones would */
+		for (double later : new double[] {17.5, 59.9, 61, 601}) {
+			SimClock.getInstance().setTime(time + later);
+			for (int i = 0; i < hosts.size(); i++) {
+				MessageRouter original = hosts.get(i).getRouter();
+				for (Message m : original.getMessageCollection()) {
+					Message copy = restored.get(i).getRouter().getMessage(
+							m.getId());
+					if (copy != null) {
+						assertEquals(m.getId() + " at " + later, m.getTtl(),
+								copy.getTtl());
+					}
+				}
+			}
+		}
+	}
+
+	public void testRoundTripWithExactDeliveredSets() {
+		set(MessageRouter.MSG_TTL_S, 40);
+		set(MessageRouter.DELIVERED_SET_S, 1);
+		checkRoundTrip(new EASERouter(new Settings(NS)));
+	}
+
+	public void testRoundTripWithBoundedDeliveredSets() {
+		set(MessageRouter.MSG_TTL_S, 40);
+		set(MessageRouter.DELIVERED_SET_S, 2);
+		set(MessageRouter.DELIVERED_CAPACITY_S, 20);
+		checkRoundTrip(new SprayAndEASERouter(new Settings(NS)));
+	}
+
+	public void testRoundTripWithInfiniteTtl() {
+		checkRoundTrip(new EASERouter(new Settings(NS)));
+	}
+}